@@ -11,6 +11,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.os.AsyncTask;
 import android.os.Build;
+import android.text.TextUtils;
 import android.util.Log;
 
 import org.json.JSONException;
@@ -22,6 +23,7 @@ import java.util.HashMap;
 import java.util.Map;
 import java.util.Set;
 
+import oracle.idm.mobile.auth.AuthOperationState;
 import oracle.idm.mobile.auth.AuthServiceInputCallback;
 import oracle.idm.mobile.auth.AuthenticationServiceManager;
 import oracle.idm.mobile.auth.OAuthConnectionsUtil;
@@ -38,6 +40,7 @@ import oracle.idm.mobile.auth.local.OMDefaultAuthenticator;
 import oracle.idm.mobile.auth.openID.OpenIDTokenService;
 import oracle.idm.mobile.callback.OMAuthenticationContextCallback;
 import oracle.idm.mobile.callback.OMMobileSecurityServiceCallback;
+import oracle.idm.mobile.callback.OMTokenRefreshCallback;
 import oracle.idm.mobile.certificate.ClientCertificatePreference;
 import oracle.idm.mobile.certificate.OMCertificateService;
 import oracle.idm.mobile.configuration.OAuthAuthorizationGrantType;
@@ -46,15 +49,18 @@ import oracle.idm.mobile.configuration.OMConnectivityMode;
 import oracle.idm.mobile.configuration.OMMobileSecurityConfiguration;
 import oracle.idm.mobile.configuration.OMMobileSecurityConfiguration.BrowserMode;
 import oracle.idm.mobile.configuration.OMMobileSecurityConfiguration.HostnameVerification;
+import oracle.idm.mobile.configuration.OMMobileSecurityConfiguration.HttpTransport;
 import oracle.idm.mobile.configuration.OMOAuthMobileSecurityConfiguration;
 import oracle.idm.mobile.connection.CBAExceptionEvent;
 import oracle.idm.mobile.connection.OMConnectionHandler;
 import oracle.idm.mobile.connection.OMCookieManager;
+import oracle.idm.mobile.connection.OMHTTPRequestExecutor;
 import oracle.idm.mobile.connection.SSLExceptionEvent;
 import oracle.idm.mobile.credentialstore.OMCredentialStore;
 import oracle.idm.mobile.crypto.OMCryptoService;
 import oracle.idm.mobile.crypto.OMKeyManagerException;
 import oracle.idm.mobile.crypto.OMKeyStore;
+import oracle.idm.mobile.crypto.OMSecureStorageService;
 import oracle.idm.mobile.logging.OMLog;
 import oracle.idm.mobile.util.DefaultAuthenticationUtils;
 
@@ -480,6 +486,16 @@ public class OMMobileSecurityService {
      */
     public static final String OM_PROP_OAUTH_ENABLE_PKCE = "OAuthEnablePKCE";
 
+    /**
+     * This represents the number of seconds before the expiry of an OAuth access
+     * token, from which the token is refreshed in the background when it is
+     * used. Tokens expiring sooner are refreshed ahead of time, so that
+     * reading them does not wait for the token endpoint. It is capped at
+     * half the lifetime of the token. The value should be of type
+     * {@link Integer}; 0 disables the refresh ahead of expiry. Default is 60.
+     */
+    public static final String OM_PROP_OAUTH_TOKEN_REFRESH_SKEW = "OAuthTokenRefreshSkew";
+
     /**
      * This represents the custom HTTP headers which should be added to the HTTP
      * request being made to the server in case of HTTP Basic authentication.
@@ -510,6 +526,33 @@ public class OMMobileSecurityService {
      * otherwise its <code>false</code> by default.
      */
     public static final String OM_PROP_SESSION_ACTIVE_ON_RESTART = "SessionActiveOnRestart";
+    /**
+     * This property is applicable only when the authentication context is
+     * persisted, see {@link #OM_PROP_SESSION_ACTIVE_ON_RESTART}. The value
+     * <code>true</code> means that the tokens, cookies and session details of
+     * the authentication context are stored as separate records, of which only
+     * the changed ones are written again when the context is updated, e.g. on
+     * token refresh; the tokens are read back only when they are first used.
+     * By default, the authentication context is stored as a whole. The expected
+     * value should be of type {@link Boolean}.
+     */
+    public static final String OM_PROP_INCREMENTAL_AUTH_CONTEXT_PERSISTENCE = "IncrementalAuthContextPersistence";
+    /**
+     * This property represents how long the SDK keeps the authentication
+     * service instances it creates for the login, logout and validity checks,
+     * so that later ones reuse them. The value should be of type
+     * {@link oracle.idm.mobile.configuration.OMMobileSecurityConfiguration.AuthServiceRetention}
+     * or its {@link String} value. Default is
+     * {@link oracle.idm.mobile.configuration.OMMobileSecurityConfiguration.AuthServiceRetention#NONE}.
+     */
+    public static final String OM_PROP_AUTH_SERVICE_RETENTION = "AuthServiceRetention";
+    /**
+     * This property enables/disables the creation of the authentication
+     * services of the configured authentication scheme once {@link #setup()}
+     * completes, so that the first login does not pay for it. The expected value should be of type {@link Boolean}. Default is
+     * <code>false</code>.
+     */
+    public static final String OM_PROP_WARM_UP_AUTH_SERVICES = "WarmUpAuthServices";
     /**
      * This property enables/disables the support for Client Certificate based
      * Authentication. The default behavior is to ignore any client certificate
@@ -637,6 +680,17 @@ public class OMMobileSecurityService {
      */
     public static final String OM_PROP_HOSTNAME_VERIFICATION = "HostnameVerification";
 
+    /**
+     * This property accepts {@link HttpTransport} value (or its name as a
+     * {@link String}) and selects how {@link OMConnectionHandler} talks to the
+     * server for token, refresh, discovery, userinfo and similar calls.
+     * {@link HttpTransport#POOLED} keeps connections alive in a process wide
+     * pool so that consecutive calls to the same server skip the TCP and TLS
+     * handshakes. The default value for this property is
+     * {@link HttpTransport#URL_CONNECTION}.
+     */
+    public static final String OM_PROP_HTTP_TRANSPORT = "HttpTransport";
+
     /**
      * This lists down the authentication types supported by the SDK. This should be given as input against
      * OM_PROP_AUTHSERVER_TYPE in {@link OMMobileSecurityService} map-based constructor.
@@ -700,8 +754,9 @@ public class OMMobileSecurityService {
     private AuthenticationServiceManager mASM;
     private OMCryptoService cryptoService;
     private OMCredentialStore credentialStoreService = null;
-    private boolean logoutInProgress = false;
+    private final AuthOperationState mOperationState = new AuthOperationState();
     private OMAuthenticationContextCallback mAuthContextCallback;
+    private volatile OMTokenRefreshCallback mTokenRefreshCallback;
     private OMConnectionHandler mConnectionHandler;
     private Object mASMLock = new Object();
     private OpenIDTokenService openIDTokenService;
@@ -819,7 +874,8 @@ public class OMMobileSecurityService {
             invokeSetupCompleteCallback(null);
             isSetupDone = true;
         } else {
-            new SetupTask(this).execute();
+            new SetupTask(this).executeOnExecutor(
+                    OMHTTPRequestExecutor.getExecutor(OMHTTPRequestExecutor.Priority.INTERACTIVE, "Setup"));
         }
     }
 
@@ -884,8 +940,14 @@ public class OMMobileSecurityService {
             }
         }
         authRequest = builder.buildComplete();
-        if (authRequest != null)
-            getASM().startAuthenticationProcess(authRequest);
+        if (authRequest != null) {
+            /* A logout may have started since the first check.*/
+            int generation = mOperationState.beginAuthentication();
+            if (generation == AuthOperationState.NO_GENERATION) {
+                throw new OMMobileSecurityException(OMErrorCode.LOGOUT_IN_PROGRESS);
+            }
+            getASM().startAuthenticationProcess(authRequest, generation);
+        }
     }
 
     public void authenticate() throws OMMobileSecurityException {
@@ -905,8 +967,30 @@ public class OMMobileSecurityService {
 
         @Override
         protected OMMobileSecurityException doInBackground(Void... params) {
+            SetupGraph setup = new SetupGraph();
+            setup.add("configuration", new SetupGraph.Step() {
+                @Override
+                public void run() throws OMMobileSecurityException {
+                    sMSS.getMobileSecurityConfig().initialize(sMSS.getApplicationContext(), sMSS.getConnectionHandler());
+                }
+            });
+            if (TextUtils.isEmpty(sMSS.getMobileSecurityConfig().getAuthenticatorName())) {
+                /* Loads the keys of the default authenticator while the configuration is
+                 * fetched, instead of on first use of the credential store.*/
+                setup.add("defaultAuthenticator", new SetupGraph.Step() {
+                    @Override
+                    public void run() {
+                        try {
+                            getDefaultAuthenticator(sMSS.getApplicationContext());
+                        } catch (OMAuthenticationManagerException | OMKeyManagerException e) {
+                            /* Not fatal, done again on first use of the credential store.*/
+                            OMLog.error(TAG, "Could not initialize the default authenticator", e);
+                        }
+                    }
+                });
+            }
             try {
-                sMSS.getMobileSecurityConfig().initialize(sMSS.getApplicationContext(), sMSS.getConnectionHandler());
+                setup.execute();
             } catch (OMMobileSecurityException e) {
                 return e;
             }
@@ -949,6 +1033,9 @@ public class OMMobileSecurityService {
             getCallback().onSetupCompleted(this, null, e);
         } else {
             setSetupCompleted(true);
+            if (mMobileSecurityConfig.isWarmUpAuthServices()) {
+                getASM().warmUpAuthServices();
+            }
             getCallback().onSetupCompleted(this, getMobileSecurityConfig(), null);
         }
     }
@@ -1114,7 +1201,7 @@ public class OMMobileSecurityService {
     }
 
     public void logout(boolean isForgetDevice) {
-        if (isLogoutInProgress()) {
+        if (!mOperationState.beginLogout()) {
             if (mCallback != null) {
                 mCallback.onLogoutCompleted(this,
                         new OMMobileSecurityException(
@@ -1148,7 +1235,8 @@ public class OMMobileSecurityService {
             if (isForgetDevice) {
                 removeCredentials();
             }
-            // no need to set logout in progress in this case.
+            /* Nothing to log out of.*/
+            mOperationState.endLogout();
             if (mCallback != null) {
                 mCallback.onLogoutCompleted(this, null);
             }
@@ -1226,16 +1314,26 @@ public class OMMobileSecurityService {
      * @hide
      */
     public boolean isLogoutInProgress() {
-        // TODO make if required make this per thread.
-        // First of all avoid call from a different thread in the start of the
-        // API.
-        return logoutInProgress;
+        return mOperationState.isLoggingOut();
     }
 
     public void setLogoutInProgress(boolean logoutInProgress) {
-        OMLog.debug(TAG, "Logout In Progress : " + logoutInProgress + " From "
-                + Thread.currentThread().getName());
-        this.logoutInProgress = logoutInProgress;
+        if (logoutInProgress) {
+            mOperationState.beginLogout();
+        } else {
+            mOperationState.endLogout();
+        }
+    }
+
+    /**
+     * Returns the state of the login, refresh and logout operations of this
+     * instance, which can be read from any thread without blocking.
+     *
+     * @return
+     * @hide
+     */
+    public AuthOperationState getOperationState() {
+        return mOperationState;
     }
 
     public void setAuthenticationContextCallback(OMAuthenticationContextCallback authContextCallback) {
@@ -1246,6 +1344,14 @@ public class OMMobileSecurityService {
         return mAuthContextCallback;
     }
 
+    public void setTokenRefreshCallback(OMTokenRefreshCallback tokenRefreshCallback) {
+        mTokenRefreshCallback = tokenRefreshCallback;
+    }
+
+    public OMTokenRefreshCallback getTokenRefreshCallback() {
+        return mTokenRefreshCallback;
+    }
+
     private void resetAuthServiceManager() {
         final Object lock = mASMLock;
         synchronized (lock) {
@@ -1282,6 +1388,8 @@ public class OMMobileSecurityService {
         switch (flags) {
             case OMSecurityConstants.Flags.CONNECTION_ALLOW_UNTRUSTED_SERVER_CERTIFICATE:
             case OMSecurityConstants.Flags.CONNECTION_FORCE_RESET:
+                /* The trust store may have changed.*/
+                OMConnectionHandler.clearSharedSSLSocketFactories();
                 if (mConnectionHandler != null) {
                     OMLog.info(TAG, "Resetting connection handler");
                     resetConnectionHandler();
@@ -1351,6 +1459,7 @@ public class OMMobileSecurityService {
             }
         }
         removeSessionCookiesOnLogout();
+        OMSecureStorageService.clearCache();
         resetAuthServiceManager();
         resetConnectionHandler();
         setLogoutInProgress(false);
@@ -49,6 +49,7 @@ public class OMSecurityConstants {
     public static final String CLIENT_NAME = "client_name";
     public static final String CLIENT_SECRET = "client_secret";
     public static final String CLIENT_SECRET_EXPIRES_AT = "client_secret_expires_at";
+    public static final String CLIENT_ID_ISSUED_AT = "client_id_issued_at";
     public static final String REDIRECT_URIS = "redirect_uris";
     public static final String GRANT_TYPES = "grant_types";
     public static final String SCOPE = "scope";
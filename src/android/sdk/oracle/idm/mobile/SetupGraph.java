@@ -0,0 +1,192 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates.
+ * The Universal Permissive License (UPL), Version 1.0
+ */
+
+
+package oracle.idm.mobile;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import oracle.idm.mobile.connection.OMHTTPRequestExecutor;
+import oracle.idm.mobile.logging.OMLog;
+
+/**
+ * Steps of the setup of {@link OMMobileSecurityService}, with the steps each
+ * of them depends on. Steps whose dependencies are complete run in parallel
+ * on {@link OMHTTPRequestExecutor}, so that setup takes as long as its longest
+ * chain of steps instead of the sum of them all.
+ * <p>
+ * The thread calling {@link #execute()} runs steps as well, including the ones
+ * queued on the executor which have not started yet, so that setup completes
+ * even when all the executor threads are busy.
+ */
+final class SetupGraph {
+
+    private static final String TAG = SetupGraph.class.getSimpleName();
+
+    interface Step {
+        void run() throws OMMobileSecurityException;
+    }
+
+    private final Map<String, Node> mNodes = new LinkedHashMap<>();
+    private int mCompletedCount;
+    private OMMobileSecurityException mFailure;
+
+    /**
+     * Adds a step, run once all the given steps completed. Dependencies must
+     * be added before the steps depending on them.
+     */
+    SetupGraph add(String name, Step step, String... dependencies) {
+        for (String dependency : dependencies) {
+            if (!mNodes.containsKey(dependency)) {
+                throw new IllegalArgumentException("Unknown setup step " + dependency);
+            }
+        }
+        mNodes.put(name, new Node(name, step, dependencies));
+        return this;
+    }
+
+    /**
+     * Runs all the steps, and returns once they all completed.
+     *
+     * @throws OMMobileSecurityException the failure of the first step which
+     *                                   failed; steps depending on it are not run
+     */
+    void execute() throws OMMobileSecurityException {
+        List<Node> scheduled = new ArrayList<>();
+        while (true) {
+            List<Node> ready = new ArrayList<>();
+            synchronized (this) {
+                if (mFailure != null) {
+                    throw mFailure;
+                }
+                if (mCompletedCount == mNodes.size()) {
+                    return;
+                }
+                for (Node node : mNodes.values()) {
+                    if (!node.mScheduled && areComplete(node.mDependencies)) {
+                        node.mScheduled = true;
+                        ready.add(node);
+                    }
+                }
+            }
+            scheduled.addAll(ready);
+            /* All but one to the executor, that one on this thread.*/
+            for (int i = 1; i < ready.size(); i++) {
+                Node node = ready.get(i);
+                try {
+                    OMHTTPRequestExecutor.execute(node, OMHTTPRequestExecutor.Priority.INTERACTIVE,
+                            "Setup:" + node.mName);
+                } catch (RejectedExecutionException e) {
+                    OMLog.debug(TAG, "Running setup step " + node.mName + " on the calling thread");
+                }
+            }
+            boolean ranStep = false;
+            for (Node node : scheduled) {
+                ranStep |= node.tryRun();
+            }
+            if (!ranStep) {
+                synchronized (this) {
+                    while (mFailure == null && !hasSchedulableNodes() && !allComplete()) {
+                        try {
+                            wait();
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            throw new OMMobileSecurityException(OMErrorCode.INTERNAL_ERROR, e);
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    private boolean areComplete(String[] names) {
+        for (String name : names) {
+            if (!mNodes.get(name).mCompleted) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private boolean hasSchedulableNodes() {
+        for (Node node : mNodes.values()) {
+            if (!node.mScheduled && areComplete(node.mDependencies)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean allComplete() {
+        return mCompletedCount == mNodes.size();
+    }
+
+    private synchronized void onCompleted(Node node, OMMobileSecurityException failure) {
+        if (failure != null) {
+            if (mFailure == null) {
+                mFailure = failure;
+            }
+        } else {
+            node.mCompleted = true;
+            mCompletedCount++;
+        }
+        notifyAll();
+    }
+
+    private class Node implements Runnable {
+        private final String mName;
+        private final Step mStep;
+        private final String[] mDependencies;
+        private final AtomicBoolean mStarted = new AtomicBoolean();
+        /* Guarded by the graph.*/
+        private boolean mScheduled;
+        private boolean mCompleted;
+
+        Node(String name, Step step, String[] dependencies) {
+            mName = name;
+            mStep = step;
+            mDependencies = Arrays.copyOf(dependencies, dependencies.length);
+        }
+
+        @Override
+        public void run() {
+            tryRun();
+        }
+
+        /* Returns false if the step was already started, by another thread or not.*/
+        boolean tryRun() {
+            if (!mStarted.compareAndSet(false, true)) {
+                return false;
+            }
+            OMMobileSecurityException failure = null;
+            boolean succeeded = false;
+            long start = System.currentTimeMillis();
+            try {
+                mStep.run();
+                succeeded = true;
+            } catch (OMMobileSecurityException e) {
+                failure = e;
+            } catch (RuntimeException e) {
+                OMLog.error(TAG, "Setup step " + mName + " failed", e);
+                failure = new OMMobileSecurityException(OMErrorCode.INTERNAL_ERROR, e);
+            } finally {
+                OMLog.debug(TAG, "Setup step " + mName + " took "
+                        + (System.currentTimeMillis() - start) + " ms");
+                if (!succeeded && failure == null) {
+                    /* An Error, still thrown to the executor.*/
+                    failure = new OMMobileSecurityException(OMErrorCode.INTERNAL_ERROR);
+                }
+                onCompleted(this, failure);
+            }
+            return true;
+        }
+    }
+}
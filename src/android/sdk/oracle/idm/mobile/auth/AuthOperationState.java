@@ -0,0 +1,162 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates.
+ * The Universal Permissive License (UPL), Version 1.0
+ */
+
+
+package oracle.idm.mobile.auth;
+
+import oracle.idm.mobile.logging.OMLog;
+
+/**
+ * State of the operations changing the authentication state of an
+ * {@link oracle.idm.mobile.OMMobileSecurityService}: login, token refresh and
+ * logout. Where {@link AuthStateTransition} decides the steps of a login, this
+ * decides which of these operations may run at a given time:
+ * <ul>
+ * <li>A logout excludes every other operation. It cannot start while another
+ * logout runs, and takes over a login waiting for the user or a refresh in
+ * flight, whose results are then dropped: a login taken over completes as
+ * canceled, without installing its authentication context.</li>
+ * <li>A login cannot start while a logout runs. A new login replaces the
+ * current one, as an app may authenticate again after abandoning a
+ * challenge.</li>
+ * <li>A refresh cannot start while a logout runs. Refreshes run alongside each
+ * other and alongside a login, {@link OAuthTokenRefresher} joining the ones of
+ * the same token.</li>
+ * </ul>
+ * Transitions are serialized, while readers, e.g. the validity checks and the
+ * header lookups, only read the current state and never block.
+ *
+ * @hide
+ */
+public final class AuthOperationState {
+
+    private static final String TAG = AuthOperationState.class.getSimpleName();
+
+    /**
+     * Returned by {@link #beginAuthentication()} and {@link #beginRefresh()}
+     * when the operation may not start.
+     */
+    public static final int NO_GENERATION = -1;
+
+    public enum State {
+        IDLE,
+        AUTHENTICATING,
+        REFRESHING,
+        LOGGING_OUT
+    }
+
+    private volatile State mState = State.IDLE;
+    private int mRefreshCount;
+    /* Bumped whenever a logout starts, so that refreshes begun before it know
+     * they were taken over.*/
+    private int mGeneration;
+    /* Bumped whenever a login or a logout starts, so that a login knows
+     * whether it is still the current one when it completes.*/
+    private int mAuthGeneration;
+
+    public State getState() {
+        return mState;
+    }
+
+    public boolean isLoggingOut() {
+        return mState == State.LOGGING_OUT;
+    }
+
+    /**
+     * Starts a login.
+     *
+     * @return the value to pass to {@link #endAuthentication(int)}, or
+     * {@link #NO_GENERATION} if a logout is in progress
+     */
+    public synchronized int beginAuthentication() {
+        if (mState == State.LOGGING_OUT) {
+            return NO_GENERATION;
+        }
+        setState(State.AUTHENTICATING);
+        return ++mAuthGeneration;
+    }
+
+    /**
+     * Ends a login started by {@link #beginAuthentication()}. To install the
+     * result of the login atomically with this check, callers hold the lock
+     * of this instance.
+     *
+     * @return true if the login is still the current one, false if a logout
+     * or another login started since, i.e. if its result must be dropped
+     */
+    public synchronized boolean endAuthentication(int generation) {
+        if (generation == NO_GENERATION || generation != mAuthGeneration) {
+            return false;
+        }
+        if (mState == State.AUTHENTICATING) {
+            setState(mRefreshCount > 0 ? State.REFRESHING : State.IDLE);
+        }
+        return true;
+    }
+
+    /**
+     * Starts a refresh.
+     *
+     * @return the value to pass to {@link #endRefresh(int)}, or
+     * {@link #NO_GENERATION} if a logout is in progress
+     */
+    public synchronized int beginRefresh() {
+        if (mState == State.LOGGING_OUT) {
+            return NO_GENERATION;
+        }
+        mRefreshCount++;
+        if (mState == State.IDLE) {
+            setState(State.REFRESHING);
+        }
+        return mGeneration;
+    }
+
+    /**
+     * Ends a refresh started by {@link #beginRefresh()}.
+     *
+     * @return true if no logout started since the refresh started, i.e. if its
+     * result may be kept
+     */
+    public synchronized boolean endRefresh(int generation) {
+        if (generation == NO_GENERATION || generation != mGeneration) {
+            /* Already uncounted by the logout which took it over.*/
+            return false;
+        }
+        if (--mRefreshCount == 0 && mState == State.REFRESHING) {
+            setState(State.IDLE);
+        }
+        return true;
+    }
+
+    /**
+     * Starts a logout, taking over the login or refreshes in progress.
+     *
+     * @return false if a logout is already in progress
+     */
+    public synchronized boolean beginLogout() {
+        if (mState == State.LOGGING_OUT) {
+            return false;
+        }
+        mGeneration++;
+        mAuthGeneration++;
+        mRefreshCount = 0;
+        setState(State.LOGGING_OUT);
+        return true;
+    }
+
+    public synchronized void endLogout() {
+        if (mState == State.LOGGING_OUT) {
+            setState(State.IDLE);
+        }
+    }
+
+    private void setState(State state) {
+        if (mState != state) {
+            OMLog.debug(TAG, mState + " -> " + state + " From "
+                    + Thread.currentThread().getName());
+            mState = state;
+        }
+    }
+}
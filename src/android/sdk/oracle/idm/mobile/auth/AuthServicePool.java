@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates.
+ * The Universal Permissive License (UPL), Version 1.0
+ */
+
+
+package oracle.idm.mobile.auth;
+
+import android.content.ComponentCallbacks2;
+import android.content.Context;
+import android.content.res.Configuration;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import oracle.idm.mobile.configuration.OMMobileSecurityConfiguration.AuthServiceRetention;
+import oracle.idm.mobile.logging.OMLog;
+
+/**
+ * Authentication service instances kept by {@link AuthenticationServiceManager}
+ * after it unloads them, so that the next flow or validity check reuses them
+ * instead of creating them and their handlers again, as per the configured
+ * {@link AuthServiceRetention}. Services and their handlers read what is
+ * replaced between flows, e.g. the {@link OAuthConnectionsUtil}, from the
+ * manager when they use it, hence any kept instance can be reused.
+ */
+final class AuthServicePool {
+
+    private static final String TAG = AuthServicePool.class.getSimpleName();
+    private static final int LRU_CAPACITY = 3;
+
+    /* Pools to be cleared on memory pressure, not kept alive by this set.*/
+    private static final Set<AuthServicePool> sMemorySensitivePools =
+            Collections.newSetFromMap(new WeakHashMap<AuthServicePool, Boolean>());
+    private static boolean sMemoryCallbacksRegistered;
+
+    private final AuthServiceRetention mRetention;
+    private final LinkedHashMap<AuthenticationService.Type, AuthenticationService> mServices =
+            new LinkedHashMap<AuthenticationService.Type, AuthenticationService>(8, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(
+                        Map.Entry<AuthenticationService.Type, AuthenticationService> eldest) {
+                    return mRetention == AuthServiceRetention.LRU && size() > LRU_CAPACITY;
+                }
+            };
+
+    AuthServicePool(Context context, AuthServiceRetention retention) {
+        mRetention = retention != null ? retention : AuthServiceRetention.NONE;
+        if (mRetention == AuthServiceRetention.UNTIL_MEMORY_PRESSURE) {
+            registerForMemoryPressure(context != null ? context.getApplicationContext() : null,
+                    this);
+        }
+    }
+
+    /**
+     * Returns the kept instance of the given type, or null if none. The state
+     * the instance kept from its previous flow is cleared.
+     */
+    synchronized AuthenticationService get(AuthenticationService.Type type) {
+        AuthenticationService service = mServices.get(type);
+        if (service == null) {
+            return null;
+        }
+        if (mRetention == AuthServiceRetention.NONE) {
+            mServices.remove(type);
+        }
+        service.resetState();
+        return service;
+    }
+
+    synchronized boolean contains(AuthenticationService.Type type) {
+        return mServices.containsKey(type);
+    }
+
+    /**
+     * Keeps the given instance, if the retention allows it.
+     */
+    synchronized void put(AuthenticationService.Type type, AuthenticationService service) {
+        if (mRetention != AuthServiceRetention.NONE) {
+            mServices.put(type, service);
+        }
+    }
+
+    /**
+     * Keeps the given instance created ahead of use, even if the retention
+     * does not keep used instances.
+     */
+    synchronized void putWarm(AuthenticationService.Type type, AuthenticationService service) {
+        mServices.put(type, service);
+    }
+
+    synchronized void clear() {
+        mServices.clear();
+    }
+
+    private static void registerForMemoryPressure(Context applicationContext, AuthServicePool pool) {
+        synchronized (sMemorySensitivePools) {
+            sMemorySensitivePools.add(pool);
+            if (sMemoryCallbacksRegistered || applicationContext == null) {
+                return;
+            }
+            applicationContext.registerComponentCallbacks(new ComponentCallbacks2() {
+                @Override
+                public void onTrimMemory(int level) {
+                    /* Not when the UI is merely hidden.*/
+                    if (level >= TRIM_MEMORY_RUNNING_LOW && level != TRIM_MEMORY_UI_HIDDEN) {
+                        clearMemorySensitivePools();
+                    }
+                }
+
+                @Override
+                public void onLowMemory() {
+                    clearMemorySensitivePools();
+                }
+
+                @Override
+                public void onConfigurationChanged(Configuration newConfig) {
+                }
+            });
+            sMemoryCallbacksRegistered = true;
+        }
+    }
+
+    private static void clearMemorySensitivePools() {
+        OMLog.debug(TAG, "Releasing the kept authentication services on memory pressure");
+        synchronized (sMemorySensitivePools) {
+            for (AuthServicePool pool : sMemorySensitivePools) {
+                pool.clear();
+            }
+        }
+    }
+}
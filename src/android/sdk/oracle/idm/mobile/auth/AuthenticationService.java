@@ -324,6 +324,12 @@ public abstract class AuthenticationService {
 
     public abstract Type getType();
 
+    /**
+     * Clears the state kept from a previous flow, called when a kept instance
+     * is reused, see {@link AuthServicePool}.
+     */
+    void resetState() {
+    }
 
     /**
      * Add the identity domain in the map passed based on SDK configuration.
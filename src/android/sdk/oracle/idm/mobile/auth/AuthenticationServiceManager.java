@@ -18,9 +18,11 @@ import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLDecoder;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
@@ -46,6 +48,7 @@ import oracle.idm.mobile.connection.CBAExceptionEvent;
 import oracle.idm.mobile.connection.InvalidCredentialEvent;
 import oracle.idm.mobile.connection.InvalidRedirectExceptionEvent;
 import oracle.idm.mobile.connection.OMCookieManager;
+import oracle.idm.mobile.connection.OMHTTPRequestExecutor;
 import oracle.idm.mobile.connection.OMHTTPResponse;
 import oracle.idm.mobile.connection.SSLExceptionEvent;
 import oracle.idm.mobile.credentialstore.OMCredential;
@@ -120,6 +123,7 @@ public class AuthenticationServiceManager {
      */
     private OMAuthenticationContext mTemporaryAuthContext;
     private RCUtility mRCUtility;
+    private AuthServicePool mAuthServicePool;
 
     private boolean isBasic;
     private boolean isOAuth;
@@ -138,6 +142,8 @@ public class AuthenticationServiceManager {
     private void initialize() {
         OMLog.info(TAG, "initialize");
         initAuthServiceHandlers();
+        mAuthServicePool = new AuthServicePool(getApplicationContext(),
+                getMSS().getMobileSecurityConfig().getAuthServiceRetention());
     }
 
     public OAuthConnectionsUtil getOAuthConnectionsUtil() {
@@ -289,28 +295,53 @@ public class AuthenticationServiceManager {
     void loadAllAuthenticationServices() {
 
         Map<AuthenticationService.Type, AuthenticationService> authServices = getAuthServiceMap();
-        AuthenticationService.Type serviceName;
+        for (AuthenticationService.Type serviceName : getConfiguredAuthServiceTypes()) {
+            checkBeforeLoad(authServices, serviceName);
+        }
+    }
+
+    /* The services validating the authentication context of the configuration.*/
+    private List<AuthenticationService.Type> getConfiguredAuthServiceTypes() {
+        List<AuthenticationService.Type> types = new ArrayList<>();
         if (isBasic) {
-            checkBeforeLoad(authServices, AuthenticationService.Type.BASIC_SERVICE);
+            types.add(AuthenticationService.Type.BASIC_SERVICE);
         }
         if (isOfflineAllowed) {
-            checkBeforeLoad(authServices, AuthenticationService.Type.OFFLINE_SERVICE);
+            types.add(AuthenticationService.Type.OFFLINE_SERVICE);
         }
         if (isFedAuth) {
-            checkBeforeLoad(authServices, AuthenticationService.Type.FED_AUTH_SERVICE);
+            types.add(AuthenticationService.Type.FED_AUTH_SERVICE);
         }
         if (isOAuth) {
-            checkBeforeLoad(authServices, getOAuthServiceType());
+            types.add(getOAuthServiceType());
         }
         if (isCBAAllowed) {
-            checkBeforeLoad(authServices, AuthenticationService.Type.CBA_SERVICE);
+            types.add(AuthenticationService.Type.CBA_SERVICE);
         }
         if (isOpenID) {
-            checkBeforeLoad(authServices, AuthenticationService.Type.OPENIDCONNECT10);
+            types.add(AuthenticationService.Type.OPENIDCONNECT10);
         }
         if (isClientRegistration) {
-            checkBeforeLoad(authServices, AuthenticationService.Type.CLIENT_REGISTRATION_SERVICE);
+            types.add(AuthenticationService.Type.CLIENT_REGISTRATION_SERVICE);
+        }
+        return types;
+    }
+
+    /**
+     * Creates the authentication services of the configuration ahead of their
+     * first use, see {@link OMMobileSecurityService#OM_PROP_WARM_UP_AUTH_SERVICES}.
+     */
+    public void warmUpAuthServices() {
+        for (AuthenticationService.Type type : getConfiguredAuthServiceTypes()) {
+            if (getAuthServiceMap().containsKey(type) || mAuthServicePool.contains(type)) {
+                continue;
+            }
+            AuthenticationService authService = createAuthService(type);
+            if (authService != null) {
+                mAuthServicePool.putWarm(type, authService);
+            }
         }
+        OMLog.debug(TAG, "Warmed up the authentication services");
     }
 
     public AuthenticationService getAuthService(AuthenticationService.Type type) {
@@ -318,9 +349,25 @@ public class AuthenticationServiceManager {
         if (authService != null) {
             return authService;
         }
+        authService = mAuthServicePool.get(type);
+        if (authService == null) {
+            authService = createAuthService(type);
+            if (authService != null) {
+                mAuthServicePool.put(type, authService);
+            }
+        }
+        if (authService != null) {
+            //add this to the map.
+            getAuthServiceMap().put(type, authService);
+        }
+
+        return authService;
+    }
+
+    private AuthenticationService createAuthService(AuthenticationService.Type type) {
+        AuthenticationService authService = null;
         //get handler completion handler for the given type.
         OMAuthenticationCompletionHandler completionHandler = mAuthServiceHandlers.get(type);
-        OAuthConnectionsUtil oAuthConnectionsUtil;
         if (completionHandler != null) {
             switch (type) {
                 case OFFLINE_SERVICE:
@@ -336,22 +383,16 @@ public class AuthenticationServiceManager {
                     authService = new OAuthResourceOwnerService(this, completionHandler);
                     break;
                 case OAUTH20_AC_SERVICE:
-                    oAuthConnectionsUtil = getOAuthConnectionsUtil();
                     authService = new OAuthAuthorizationCodeService(this, completionHandler,
-                            new OAuthAuthorizationCodeLogoutHandler(oAuthConnectionsUtil.getBrowserMode(),
-                                    oAuthConnectionsUtil.getOAuthState(), getCallback()));
+                            new OAuthAuthorizationCodeLogoutHandler(this, getCallback()));
                     break;
                 case CLIENT_REGISTRATION_SERVICE:
-                    oAuthConnectionsUtil = getOAuthConnectionsUtil();
                     authService = new IDCSClientRegistrationService(this, completionHandler,
-                            new OAuthAuthorizationCodeLogoutHandler(oAuthConnectionsUtil.getBrowserMode(),
-                                    oAuthConnectionsUtil.getOAuthState(), getCallback()));
+                            new OAuthAuthorizationCodeLogoutHandler(this, getCallback()));
                     break;
                 case OPENIDCONNECT10:
-                    oAuthConnectionsUtil = getOAuthConnectionsUtil();
                     authService = new OpenIDConnect10AuthenticationService(this, completionHandler,
-                            new OAuthAuthorizationCodeLogoutHandler(oAuthConnectionsUtil.getBrowserMode(),
-                                    oAuthConnectionsUtil.getOAuthState(), getCallback()));//TODO change this to open ID
+                            new OAuthAuthorizationCodeLogoutHandler(this, getCallback()));//TODO change this to open ID
                     break;
                 case OAUTH_MS_PREAUTHZ:
                     authService = new OAuthMSPreAuthZCodeService(this, completionHandler);
@@ -371,11 +412,6 @@ public class AuthenticationServiceManager {
                 authService = new RefreshTokenAuthenticationService(this, null);
             }
         }
-        if (authService != null) {
-            //add this to the map.
-            getAuthServiceMap().put(type, authService);
-        }
-
         return authService;
     }
 
@@ -404,7 +440,7 @@ public class AuthenticationServiceManager {
     }
 
 
-    public void startAuthenticationProcess(OMAuthenticationRequest authRequest) {
+    public void startAuthenticationProcess(OMAuthenticationRequest authRequest, int generation) {
         OMLog.info(TAG, "startAuthenticationProcess");
         boolean isForceAuthentication = false;
         //determine initial state
@@ -412,6 +448,7 @@ public class AuthenticationServiceManager {
         OMAuthenticationContext existingAuthContext = retrieveAuthenticationContext();
         String authKey = getMSS().getMobileSecurityConfig().getAuthenticationKey();
         OMAuthenticationContext newAuthContext = new OMAuthenticationContext(this, authRequest, authKey);
+        newAuthContext.setAuthGeneration(generation);
         boolean isIdleTimeout = false;
         boolean useRefreshToken = false;
         if (existingAuthContext != null) {
@@ -434,7 +471,7 @@ public class AuthenticationServiceManager {
                 } else {
                     OMLog.debug(TAG, "Existing authentication context is valid.");
                     existingAuthContext.setStatus(OMAuthenticationContext.Status.SUCCESS);
-                    sendSuccess(getMSS().getCallback(), existingAuthContext);
+                    sendSuccess(getMSS().getCallback(), existingAuthContext, generation);
                     return;
                 }
             } else {
@@ -472,6 +509,7 @@ public class AuthenticationServiceManager {
         } catch (OMMobileSecurityException e) {
 
             OMLog.error(TAG, e.getMessage());
+            mMSS.getOperationState().endAuthentication(generation);
             mMSS.getCallback().onAuthenticationCompleted(mMSS, null, e);
         }
         if (authRequest.getAuthScheme() == OMAuthenticationScheme.OAUTH20) {
@@ -901,7 +939,8 @@ public class AuthenticationServiceManager {
                 }
             }
             cAuthTask = new AuthenticationAsyncTask(cCallback, cAuthRequest, cAuthService, cAuthContext);
-            cAuthTask.execute();
+            cAuthTask.executeOnExecutor(OMHTTPRequestExecutor.getExecutor(
+                    OMHTTPRequestExecutor.Priority.INTERACTIVE, "Authentication"));
         }
 
         private void putCharArrayPasswordConvertedFromStringPassword(Map<String, Object> inputParams) {
@@ -1026,10 +1065,8 @@ public class AuthenticationServiceManager {
         String credentialKey = authContext.getStorageKey() != null ?
                 authContext.getStorageKey() : getAppCredentialKey();
 
-        String authContextString = authContext.toString(true);
         if (mMSS.getMobileSecurityConfig().isAuthContextPersistenceAllowed()) {
-            mMSS.getCredentialStoreService().addAuthContext(credentialKey,
-                    authContextString);
+            authContext.persist(credentialKey);
 
             OMLog.debug(TAG, "Authentication context for the key " + credentialKey
                     + " stored in the credential store is  : ");
@@ -1040,7 +1077,8 @@ public class AuthenticationServiceManager {
                     + " is not stored in the credential store as this is a secure mode. AuthContext in-memory : ");
 
         }
-        if (authContextString != null && OMSecurityConstants.DEBUG) {
+        String authContextString = OMSecurityConstants.DEBUG ? authContext.toString(true) : null;
+        if (authContextString != null) {
             try {
                 LogUtils.log("AuthContext: " +
                         new JSONObject(authContextString).toString(3));
@@ -1182,9 +1220,34 @@ public class AuthenticationServiceManager {
 
     private void sendSuccess(OMMobileSecurityServiceCallback callback,
                              OMAuthenticationContext authContext) {
+        sendSuccess(callback, authContext, authContext.getAuthGeneration());
+    }
+
+    /* The generation is the one of the login completing, which may not be
+     * the one of the given context, e.g. an existing context still valid.*/
+    private void sendSuccess(OMMobileSecurityServiceCallback callback,
+                             OMAuthenticationContext authContext, int generation) {
         resetRedirectionPreferences();//redirect preferences are only valid for that network request for security.
-        authContext.clearFields();
-        setAuthenticationContext(authContext);
+        AuthOperationState operationState = getMSS().getOperationState();
+        /* Installed under the lock of the state, so that a logout starting
+         * meanwhile clears this context rather than being overwritten by it.*/
+        boolean current;
+        synchronized (operationState) {
+            current = operationState.endAuthentication(generation);
+            if (current) {
+                authContext.clearFields();
+                setAuthenticationContext(authContext);
+            }
+        }
+        if (!current) {
+            OMLog.debug(TAG, "Login taken over by a logout, dropping its authentication context");
+            /* The login may have persisted it after the logout removed it.*/
+            authContext.deletePersistedAuthContext(false, true, true);
+            authContext.clearAllFields();
+            callback.onAuthenticationCompleted(getMSS(), null,
+                    new OMMobileSecurityException(OMErrorCode.USER_CANCELED_AUTHENTICATION));
+            return;
+        }
         callback.onAuthenticationCompleted(getMSS(), authContext, null);
 //        setAuthenticationCallback(null);
         // resetting the failure count to 0 since it is successful
@@ -1203,6 +1266,7 @@ public class AuthenticationServiceManager {
                     OMErrorCode.AUTHENTICATION_FAILED);
         }
 
+        int generation = getAuthGeneration(authContext);
         if (authContext == null) {
             authContext = new OMAuthenticationContext(OMAuthenticationContext.Status.FAILURE);
             authContext.setException(exception);
@@ -1223,9 +1287,20 @@ public class AuthenticationServiceManager {
             resetFailureCount(authContext);
         }
         OMLog.error(TAG, "sendFailure -> errorCode : " + exception.getError().getErrorCode() + " errorMessage: " + exception.getErrorMessage());
+        getMSS().getOperationState().endAuthentication(generation);
         callback.onAuthenticationCompleted(getMSS(), null, exception);
     }
 
+    /* Of the login the given context belongs to, or of the login in progress
+     * for failures reported without its context, e.g. by the SSL challenge
+     * handlers.*/
+    private int getAuthGeneration(OMAuthenticationContext authContext) {
+        if (authContext == null || authContext.getAuthGeneration() == AuthOperationState.NO_GENERATION) {
+            authContext = getTemporaryAuthenticationContext();
+        }
+        return authContext != null ? authContext.getAuthGeneration() : AuthOperationState.NO_GENERATION;
+    }
+
     private void sendFailureAfterRetry(OMMobileSecurityServiceCallback callback, OMAuthenticationContext authContext) {
         updateFailureCount(authContext);
         int failureCount = getFailureCount(authContext);
@@ -1259,6 +1334,7 @@ public class AuthenticationServiceManager {
                     } catch (OMMobileSecurityException e) {
 
                         OMLog.error(TAG, e.getMessage());
+                        mMSS.getOperationState().endAuthentication(getAuthGeneration(authContext));
                         mMSS.getCallback().onAuthenticationCompleted(mMSS, null, e);
                     }
                     processAuthRequest(callback, authContext.getAuthRequest(), authService, authContext);
@@ -26,6 +26,7 @@ import oracle.idm.mobile.connection.InvalidCredentialEvent;
 import oracle.idm.mobile.connection.OMConnectionHandler;
 import oracle.idm.mobile.connection.OMCookieManager;
 import oracle.idm.mobile.connection.OMHTTPRequest;
+import oracle.idm.mobile.connection.OMHTTPRequestExecutor;
 import oracle.idm.mobile.connection.OMHTTPResponse;
 import oracle.idm.mobile.logging.OMLog;
 import oracle.idm.mobile.util.ArrayUtils;
@@ -189,6 +190,11 @@ class BasicAuthenticationService extends AuthenticationService implements Challe
         return sessionTimedOut;
     }
 
+    @Override
+    void resetState() {
+        sessionTimedOut = false;
+    }
+
     public boolean isValid(OMAuthenticationContext authContext, boolean validateOnline) {
         OMLog.info(TAG, "isValid");
         if (authContext.getAuthenticationProvider() != AuthenticationProvider.BASIC) {
@@ -256,7 +262,8 @@ class BasicAuthenticationService extends AuthenticationService implements Challe
             URL logoutUrl = mASM.getMSS().getMobileSecurityConfig().getLogoutUrl();
             if (logoutUrl != null) {
                 new AccessLogoutUrlTask(mASM.getMSS().getMobileSecurityConfig(),
-                        isLogoutCall, authContext).execute();
+                        isLogoutCall, authContext).executeOnExecutor(OMHTTPRequestExecutor.getExecutor(
+                        OMHTTPRequestExecutor.Priority.INTERACTIVE, "Logout"));
             }
         }
     }
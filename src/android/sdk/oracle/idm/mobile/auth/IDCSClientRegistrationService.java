@@ -22,8 +22,10 @@ import java.net.URL;
 import java.security.cert.CertificateException;
 import java.security.cert.CertificateFactory;
 import java.security.cert.X509Certificate;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
 
 import oracle.idm.mobile.OMAuthenticationRequest;
 import oracle.idm.mobile.OMErrorCode;
@@ -36,6 +38,7 @@ import oracle.idm.mobile.configuration.OMAuthenticationScheme;
 import oracle.idm.mobile.configuration.OMOAuthMobileSecurityConfiguration;
 import oracle.idm.mobile.configuration.OMOICMobileSecurityConfiguration;
 import oracle.idm.mobile.connection.OMHTTPRequest;
+import oracle.idm.mobile.connection.OMHTTPRequestExecutor;
 import oracle.idm.mobile.connection.OMHTTPResponse;
 import oracle.idm.mobile.credentialstore.OMCredentialStore;
 import oracle.idm.mobile.crypto.CryptoScheme;
@@ -59,6 +62,13 @@ import static oracle.idm.mobile.OMSecurityConstants.Challenge.REDIRECT_RESPONSE_
  * <p>
  * If client assertion is not availble this is perform flows to obtain one and the update the tokens and update the state to registraion done.
  * </p>
+ * Registrations are cached in memory per tenant and user, on top of the
+ * credential store. Once a registration expires within half its lifetime, and
+ * at most {@link #RENEWAL_WINDOW_MILLIS}, it is renewed in the background using
+ * the access token obtained for the registration endpoint at login, refreshed
+ * if needed, so that logins do not wait for the registration endpoint. The
+ * renewed registration replaces the superseded one in the store and in the
+ * current authentication context.
  * Created by ajulka on 11/29/16.
  */
 
@@ -69,7 +79,18 @@ class IDCSClientRegistrationService extends OAuthAuthorizationCodeService {
     private static final String ANDROID_PACKAGE_NAME = "android_package_name";
     private static final String ANDROID_SIGNING_CERT_FINGERPRINT = "android_signing_cert_fingerprint";
     private static final String ANDROID_DEVICE_ID = "device_id";
+    private static final String REGISTRATION_ACCESS_TOKEN_SUFFIX = "_RegistrationAccessToken";
+    private static final long RENEWAL_WINDOW_MILLIS = 7L * 24 * 60 * 60 * 1000;
+    private static final long RENEWAL_RETRY_DELAY_MILLIS = 5 * 60 * 1000;
+
+    /* Cache key -> registration, so that the credential store is read once per process.*/
+    private static final Map<String, IDCSClientRegistrationToken> sRegistrations = new HashMap<>();
+    /* Cache key -> time of the last renewal attempt.*/
+    private static final Map<String, Long> sRenewalAttempts = new HashMap<>();
+
     private OMOAuthMobileSecurityConfiguration mOAuthConfig;
+    /* Obtained for the registration endpoint by the last registration done by this instance.*/
+    private OAuthToken mRegistrationAccessToken;
     private OMSecureStorageService mSecureStorageService;
 
     IDCSClientRegistrationService(AuthenticationServiceManager asm, OMAuthenticationCompletionHandler loginHandler, OMLogoutCompletionHandler logoutHandler) {
@@ -123,9 +144,11 @@ class IDCSClientRegistrationService extends OAuthAuthorizationCodeService {
         }
         IDCSClientRegistrationToken token;
         try {
-            token = getIDCSClientRegistrationToken(mOAuthConfig.getAuthenticationURL().toString(), mOAuthConfig.getLoginHint());
+            String configURL = mOAuthConfig.getAuthenticationURL().toString();
+            token = getIDCSClientRegistrationToken(configURL, mOAuthConfig.getLoginHint());
             if (token != null && !token.isTokenExpired()) {
                 inputParams.put(OMSecurityConstants.Param.IDCS_CLIENT_REGISTRATION_TOKEN, token);
+                renewAheadOfExpiry(configURL, mOAuthConfig.getLoginHint(), token);
                 result = true;
             }
         } catch (OMMobileSecurityException e) {
@@ -175,100 +198,19 @@ class IDCSClientRegistrationService extends OAuthAuthorizationCodeService {
             if (atForReg != null) {
                 OMLog.debug(TAG, "Got the AT for the registration endpoint");
 
-                //Make the request for registration
-
                 try {
-                    String registrationEP = oicConfig.getClientRegistrationEndpoint();
-                    if (TextUtils.isEmpty(registrationEP)) {
-                        OMLog.error(TAG, "Registration Endpoint not found in config. Please provide one.");
-                        onRegistrationFailed(new OMMobileSecurityException(OMErrorCode.IDCS_CLIENT_REGISTRATION_INVALID_ENDPOINT), authContext);
-                        return null;
-
-                        //lets create one TODO
-
-                        /*if (configEP != null) {
-
-                            String url = null;
-                            String configUrl = configEP.toString();
-                            int len = configUrl.length();
-                            if (configUrl.toLowerCase().contains(OMOICMobileSecurityConfiguration.WELL_KNOWN_CONFIGURATION)) {
-                                url = configUrl.substring(0, (configUrl.indexOf('.') - 1)) + REGISTER_ENDPOINT;
-                                registrationEP = new URL(url);
-                            } else {
-                                if (configUrl.toString().charAt(len - 1) == '/') {
-                                    url = configUrl + REGISTER_ENDPOINT;
-                                } else {
-                                    url = configUrl + "/" + REGISTER_ENDPOINT;
-                                }
-                                registrationEP = new URL(url);
-                            }
-                            OMLog.debug(TAG, "Registration endpoint created : " + registrationEP);
-                        } else {
-                            OMLog.error(TAG, "Configuration Endpoint is not provided, so pass the registration EP in the configuration MAP");
-                            //TODO error out
-                            throw new OMMobileSecurityException(OMErrorCode.OPENID_AUTHENTICATION_FAILED);
-                        }
-                    }*/
-                    }
-
-                    //get client assertion
-
-                    Map<String, String> headers = new HashMap<>();
-                    headers.put("Authorization", "Bearer " + atForReg.getValue());
-                    headers.put("Content-Type", OMSecurityConstants.ConnectionConstants.JSON_CONTENT_TYPE.getValue());
-                    JSONObject payload = new JSONObject();
-                    payload.put("client_id", oicConfig.getOAuthClientID());
-                    Context appContext = mASM.getApplicationContext();
-                    PackageManager pm = appContext.getPackageManager();
-                    String packageName = appContext.getApplicationInfo().packageName;
-                    payload.put(ANDROID_PACKAGE_NAME, packageName);
-
-                    PackageInfo pInfo = pm.getPackageInfo(packageName, PackageManager.GET_SIGNATURES);
-                    Signature[] signatures = pInfo.signatures;
-                    byte[] cert = signatures[0].toByteArray();
-                    X509Certificate signingCert = (X509Certificate) CertificateFactory.getInstance("X509").generateCertificate(new ByteArrayInputStream(cert));
-                    String fingerPrint = OMCertificateService.getFingerPrint(signingCert, CryptoScheme.SHA512);
-                    payload.put(ANDROID_SIGNING_CERT_FINGERPRINT, fingerPrint);
-                    payload.put(ANDROID_DEVICE_ID, Settings.Secure.getString(appContext.getContentResolver(),
-                            Settings.Secure.ANDROID_ID));
-                    if (enableReqResVerbose) {
-                        OMLog.debug(TAG, "Payload for client registration : " + payload);
-                    }
-                    OMHTTPResponse regResponse = mASM.getMSS().getConnectionHandler().httpPost(new URL(registrationEP), headers, payload.toString(), OMSecurityConstants.ConnectionConstants.JSON_CONTENT_TYPE.getValue(),
-                            (OMHTTPRequest.REQUIRE_RESPONSE_CODE | OMHTTPRequest.REQUIRE_RESPONSE_STRING));
-                    if (regResponse != null && regResponse.isSuccess()) {
-                        OMLog.debug(TAG, "Response Code from Registration EP: " + regResponse.getResponseCode());
-                        String clientAssertion = regResponse.getResponseStringOnSuccess();
-                        if (enableReqResVerbose) {
-                            OMLog.debug(TAG, "Response: " + clientAssertion);
-                        }
-                        IDCSClientRegistrationToken newToken = new IDCSClientRegistrationToken(clientAssertion);
-                        if (!newToken.isTokenExpired()) {
-                            OMLog.info(TAG, "A valid client registration token is available now.");
-                            onRegistrationSuccess(authContext, newToken);
-                            return null;
-                        } else {
-                            OMLog.error(TAG, "Received invalid or null IDCS Client Registration Token");
-                            onRegistrationFailed(new OMMobileSecurityException(OMErrorCode.IDCS_CLIENT_REGISTRATION_FAILED), authContext);
-                            return null;
-                        }
-
+                    IDCSClientRegistrationToken newToken = register(atForReg);
+                    OMLog.info(TAG, "A valid client registration token is available now.");
+                    mRegistrationAccessToken = atForReg;
+                    onRegistrationSuccess(authContext, newToken);
+                } catch (OMMobileSecurityException e) {
+                    if (e.getError() == OMErrorCode.IDCS_CLIENT_REGISTRATION_FAILED
+                            || e.getError() == OMErrorCode.IDCS_CLIENT_REGISTRATION_INVALID_ENDPOINT) {
+                        onRegistrationFailed(e, authContext);
                     } else {
-                        String reason = "Response from server is null or not OK";
-                        if (regResponse != null) {
-                            reason = regResponse.getResponseStringOnFailure();
-                        }
-                        OMLog.error(TAG, reason);
-                        onRegistrationFailed(new OMMobileSecurityException(OMErrorCode.IDCS_CLIENT_REGISTRATION_FAILED), authContext);
+                        authContext.setException(e);
+                        authContext.setStatus(OMAuthenticationContext.Status.FAILURE);
                     }
-                } catch (JSONException | MalformedURLException | PackageManager.NameNotFoundException e) {
-                    OMLog.error(TAG, e.getMessage(), e);
-                    OMMobileSecurityException mobileException = new OMMobileSecurityException(
-                            OMErrorCode.OPENID_AUTHENTICATION_FAILED);
-                    authContext.setException(mobileException);
-                    authContext.setStatus(OMAuthenticationContext.Status.FAILURE);
-                } catch (CertificateException e) {
-                    e.printStackTrace();
                 }
 
             } else {
@@ -283,6 +225,166 @@ class IDCSClientRegistrationService extends OAuthAuthorizationCodeService {
     }
 
 
+    /**
+     * Registers the client using the given access token for the registration
+     * endpoint.
+     *
+     * @return the registration, not expired
+     */
+    private IDCSClientRegistrationToken register(OAuthToken atForReg) throws OMMobileSecurityException {
+        String registrationEP = mOAuthConfig.getClientRegistrationEndpoint();
+        if (TextUtils.isEmpty(registrationEP)) {
+            OMLog.error(TAG, "Registration Endpoint not found in config. Please provide one.");
+            throw new OMMobileSecurityException(OMErrorCode.IDCS_CLIENT_REGISTRATION_INVALID_ENDPOINT);
+        }
+        try {
+            Map<String, String> headers = new HashMap<>();
+            headers.put("Authorization", "Bearer " + atForReg.getValue());
+            headers.put("Content-Type", OMSecurityConstants.ConnectionConstants.JSON_CONTENT_TYPE.getValue());
+            JSONObject payload = new JSONObject();
+            payload.put("client_id", mOAuthConfig.getOAuthClientID());
+            Context appContext = mASM.getApplicationContext();
+            PackageManager pm = appContext.getPackageManager();
+            String packageName = appContext.getApplicationInfo().packageName;
+            payload.put(ANDROID_PACKAGE_NAME, packageName);
+
+            PackageInfo pInfo = pm.getPackageInfo(packageName, PackageManager.GET_SIGNATURES);
+            Signature[] signatures = pInfo.signatures;
+            byte[] cert = signatures[0].toByteArray();
+            X509Certificate signingCert = (X509Certificate) CertificateFactory.getInstance("X509").generateCertificate(new ByteArrayInputStream(cert));
+            String fingerPrint = OMCertificateService.getFingerPrint(signingCert, CryptoScheme.SHA512);
+            payload.put(ANDROID_SIGNING_CERT_FINGERPRINT, fingerPrint);
+            payload.put(ANDROID_DEVICE_ID, Settings.Secure.getString(appContext.getContentResolver(),
+                    Settings.Secure.ANDROID_ID));
+            if (enableReqResVerbose) {
+                OMLog.debug(TAG, "Payload for client registration : " + payload);
+            }
+            long requestTime = System.currentTimeMillis();
+            OMHTTPResponse regResponse = mASM.getMSS().getConnectionHandler().httpPost(new URL(registrationEP), headers, payload.toString(), OMSecurityConstants.ConnectionConstants.JSON_CONTENT_TYPE.getValue(),
+                    (OMHTTPRequest.REQUIRE_RESPONSE_CODE | OMHTTPRequest.REQUIRE_RESPONSE_STRING));
+            if (regResponse != null && regResponse.isSuccess()) {
+                OMLog.debug(TAG, "Response Code from Registration EP: " + regResponse.getResponseCode());
+                String clientAssertion = regResponse.getResponseStringOnSuccess();
+                if (enableReqResVerbose) {
+                    OMLog.debug(TAG, "Response: " + clientAssertion);
+                }
+                IDCSClientRegistrationToken newToken = new IDCSClientRegistrationToken(clientAssertion);
+                if (newToken.isTokenExpired()) {
+                    OMLog.error(TAG, "Received invalid or null IDCS Client Registration Token");
+                    throw new OMMobileSecurityException(OMErrorCode.IDCS_CLIENT_REGISTRATION_FAILED);
+                }
+                if (newToken.getIssuedAt() == null) {
+                    newToken.setIssuedAt(new Date(requestTime));
+                }
+                return newToken;
+            }
+            String reason = "Response from server is null or not OK";
+            if (regResponse != null) {
+                reason = regResponse.getResponseStringOnFailure();
+            }
+            OMLog.error(TAG, reason);
+            throw new OMMobileSecurityException(OMErrorCode.IDCS_CLIENT_REGISTRATION_FAILED);
+        } catch (JSONException | MalformedURLException | PackageManager.NameNotFoundException
+                | CertificateException e) {
+            OMLog.error(TAG, e.getMessage(), e);
+            throw new OMMobileSecurityException(OMErrorCode.OPENID_AUTHENTICATION_FAILED, e);
+        }
+    }
+
+    /* Renews the registration in the background if it expires soon and an
+     * access token for the registration endpoint was kept. Otherwise it is
+     * renewed at login once expired.*/
+    private void renewAheadOfExpiry(final String configURL, final String loginHint,
+                                    IDCSClientRegistrationToken token) {
+        if (token.getExpiryTime() == null
+                || token.getExpiryTime().getTime() - System.currentTimeMillis() > getRenewalWindow(token)) {
+            return;
+        }
+        String key = getStoreKey(configURL, loginHint);
+        long now = System.currentTimeMillis();
+        String cacheKey = getCacheKey(key);
+        synchronized (sRenewalAttempts) {
+            Long lastAttempt = sRenewalAttempts.get(cacheKey);
+            if (lastAttempt != null && now - lastAttempt < RENEWAL_RETRY_DELAY_MILLIS) {
+                return;
+            }
+            sRenewalAttempts.put(cacheKey, now);
+        }
+        final OAuthToken accessToken = getRegistrationAccessToken(key);
+        if (accessToken == null
+                || (accessToken.isTokenExpired() && TextUtils.isEmpty(accessToken.getRefreshTokenValue()))) {
+            return;
+        }
+        OMLog.debug(TAG, "Renewing the client registration of user: " + loginHint + " ahead of its expiry");
+        try {
+            OMHTTPRequestExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    renew(configURL, loginHint, accessToken);
+                }
+            }, OMHTTPRequestExecutor.Priority.BACKGROUND, "ClientRegistrationRenewal");
+        } catch (RejectedExecutionException e) {
+            OMLog.debug(TAG, "Request executor busy, skipping the client registration renewal");
+        }
+    }
+
+    /* Half the lifetime of the secret, so that short-lived secrets are not
+     * renewed on every check, capped to RENEWAL_WINDOW_MILLIS.*/
+    private static long getRenewalWindow(IDCSClientRegistrationToken token) {
+        Date issuedAt = token.getIssuedAt();
+        if (issuedAt == null) {
+            return RENEWAL_WINDOW_MILLIS;
+        }
+        long lifetime = token.getExpiryTime().getTime() - issuedAt.getTime();
+        return Math.min(RENEWAL_WINDOW_MILLIS, lifetime / 2);
+    }
+
+    private void renew(String configURL, String loginHint, OAuthToken accessToken) {
+        AuthOperationState operationState = mASM.getMSS().getOperationState();
+        int generation = operationState.beginRefresh();
+        if (generation == AuthOperationState.NO_GENERATION) {
+            return;
+        }
+        IDCSClientRegistrationToken token = null;
+        try {
+            if (accessToken.isTokenExpired()) {
+                accessToken = refreshAccessToken(accessToken, null);
+            }
+            if (accessToken != null) {
+                token = register(accessToken);
+            }
+        } catch (OMMobileSecurityException e) {
+            OMLog.error(TAG, "Could not renew the client registration: " + e.getErrorMessage());
+        } catch (RuntimeException e) {
+            OMLog.error(TAG, "Could not renew the client registration", e);
+        } finally {
+            /* A logout may have removed the registration meanwhile.*/
+            if (!operationState.endRefresh(generation)) {
+                token = null;
+            }
+        }
+        if (token != null) {
+            storeIDCSClientRegistrationToken(configURL, loginHint, token, accessToken);
+            replaceInAuthenticationContext(token);
+            OMLog.info(TAG, "Renewed the client registration of user: " + loginHint);
+        }
+    }
+
+    /* The context would otherwise keep using the superseded registration,
+     * and be found invalid once it expires.*/
+    private void replaceInAuthenticationContext(IDCSClientRegistrationToken token) {
+        OMAuthenticationContext authContext = mASM.getAuthenticationContext();
+        if (authContext == null) {
+            return;
+        }
+        synchronized (authContext) {
+            Map<String, OMToken> tokens = authContext.getTokens();
+            if (tokens.containsKey(OMSecurityConstants.CLIENT_REGISTRATION_TOKEN)) {
+                tokens.put(OMSecurityConstants.CLIENT_REGISTRATION_TOKEN, token);
+            }
+        }
+    }
+
     @Override
     public void logout(OMAuthenticationContext authContext, boolean isDeleteUnPwd,
                        boolean isDeleteCookies, boolean isDeleteTokens, boolean isLogoutCall) {
@@ -306,15 +408,33 @@ class IDCSClientRegistrationService extends OAuthAuthorizationCodeService {
     }
 
     void removeIDCSClientRegistrationToken(String configURL, String loginHint) {
+        String key = getStoreKey(configURL, loginHint);
+        synchronized (sRegistrations) {
+            sRegistrations.remove(getCacheKey(key));
+        }
         OMCredentialStore credService = mASM.getMSS().getCredentialStoreService();
-        credService.remove(configURL + "_" + loginHint);
+        credService.remove(key);
+        credService.remove(key + REGISTRATION_ACCESS_TOKEN_SUFFIX);
         OMLog.debug(TAG, "Removed IDCS ClientRegistration Token for user: " + loginHint + " from Store!");
     }
 
     void storeIDCSClientRegistrationToken(String configURL, String loginHint, IDCSClientRegistrationToken token) {
+        storeIDCSClientRegistrationToken(configURL, loginHint, token, mRegistrationAccessToken);
+    }
 
+    /* The access token is kept for renewals, if given.*/
+    private void storeIDCSClientRegistrationToken(String configURL, String loginHint,
+                                                  IDCSClientRegistrationToken token,
+                                                  OAuthToken accessToken) {
+        String key = getStoreKey(configURL, loginHint);
         OMCredentialStore credService = mASM.getMSS().getCredentialStoreService();
-        credService.putString(configURL + "_" + loginHint, token.toString());
+        credService.putString(key, token.toString());
+        if (accessToken != null) {
+            credService.putString(key + REGISTRATION_ACCESS_TOKEN_SUFFIX, accessToken.toString());
+        }
+        synchronized (sRegistrations) {
+            sRegistrations.put(getCacheKey(key), token);
+        }
         OMLog.debug(TAG, "Stored IDCS ClientRegistration Token for user: " + loginHint + " to the Store!");
     }
 
@@ -331,6 +451,10 @@ class IDCSClientRegistrationService extends OAuthAuthorizationCodeService {
                     token = getIDCSClientRegistrationToken(mOAuthConfig.getAuthenticationURL().toString(), mOAuthConfig.getLoginHint());
                 }
                 result = (token != null && !token.isTokenExpired());
+                if (result) {
+                    renewAheadOfExpiry(mOAuthConfig.getAuthenticationURL().toString(),
+                            mOAuthConfig.getLoginHint(), token);
+                }
             } catch (OMMobileSecurityException e) {
                 OMLog.error(TAG, "Error retrieving client token from store ", e);
                 result = false;
@@ -342,16 +466,51 @@ class IDCSClientRegistrationService extends OAuthAuthorizationCodeService {
     }
 
     IDCSClientRegistrationToken getIDCSClientRegistrationToken(String configURL, String loginHint) throws OMMobileSecurityException {
+        String key = getStoreKey(configURL, loginHint);
+        synchronized (sRegistrations) {
+            IDCSClientRegistrationToken token = sRegistrations.get(getCacheKey(key));
+            if (token != null) {
+                return token;
+            }
+        }
         OMCredentialStore credService = mASM.getMSS().getCredentialStoreService();
-        String tokenString = credService.getString(configURL + "_" + loginHint);
+        String tokenString = credService.getString(key);
         if (!TextUtils.isEmpty(tokenString)) {
             IDCSClientRegistrationToken token = new IDCSClientRegistrationToken(tokenString);
             OMLog.debug(TAG, "Retrieved IDCS client registration token for user: " + loginHint);
+            synchronized (sRegistrations) {
+                sRegistrations.put(getCacheKey(key), token);
+            }
             return token;
         } else {
             OMLog.debug(TAG, "IDCS client registration token for user : " + loginHint + " not found in store.");
         }
         return null;
     }
-}
 
+    private OAuthToken getRegistrationAccessToken(String key) {
+        String tokenString = mASM.getMSS().getCredentialStoreService()
+                .getString(key + REGISTRATION_ACCESS_TOKEN_SUFFIX);
+        if (TextUtils.isEmpty(tokenString)) {
+            return null;
+        }
+        try {
+            return new OAuthToken(tokenString);
+        } catch (JSONException e) {
+            OMLog.error(TAG, "Stored access token for the registration endpoint is invalid", e);
+            return null;
+        }
+    }
+
+    /* Per tenant and user, within the credential store of the local authenticator.*/
+    private static String getStoreKey(String configURL, String loginHint) {
+        return configURL + "_" + loginHint;
+    }
+
+    /* The caches are per process, whereas the credential store is per local
+     * authenticator name and instance, as configured for this service.*/
+    private String getCacheKey(String storeKey) {
+        return storeKey + "_" + mOAuthConfig.getAuthenticatorName()
+                + "_" + mOAuthConfig.getAuthenticatorInstanceId();
+    }
+}
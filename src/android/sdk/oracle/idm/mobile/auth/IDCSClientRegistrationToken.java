@@ -30,6 +30,8 @@ import oracle.idm.mobile.logging.OMLog;
 public class IDCSClientRegistrationToken extends OAuthToken {
 
     private static final String TAG = IDCSClientRegistrationToken.class.getSimpleName();
+    /* Beyond any expiry in seconds, and below any current time in milliseconds.*/
+    private static final long MAX_EXPIRY_SECONDS = 100000000000L;
 
     private String mClientID;
     private String mClientName;
@@ -40,6 +42,7 @@ public class IDCSClientRegistrationToken extends OAuthToken {
     private String mDeviceID;
     private String mAndroidPackageName;
     private String mAndroidSigningCert;
+    private Date mIssuedAt;
 
 
     /**
@@ -78,7 +81,15 @@ public class IDCSClientRegistrationToken extends OAuthToken {
         mClientSecret = tokenJSON.optString(OMSecurityConstants.CLIENT_SECRET);
         value = mClientSecret;
         long expiresAt = tokenJSON.optLong(OMSecurityConstants.CLIENT_SECRET_EXPIRES_AT);// SENDS IN SECONDS
-        expiryTime = new Date(expiresAt * 1000);
+        if (expiresAt > MAX_EXPIRY_SECONDS) {
+            /* Stored in milliseconds by older versions of the SDK.*/
+            expiresAt /= 1000;
+        }
+        /* 0 means the secret never expires, as per RFC 7591.*/
+        expiryTime = expiresAt != 0 ? new Date(expiresAt * 1000) : null;
+        /* Optional as per RFC 7591, in seconds.*/
+        long issuedAt = tokenJSON.optLong(OMSecurityConstants.CLIENT_ID_ISSUED_AT);
+        mIssuedAt = issuedAt != 0 ? new Date(issuedAt * 1000) : null;
         JSONArray redirectUrisJSON = tokenJSON.optJSONArray(OMSecurityConstants.REDIRECT_URIS);
         if (redirectUrisJSON != null) {
             mRedirectUris = new ArrayList<>();
@@ -157,7 +168,11 @@ public class IDCSClientRegistrationToken extends OAuthToken {
             tokenJSON.put(OMSecurityConstants.CLIENT_NAME, mClientName);
             tokenJSON.put(OMSecurityConstants.CLIENT_SECRET, mClientSecret);
             if (expiryTime != null) {
-                tokenJSON.put(OMSecurityConstants.CLIENT_SECRET_EXPIRES_AT, expiryTime.getTime());
+                /* In seconds, as read by parseToken().*/
+                tokenJSON.put(OMSecurityConstants.CLIENT_SECRET_EXPIRES_AT, expiryTime.getTime() / 1000);
+            }
+            if (mIssuedAt != null) {
+                tokenJSON.put(OMSecurityConstants.CLIENT_ID_ISSUED_AT, mIssuedAt.getTime() / 1000);
             }
             //redirect URIS
             tokenJSON.put(OMSecurityConstants.REDIRECT_URIS, getListJSON(mRedirectUris));
@@ -186,4 +201,16 @@ public class IDCSClientRegistrationToken extends OAuthToken {
     public void setClientID(String clientID) {
         mClientID = clientID;
     }
+
+    /**
+     * Time of the registration, null if unknown, e.g. for registrations
+     * stored by older versions of the SDK.
+     */
+    Date getIssuedAt() {
+        return mIssuedAt;
+    }
+
+    void setIssuedAt(Date issuedAt) {
+        mIssuedAt = issuedAt;
+    }
 }
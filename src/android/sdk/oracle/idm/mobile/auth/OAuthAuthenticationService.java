@@ -26,12 +26,14 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
 
 import oracle.idm.mobile.OMErrorCode;
 import oracle.idm.mobile.OMMobileSecurityException;
 import oracle.idm.mobile.OMMobileSecurityService;
 import oracle.idm.mobile.OMSecurityConstants;
 import oracle.idm.mobile.auth.logout.OMLogoutCompletionHandler;
+import oracle.idm.mobile.callback.OMTokenRefreshCallback;
 import oracle.idm.mobile.configuration.OMMobileSecurityConfiguration;
 import oracle.idm.mobile.configuration.OMOAuthMobileSecurityConfiguration;
 import oracle.idm.mobile.connection.OMHTTPRequest;
@@ -461,11 +463,13 @@ abstract class OAuthAuthenticationService extends AuthenticationService {
 
             /*
              * defensive copy of tokens from the authentication context to work
-             * with. Initially, access tokens with matching scopes will be removed from this list.
-             * Later, it will be added back after refresh is done.
+             * with. Access tokens with matching scopes are looked up from it.
+             * Changes are applied to the context itself once refresh is done.
              */
-            List<OAuthToken> allAccessTokens = new ArrayList<>(
-                    authContext.getOAuthTokenList());
+            List<OAuthToken> allAccessTokens;
+            synchronized (authContext) {
+                allAccessTokens = new ArrayList<>(authContext.getOAuthTokenList());
+            }
             AuthenticationMode authMode = authContext.getAuthenticatedMode();
             OMLog.debug(TAG, "authenticated mode: " + authMode);
             if (authContext.getOAuthTokenList().isEmpty()
@@ -490,6 +494,9 @@ abstract class OAuthAuthenticationService extends AuthenticationService {
                 Collections.sort(accessTokensWithPassedScopes, new OAuthTokenComparator());
             Iterator<OAuthToken> tokenitr = accessTokensWithPassedScopes.iterator();
             OAuthToken refreshedToken = null;
+            OAuthToken expiredToken = null;
+            /* Tokens to be removed from the context, applied along with the refreshed token once done.*/
+            List<OAuthToken> removedTokens = new ArrayList<>();
             while (tokenitr.hasNext()) {
                 OAuthToken oAuthToken = tokenitr.next();
                 if (!isAccessToken(oAuthToken))
@@ -498,52 +505,37 @@ abstract class OAuthAuthenticationService extends AuthenticationService {
                     OMLog.debug(TAG, "Access Token is expired!");
                     if (!TextUtils.isEmpty(oAuthToken.getRefreshTokenValue())) {
                         if (refreshExpiredToken) {
-                            String refreshTokenResponse;
-                            String oldRefreshTokenValue = oAuthToken.getRefreshTokenValue();
-                            String oldIDToken = oAuthToken.getIdToken();
-                            WeakHashMap<String, Object> params = new WeakHashMap<>();
-                            params.put(
-                                    OMSecurityConstants.Param.OAUTH_REFRESH_TOKEN_VALUE,
-                                    oldRefreshTokenValue);
+                            AuthOperationState operationState = mASM.getMSS().getOperationState();
+                            int generation = operationState.beginRefresh();
+                            if (generation == AuthOperationState.NO_GENERATION) {
+                                OMLog.debug(TAG, "Logout in progress, not refreshing the access token");
+                                return false;
+                            }
                             triedRefreshing = true;
+                            boolean keepResult;
                             try {
-                                refreshTokenResponse = getToken(
-                                        mASM.getOAuthConnectionsUtil()
-                                                .getBackChannelRequestForRefreshingAccessToken(
-                                                        params),
-                                        (OMOAuthMobileSecurityConfiguration) mASM.getMSS()
-                                                .getMobileSecurityConfig(),
-                                        authContext.getIdentityDomain());
-                                if (refreshTokenResponse != null) {
-                                    refreshedToken = onAccessToken(refreshTokenResponse);
-                                    if (refreshedToken != null) {
-                                        refreshedToken.setScopes(oAuthToken
-                                                .getScopes());
-                                        /* If new token has no refresh value , then use the old refresh token value.
-                                        Similarly, do the same for IDToken.
-                                         */
-                                        if (TextUtils.isEmpty(refreshedToken.getRefreshTokenValue())) {
-                                            refreshedToken
-                                                    .setRefreshTokenValue(oldRefreshTokenValue);
-                                        }
-                                        if (TextUtils.isEmpty(refreshedToken.getIdToken())) {
-                                            refreshedToken.setIdToken(oldIDToken);
-                                        }
-                                        // removing if we have refreshed this token
-                                        // .
-                                        tokenitr.remove();
-                                        isValidResult = true;
-                                        break;
-                                    }
-                                } else {
-                                    // try other token object
-                                    continue;
-                                }
-
-                            } catch (UnsupportedEncodingException e) {
-                                throw new OMMobileSecurityException(OMErrorCode.INTERNAL_ERROR); //TODO check error code
-                            } catch (JSONException e) {
-                                throw new OMMobileSecurityException(OMErrorCode.INTERNAL_ERROR); //TODO
+                                refreshedToken = OAuthTokenRefresher.refresh(
+                                        oAuthToken.getRefreshTokenValue(),
+                                        newRefreshCall(oAuthToken, authContext.getIdentityDomain()));
+                            } finally {
+                                keepResult = operationState.endRefresh(generation);
+                            }
+                            if (!keepResult) {
+                                /* The logout clears the context, which must not be updated and stored again.*/
+                                OMLog.debug(TAG, "Logout started during the refresh, dropping the refreshed token");
+                                return false;
+                            }
+                            if (refreshedToken != null) {
+                                // removing if we have refreshed this token
+                                // .
+                                tokenitr.remove();
+                                removedTokens.add(oAuthToken);
+                                expiredToken = oAuthToken;
+                                isValidResult = true;
+                                break;
+                            } else {
+                                // try other token object
+                                continue;
                             }
                         } else {
                             isValidResult = false;
@@ -552,11 +544,13 @@ abstract class OAuthAuthenticationService extends AuthenticationService {
                     } else {
                         OMLog.debug(TAG, "No refresh token available for the expired access token!");
                         tokenitr.remove();
+                        removedTokens.add(oAuthToken);
                         // check for other matching the criteria
                         continue;
                     }
                 } else {
                     OMLog.debug(TAG, "Access Token not expired!");
+                    refreshAheadOfExpiry(authContext, oAuthToken);
 
                     // the token is not expired so isValid should return true.
                     // no further checking required.
@@ -564,17 +558,27 @@ abstract class OAuthAuthenticationService extends AuthenticationService {
                     break;
                 }
             }
-            if (triedRefreshing && refreshedToken != null) {
-                OMLog.debug(TAG, "Refreshed the expired access token!");
-                accessTokensWithPassedScopes.add(refreshedToken);
-                if (authContext.getAuthenticatedMode() == AuthenticationMode.OFFLINE) {
-                    OMLog.debug(TAG, "Changed the authenticate mode from LOCAL to REMOTE, since the expired access token was refreshed.");
-                    // MCS offline OAuth Requirement.
-                    authContext.setAuthenticatedMode(AuthenticationMode.ONLINE);
+            /* Applied to the current list rather than the copy taken above, which
+             * replaceToken() may have updated meanwhile.*/
+            synchronized (authContext) {
+                List<OAuthToken> tokens = new ArrayList<>(authContext.getOAuthTokenList());
+                if (triedRefreshing && refreshedToken != null) {
+                    OMLog.debug(TAG, "Refreshed the expired access token!");
+                    if (tokens.contains(expiredToken)) {
+                        tokens.add(refreshedToken);
+                    } else {
+                        /* Replaced by another refresh, whose refresh token is the current one.*/
+                        OMLog.debug(TAG, "Token was replaced meanwhile, dropping the refreshed token");
+                    }
+                    if (authContext.getAuthenticatedMode() == AuthenticationMode.OFFLINE) {
+                        OMLog.debug(TAG, "Changed the authenticate mode from LOCAL to REMOTE, since the expired access token was refreshed.");
+                        // MCS offline OAuth Requirement.
+                        authContext.setAuthenticatedMode(AuthenticationMode.ONLINE);
+                    }
                 }
+                tokens.removeAll(removedTokens);
+                authContext.setOAuthTokenList(tokens);
             }
-            allAccessTokens.addAll(accessTokensWithPassedScopes);
-            authContext.setOAuthTokenList(allAccessTokens);
 
             OMLog.debug(TAG, "isValidResult = " + isValidResult);
             /* Store the authContext persistently which is updated with expired access tokens
@@ -583,6 +587,9 @@ abstract class OAuthAuthenticationService extends AuthenticationService {
                     .isAuthContextPersistenceAllowed()) {
                 storeAuthenticationContext(authContext);
             }
+            if (triedRefreshing && refreshedToken != null) {
+                notifyTokenRefreshed(authContext);
+            }
             return isValidResult;
         } else {
             OMLog.debug(TAG, "Not an openID or OAuth config returning true!");
@@ -590,6 +597,143 @@ abstract class OAuthAuthenticationService extends AuthenticationService {
         }
     }
 
+    /**
+     * Refreshes the given access token in the background if it expires within
+     * the configured skew, so that it is replaced before callers find it expired.
+     */
+    private void refreshAheadOfExpiry(final OMAuthenticationContext authContext, final OAuthToken oAuthToken) {
+        if (TextUtils.isEmpty(oAuthToken.getRefreshTokenValue()) || oAuthToken.getExpiryTime() == null) {
+            return;
+        }
+        long skewMillis = mConfig.getTokenRefreshSkew() * 1000L;
+        if (oAuthToken.getExpiryInSecs() > 0) {
+            /* Short lived tokens would otherwise be refreshed as soon as issued.*/
+            skewMillis = Math.min(skewMillis, oAuthToken.getExpiryInSecs() * 1000L / 2);
+        }
+        if (skewMillis <= 0
+                || oAuthToken.getExpiryTime().getTime() - System.currentTimeMillis() > skewMillis) {
+            return;
+        }
+        OAuthTokenRefresher.refreshInBackground(oAuthToken.getRefreshTokenValue(),
+                newBackgroundRefreshCall(oAuthToken, authContext.getIdentityDomain()),
+                new OAuthTokenRefresher.OnRefreshListener() {
+                    @Override
+                    public void onRefresh(OAuthToken refreshedToken) {
+                        replaceToken(authContext, oAuthToken, refreshedToken);
+                    }
+                });
+    }
+
+    private void replaceToken(OMAuthenticationContext authContext, OAuthToken oldToken,
+                              OAuthToken refreshedToken) {
+        synchronized (authContext) {
+            if (mASM.getMSS().isLogoutInProgress()) {
+                OMLog.debug(TAG, "Logout in progress, dropping the refreshed token");
+                return;
+            }
+            List<OAuthToken> tokens = new ArrayList<>(authContext.getOAuthTokenList());
+            if (!tokens.remove(oldToken)) {
+                OMLog.debug(TAG, "Token was removed from the context, dropping the refreshed token");
+                return;
+            }
+            tokens.add(refreshedToken);
+            authContext.setOAuthTokenList(tokens);
+            if (authContext.getAuthenticatedMode() == AuthenticationMode.OFFLINE) {
+                authContext.setAuthenticatedMode(AuthenticationMode.ONLINE);
+            }
+        }
+        OMLog.debug(TAG, "Refreshed the access token ahead of its expiry!");
+        storeAuthenticationContext(authContext);
+        notifyTokenRefreshed(authContext);
+    }
+
+    private void notifyTokenRefreshed(OMAuthenticationContext authContext) {
+        OMTokenRefreshCallback callback = mASM.getMSS().getTokenRefreshCallback();
+        if (callback != null) {
+            callback.onTokenRefreshed(authContext);
+        }
+    }
+
+    /* As newRefreshCall, run as a refresh operation, whose result is dropped if a logout starts meanwhile.*/
+    private Callable<OAuthToken> newBackgroundRefreshCall(final OAuthToken oAuthToken,
+                                                          final String identityDomain) {
+        return new Callable<OAuthToken>() {
+            @Override
+            public OAuthToken call() throws OMMobileSecurityException {
+                AuthOperationState operationState = mASM.getMSS().getOperationState();
+                int generation = operationState.beginRefresh();
+                if (generation == AuthOperationState.NO_GENERATION) {
+                    return null;
+                }
+                OAuthToken refreshedToken = null;
+                try {
+                    refreshedToken = refreshAccessToken(oAuthToken, identityDomain);
+                } finally {
+                    if (!operationState.endRefresh(generation)) {
+                        refreshedToken = null;
+                    }
+                }
+                return refreshedToken;
+            }
+        };
+    }
+
+    private Callable<OAuthToken> newRefreshCall(final OAuthToken oAuthToken, final String identityDomain) {
+        return new Callable<OAuthToken>() {
+            @Override
+            public OAuthToken call() throws OMMobileSecurityException {
+                return refreshAccessToken(oAuthToken, identityDomain);
+            }
+        };
+    }
+
+    /**
+     * Obtains a new access token using the refresh token of the given one.
+     *
+     * @return the new token, or null if the server did not return one
+     */
+    OAuthToken refreshAccessToken(OAuthToken oAuthToken, String identityDomain)
+            throws OMMobileSecurityException {
+        String oldRefreshTokenValue = oAuthToken.getRefreshTokenValue();
+        String oldIDToken = oAuthToken.getIdToken();
+        WeakHashMap<String, Object> params = new WeakHashMap<>();
+        params.put(
+                OMSecurityConstants.Param.OAUTH_REFRESH_TOKEN_VALUE,
+                oldRefreshTokenValue);
+        try {
+            String refreshTokenResponse = getToken(
+                    mASM.getOAuthConnectionsUtil()
+                            .getBackChannelRequestForRefreshingAccessToken(
+                                    params),
+                    (OMOAuthMobileSecurityConfiguration) mASM.getMSS()
+                            .getMobileSecurityConfig(),
+                    identityDomain);
+            if (refreshTokenResponse == null) {
+                return null;
+            }
+            OAuthToken refreshedToken = onAccessToken(refreshTokenResponse);
+            if (refreshedToken != null) {
+                refreshedToken.setScopes(oAuthToken
+                        .getScopes());
+                /* If new token has no refresh value , then use the old refresh token value.
+                Similarly, do the same for IDToken.
+                 */
+                if (TextUtils.isEmpty(refreshedToken.getRefreshTokenValue())) {
+                    refreshedToken
+                            .setRefreshTokenValue(oldRefreshTokenValue);
+                }
+                if (TextUtils.isEmpty(refreshedToken.getIdToken())) {
+                    refreshedToken.setIdToken(oldIDToken);
+                }
+            }
+            return refreshedToken;
+        } catch (UnsupportedEncodingException e) {
+            throw new OMMobileSecurityException(OMErrorCode.INTERNAL_ERROR); //TODO check error code
+        } catch (JSONException e) {
+            throw new OMMobileSecurityException(OMErrorCode.INTERNAL_ERROR); //TODO
+        }
+    }
+
     private List<OAuthToken> getAccessTokensWithPassedScopes(List<OAuthToken> allAccessTokens,
                                                              Set<String> requiredScopes) {
         List<OAuthToken> accessTokensWithPassedScopes = new ArrayList<>();
@@ -624,13 +768,11 @@ abstract class OAuthAuthenticationService extends AuthenticationService {
         }
         String key = authContext.getStorageKey() != null ?
                 authContext.getStorageKey() : mASM.getAppCredentialKey();
-        String authContextString = authContext.toString(true);
-        mASM.getMSS()
-                .getCredentialStoreService()
-                .addAuthContext(key, authContextString);
+        authContext.persist(key);
         OMLog.trace(TAG, "Stored the authContext persistently which is updated with expired access tokens" +
                 "(which do not have refresh token) being removed and / or  new token(s) being added.");
-        if (authContextString != null && OMSecurityConstants.DEBUG) {
+        if (OMSecurityConstants.DEBUG) {
+            String authContextString = authContext.toString(true);
             try {
                 LogUtils.log("AuthContext persisted: "
                         + new JSONObject(authContextString).toString(3));
@@ -0,0 +1,172 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates.
+ * The Universal Permissive License (UPL), Version 1.0
+ */
+
+
+package oracle.idm.mobile.auth;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * List of the OAuth tokens of an {@link OMAuthenticationContext}, which
+ * indexes its tokens by scope, so that looking up the tokens of some scopes
+ * only checks the tokens having the rarest of them, and caches the token to
+ * be used for a given set of scopes.
+ * <p>
+ * The index is built on first lookup and dropped whenever the list is
+ * modified, be it through the list itself or its iterators. The scopes of a
+ * token are expected not to change once it is in the list. A cached token is
+ * looked up again once it expires.
+ */
+class OAuthTokenList extends ArrayList<OAuthToken> {
+
+    private static final long serialVersionUID = -4214938461927502311L;
+    private static final int MAX_CACHED_SCOPE_SETS = 32;
+    private static final int[] NO_POSITIONS = new int[0];
+
+    /* ArrayList#set does not count as a structural modification.*/
+    private int mReplacements;
+    private transient int mIndexedVersion;
+    /* Positions in this list of the tokens having a scope, in ascending order.*/
+    private transient Map<String, int[]> mPositionsByScope;
+    private transient Map<Set<String>, OAuthToken> mBestTokens;
+
+    OAuthTokenList() {
+    }
+
+    OAuthTokenList(Collection<? extends OAuthToken> tokens) {
+        super(tokens);
+    }
+
+    static OAuthTokenList of(List<OAuthToken> tokens) {
+        if (tokens instanceof OAuthTokenList) {
+            return (OAuthTokenList) tokens;
+        }
+        return tokens != null ? new OAuthTokenList(tokens) : new OAuthTokenList();
+    }
+
+    @Override
+    public OAuthToken set(int index, OAuthToken token) {
+        mReplacements++;
+        return super.set(index, token);
+    }
+
+    /**
+     * Returns a number which changes whenever this list is modified.
+     */
+    int getVersion() {
+        return modCount + mReplacements;
+    }
+
+    /* A shallow clone would share the index.*/
+    @Override
+    public Object clone() {
+        return new OAuthTokenList(this);
+    }
+
+    /**
+     * Returns the tokens having all the given scopes, in the order of this
+     * list, or all the tokens if no scopes are given.
+     */
+    synchronized List<OMToken> getTokens(Set<String> scopes, boolean includeExpiredTokens) {
+        List<OMToken> matchedTokens = new ArrayList<>();
+        if (scopes == null || scopes.isEmpty()) {
+            matchedTokens.addAll(this);
+            return matchedTokens;
+        }
+        for (int position : getCandidates(scopes)) {
+            OAuthToken token = get(position);
+            if (token.getScopes().containsAll(scopes)
+                    && (includeExpiredTokens || !token.isTokenExpired())) {
+                matchedTokens.add(token);
+            }
+        }
+        return matchedTokens;
+    }
+
+    /**
+     * Returns the first unexpired token {@link #getTokens(Set, boolean)}
+     * would return for the given scopes, or null if none.
+     */
+    synchronized OAuthToken getBestToken(Set<String> scopes) {
+        if (scopes == null || scopes.isEmpty()) {
+            return isEmpty() ? null : get(0);
+        }
+        ensureIndexed();
+        OAuthToken token = mBestTokens.get(scopes);
+        if (token != null && !token.isTokenExpired()) {
+            return token;
+        }
+
+        token = null;
+        for (int position : getCandidates(scopes)) {
+            OAuthToken candidate = get(position);
+            if (candidate.getScopes().containsAll(scopes) && !candidate.isTokenExpired()) {
+                token = candidate;
+                break;
+            }
+        }
+        if (token != null) {
+            if (mBestTokens.size() >= MAX_CACHED_SCOPE_SETS) {
+                mBestTokens.clear();
+            }
+            mBestTokens.put(new HashSet<>(scopes), token);
+        } else {
+            mBestTokens.remove(scopes);
+        }
+        return token;
+    }
+
+    /* The tokens having all the scopes are among the ones having the rarest.*/
+    private int[] getCandidates(Set<String> scopes) {
+        ensureIndexed();
+        int[] candidates = null;
+        for (String scope : scopes) {
+            int[] positions = mPositionsByScope.get(scope);
+            if (positions == null) {
+                return NO_POSITIONS;
+            }
+            if (candidates == null || positions.length < candidates.length) {
+                candidates = positions;
+            }
+        }
+        return candidates;
+    }
+
+    private void ensureIndexed() {
+        int version = getVersion();
+        if (mPositionsByScope != null && mIndexedVersion == version) {
+            return;
+        }
+        Map<String, List<Integer>> positionsByScope = new HashMap<>();
+        for (int i = 0; i < size(); i++) {
+            for (String scope : get(i).getScopes()) {
+                List<Integer> positions = positionsByScope.get(scope);
+                if (positions == null) {
+                    positions = new ArrayList<>(1);
+                    positionsByScope.put(scope, positions);
+                }
+                positions.add(i);
+            }
+        }
+        Map<String, int[]> index = new HashMap<>(positionsByScope.size());
+        for (Map.Entry<String, List<Integer>> entry : positionsByScope.entrySet()) {
+            List<Integer> positions = entry.getValue();
+            int[] array = new int[positions.size()];
+            for (int i = 0; i < array.length; i++) {
+                array[i] = positions.get(i);
+            }
+            index.put(entry.getKey(), array);
+        }
+        mPositionsByScope = index;
+        mBestTokens = new HashMap<>();
+        mIndexedVersion = version;
+    }
+}
@@ -0,0 +1,160 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates.
+ * The Universal Permissive License (UPL), Version 1.0
+ */
+
+
+package oracle.idm.mobile.auth;
+
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import oracle.idm.mobile.OMErrorCode;
+import oracle.idm.mobile.OMMobileSecurityException;
+import oracle.idm.mobile.connection.OMHTTPRequestExecutor;
+import oracle.idm.mobile.logging.OMLog;
+
+/**
+ * Coordinates the refresh of OAuth access tokens, so that a refresh token is
+ * sent to the token endpoint by one request at a time. Callers asking for a
+ * refresh while another one is in flight for the same refresh token wait for
+ * its result instead of issuing their own request.
+ * <p>
+ * A successful result is kept for {@link #RESULT_REUSE_MILLIS}, as callers
+ * which read the old token just before the refresh completed would otherwise
+ * refresh it once more, with a refresh token the server may have rotated.
+ */
+class OAuthTokenRefresher {
+
+    private static final String TAG = OAuthTokenRefresher.class.getSimpleName();
+    private static final long RESULT_REUSE_MILLIS = TimeUnit.SECONDS.toMillis(60);
+    private static final ConcurrentHashMap<String, Refresh> REFRESHES = new ConcurrentHashMap<>();
+
+    interface OnRefreshListener {
+        void onRefresh(OAuthToken refreshedToken);
+    }
+
+    private OAuthTokenRefresher() {
+    }
+
+    /**
+     * Refreshes the token on the calling thread, or waits for the refresh
+     * already in flight for the same refresh token.
+     *
+     * @return the refreshed token, or null if the server did not return one
+     */
+    static OAuthToken refresh(String refreshToken, Callable<OAuthToken> refresher)
+            throws OMMobileSecurityException {
+        Refresh refresh = new Refresh(refresher);
+        Refresh existing = acquire(refreshToken, refresh);
+        if (existing == null) {
+            refresh.run();
+            return refresh.getToken();
+        }
+        OMLog.debug(TAG, "Joining the refresh in progress");
+        return existing.getToken();
+    }
+
+    /**
+     * Refreshes the token on the SDK request executor, unless a refresh is
+     * already in flight for the same refresh token. The listener is invoked on
+     * the executor thread if a new token is obtained.
+     */
+    static void refreshInBackground(String refreshToken, Callable<OAuthToken> refresher,
+                                    final OnRefreshListener listener) {
+        final Refresh refresh = new Refresh(refresher);
+        if (acquire(refreshToken, refresh) != null) {
+            return;
+        }
+        OMLog.debug(TAG, "Refreshing the access token ahead of its expiry");
+        try {
+            OMHTTPRequestExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    refresh.run();
+                    try {
+                        OAuthToken refreshedToken = refresh.getToken();
+                        if (refreshedToken != null) {
+                            listener.onRefresh(refreshedToken);
+                        }
+                    } catch (OMMobileSecurityException e) {
+                        OMLog.error(TAG, "Background refresh failed: " + e.getErrorMessage());
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            /* The token is refreshed once expired instead.*/
+            OMLog.debug(TAG, "Request executor busy, skipping the background refresh");
+            REFRESHES.remove(refreshToken, refresh);
+        }
+    }
+
+    /* Returns the refresh in flight or recently succeeded for the given
+     * refresh token, or registers the passed one and returns null.*/
+    private static Refresh acquire(String refreshToken, Refresh refresh) {
+        synchronized (REFRESHES) {
+            pruneExpired();
+            Refresh existing = REFRESHES.get(refreshToken);
+            if (existing != null && existing.isReusable()) {
+                return existing;
+            }
+            REFRESHES.put(refreshToken, refresh);
+            return null;
+        }
+    }
+
+    private static void pruneExpired() {
+        Iterator<Refresh> iterator = REFRESHES.values().iterator();
+        while (iterator.hasNext()) {
+            if (!iterator.next().isReusable()) {
+                iterator.remove();
+            }
+        }
+    }
+
+    private static class Refresh extends FutureTask<OAuthToken> {
+        private volatile long mCompletedAt;
+        private volatile boolean mSucceeded;
+
+        Refresh(Callable<OAuthToken> refresher) {
+            super(refresher);
+        }
+
+        @Override
+        protected void set(OAuthToken token) {
+            mSucceeded = token != null;
+            super.set(token);
+        }
+
+        @Override
+        protected void done() {
+            mCompletedAt = System.currentTimeMillis();
+        }
+
+        boolean isReusable() {
+            long completedAt = mCompletedAt;
+            return completedAt == 0
+                    || (mSucceeded && System.currentTimeMillis() - completedAt < RESULT_REUSE_MILLIS);
+        }
+
+        OAuthToken getToken() throws OMMobileSecurityException {
+            try {
+                return get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof OMMobileSecurityException) {
+                    throw (OMMobileSecurityException) cause;
+                }
+                throw new OMMobileSecurityException(OMErrorCode.INTERNAL_ERROR, cause);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new OMMobileSecurityException(OMErrorCode.INTERNAL_ERROR, e);
+            }
+        }
+    }
+}
@@ -15,11 +15,11 @@ import org.json.JSONObject;
 
 import java.net.URI;
 import java.text.ParseException;
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -183,6 +183,12 @@ public class OMAuthenticationContext {
     private static final String SESSION_EXPIRY_SECS = "sessionExpInSecs";
     private static final String IDLETIME_EXPIRY_SECS = "idleTimeExpInSecs";
     private static final String LOGOUT_TIMEOUT_VALUE = "logoutTimeoutValue";
+    private static final String RECORDS = "records";
+    private static final String RECORD_VERSIONS = "recordVersions";
+    private static final String RECORD_VERSION = "version";
+    private static final String RECORD_VALUE = "value";
+    private static final String HAS_TOKENS = "hasTokens";
+    private static final int RECORD_SLOTS = 2;
     // End: Keys against which value will be stored in the String representation of OMAuthenticationContext
 
     private Status mStatus;
@@ -210,10 +216,24 @@ public class OMAuthenticationContext {
      * this OAuth token list, e.g: OpenIDToken (instanceof OAuthToken) is present.
      * OpenID token is also added to authContext.getTokens().
      */
-    private List<OAuthToken> oAuthTokenList;
+    private OAuthTokenList oAuthTokenList;
     private Map<String, OMToken> tokens;
     private Map<String, OMToken> owsmMACookies;
 
+    /* Token lists read from storage, which are decoded on first access:
+    the JSON arrays of the string representation, or the names of the
+    records not read yet when the context is persisted incrementally.*/
+    private final Map<String, JSONArray> mUndecodedTokenLists = new HashMap<>();
+    private final Set<String> mUnreadRecords = new HashSet<>();
+    /* Content of the records as last read or written, keyed by record name.*/
+    private final Map<String, String> mPersistedRecords = new HashMap<>();
+    /* Version of each record the persisted session details refer to. A record
+    is written to one of two slots as per its version, so that the slot of the
+    committed version is left intact until the session details are written.*/
+    private final Map<String, Integer> mRecordVersions = new HashMap<>();
+    private boolean mStoredAsRecords;
+    private boolean mStoredHasTokens;
+
     private int logoutTimeout;
     private Set<URI> mVisitedUrls;
     private List<OMCookie> mCookies;
@@ -225,6 +245,21 @@ public class OMAuthenticationContext {
      */
     private boolean idleTimeExpired;
 
+    /* Outcome of the last full validity check which found this context
+    valid, see isKnownValid(). mValidUntil is 0 if there is none.*/
+    private long mValidUntil;
+    private boolean mResetIdleTimeWhenValid;
+    private AuthenticationProvider mValidatedProvider;
+    private AuthenticationMode mValidatedMode;
+    private OAuthTokenList mValidatedOAuthTokens;
+    private int mValidatedOAuthTokensVersion;
+    private Map<String, OMToken> mValidatedTokens;
+    private int mValidatedTokenCount;
+    private OAuthMSToken mValidatedClientAssertion;
+    /* Of the login which created this context, see
+    AuthOperationState#beginAuthentication. Not persisted.*/
+    private int mAuthGeneration = AuthOperationState.NO_GENERATION;
+
     OMAuthenticationContext(AuthenticationServiceManager asm, OMAuthenticationRequest authRequest, String storageKey) {
         mASM = asm;
         mStorageKey = storageKey;
@@ -274,6 +309,14 @@ public class OMAuthenticationContext {
         return mAuthRequest;
     }
 
+    int getAuthGeneration() {
+        return mAuthGeneration;
+    }
+
+    void setAuthGeneration(int authGeneration) {
+        mAuthGeneration = authGeneration;
+    }
+
     /**
      * Returns the type of authentication provider.
      *
@@ -316,6 +359,7 @@ public class OMAuthenticationContext {
     public void populateExpiryTime(OMMobileSecurityServiceCallback appCallback) {
         if (mASM != null && mASM.getMSS() != null) {//TODO CHECK identity domain NPE
 
+            forgetValidity();
             int sessionExp = mASM.getMSS().getMobileSecurityConfig().getSessionDuration();
             int expTime = (sessionExp > 0) ? sessionExp : 0;
 
@@ -470,6 +514,10 @@ public class OMAuthenticationContext {
             if (mASM.getMSS().retrieveAuthenticationContext() == null) {
                 return false;
             }
+            if (isKnownValid()) {
+                return true;
+            }
+            Date idleTimeExpiryBefore = idleTimeExpiry;
             if (mASM != null) {
                 // Since the list of authentication services are lazily loaded, we
                 // will no have all the authentication service instances to validate
@@ -555,10 +603,104 @@ public class OMAuthenticationContext {
                 mASM.unloadAuthServices();
             }
 
+            if (isValid) {
+                /* The services reset the idle time of a valid context, if
+                applicable to its provider and mode.*/
+                rememberValidity(idleTimeExpiry != idleTimeExpiryBefore);
+            }
             return isValid;
         }
     }
 
+    /**
+     * Returns true if this context was found valid by the last full check and
+     * none of the deadlines which could make it invalid has passed since:
+     * session expiry, idle time expiry and expiry of the tokens, including
+     * the MS OAuth client assertion, which were not expired yet. In that
+     * case, the idle time is reset as the full check did. Any change of the
+     * tokens, client assertion, provider or mode requires a full check.
+     */
+    private synchronized boolean isKnownValid() {
+        if (mValidUntil == 0) {
+            return false;
+        }
+        long now = System.currentTimeMillis();
+        if (now >= mValidUntil
+                || (idleTimeExpiry != null && idleTimeExpInSecs != 0
+                && now >= idleTimeExpiry.getTime())
+                || authenticationProvider != mValidatedProvider
+                || authenticatedMode != mValidatedMode
+                || oAuthTokenList != mValidatedOAuthTokens
+                || (oAuthTokenList != null
+                && oAuthTokenList.getVersion() != mValidatedOAuthTokensVersion)
+                || tokens != mValidatedTokens
+                || (tokens != null && tokens.size() != mValidatedTokenCount)
+                || getMSClientAssertion() != mValidatedClientAssertion) {
+            mValidUntil = 0;
+            return false;
+        }
+        if (mResetIdleTimeWhenValid && idleTimeExpInSecs > 0 && !resetIdleTime()) {
+            mValidUntil = 0;
+            return false;
+        }
+        return true;
+    }
+
+    private synchronized void rememberValidity(boolean resetIdleTimeWhenValid) {
+        long now = System.currentTimeMillis();
+        long validUntil = Long.MAX_VALUE;
+        if (sessionExpiry != null && sessionExpInSecs != 0) {
+            validUntil = Math.min(validUntil, sessionExpiry.getTime());
+        }
+        for (OMToken token : getOAuthTokenList()) {
+            validUntil = getEarliestExpiry(validUntil, token, now);
+        }
+        for (OMToken token : getTokens().values()) {
+            validUntil = getEarliestExpiry(validUntil, token, now);
+        }
+        OAuthMSToken clientAssertion = getMSClientAssertion();
+        validUntil = getEarliestExpiry(validUntil, clientAssertion, now);
+        mValidUntil = validUntil;
+        mValidatedClientAssertion = clientAssertion;
+        mResetIdleTimeWhenValid = resetIdleTimeWhenValid;
+        mValidatedProvider = authenticationProvider;
+        mValidatedMode = authenticatedMode;
+        mValidatedOAuthTokens = oAuthTokenList;
+        mValidatedOAuthTokensVersion = oAuthTokenList.getVersion();
+        mValidatedTokens = tokens;
+        mValidatedTokenCount = tokens.size();
+    }
+
+    /* The client assertion checked by OAuthMSDYCRService#isValid, null if the
+    OAuth type is not MS OAuth.*/
+    private OAuthMSToken getMSClientAssertion() {
+        OAuthConnectionsUtil oAuthConnectionsUtil = mASM != null ? mASM.getOAuthConnectionsUtil() : null;
+        if (oAuthConnectionsUtil == null
+                || oAuthConnectionsUtil.getOAuthType() != OAuthConnectionsUtil.OAuthType.MSOAUTH) {
+            return null;
+        }
+        return mASM.retrieveClientAssertion();
+    }
+
+    /* Expired tokens cannot change the validity any more.*/
+    private static long getEarliestExpiry(long earliestExpiry, OMToken token, long now) {
+        Date expiryTime = token != null ? token.getExpiryTime() : null;
+        if (expiryTime != null && expiryTime.getTime() > now) {
+            return Math.min(earliestExpiry, expiryTime.getTime());
+        }
+        return earliestExpiry;
+    }
+
+    /**
+     * Makes the next validity check a full one.
+     */
+    synchronized void forgetValidity() {
+        mValidUntil = 0;
+        mValidatedOAuthTokens = null;
+        mValidatedTokens = null;
+        mValidatedClientAssertion = null;
+    }
+
     /**
      * Checks the validity of the OAuth tokens. If a token that matches the
      * request scopes is expired, it is refreshed if the refreshExpiredTokens
@@ -640,6 +782,7 @@ public class OMAuthenticationContext {
     }
 
     void setSessionExpiry(Date sessionExpiry) {
+        forgetValidity();
         this.sessionExpiry = sessionExpiry;
     }
 
@@ -709,6 +852,7 @@ public class OMAuthenticationContext {
                            boolean isLogoutCall) {
 
         String TAG = OMAuthenticationContext.TAG + "_deleteAuthContext";
+        forgetValidity();
 
         if (mASM != null) {
             /*
@@ -793,15 +937,12 @@ public class OMAuthenticationContext {
              * idle timeout occurred, tokens with refresh token are not cleared.
              * Refer: {@link OAuthAuthenticationService#clearOAuthTokens(OMAuthenticationContext, boolean)}
              * */
-            String detailsToStore = toString(true);
-
-            if (detailsToStore != null && !isRemoveFromStore) {
-                css.addAuthContext(credentialKey, detailsToStore);
+            if (!isRemoveFromStore) {
+                persist(credentialKey);
                 OMLog.debug(TAG,
                         "After logout the authentication context for the key "
                                 + credentialKey
-                                + " in the credential store is : "
-                                + detailsToStore);
+                                + " is updated in the credential store");
             } else {
                 css.deleteAuthContext(credentialKey);
                 OMLog.debug(TAG,
@@ -847,14 +988,28 @@ public class OMAuthenticationContext {
                 this.idleTimeExpInSecs = idleTimeExpInSecs;
             }
 
-            JSONArray jsonArray = jsonObject.optJSONArray(TOKENS);
-            this.tokens = convertJSONArrayToMap(jsonArray);
-
-            jsonArray = jsonObject.optJSONArray(OWSM_MA_COOKIES);
-            this.owsmMACookies = convertJSONArrayToMap(jsonArray);
-
-            jsonArray = jsonObject.optJSONArray(OAUTH_TOKEN);
-            this.oAuthTokenList = convertJSONArrayToList(jsonArray);
+            /* Tokens are decoded, and their records read, only once used.*/
+            if (jsonObject.optBoolean(RECORDS)) {
+                mStoredAsRecords = true;
+                mStoredHasTokens = jsonObject.optBoolean(HAS_TOKENS);
+                mPersistedRecords.put(RECORDS, authContextString);
+                JSONObject recordVersions = jsonObject.optJSONObject(RECORD_VERSIONS);
+                if (recordVersions != null) {
+                    Iterator<String> recordNames = recordVersions.keys();
+                    while (recordNames.hasNext()) {
+                        String recordName = recordNames.next();
+                        mRecordVersions.put(recordName, recordVersions.getInt(recordName));
+                    }
+                }
+                mUnreadRecords.addAll(Arrays.asList(TOKENS, OAUTH_TOKEN, OWSM_MA_COOKIES));
+            } else {
+                for (String tokenList : Arrays.asList(TOKENS, OAUTH_TOKEN, OWSM_MA_COOKIES)) {
+                    JSONArray jsonArray = jsonObject.optJSONArray(tokenList);
+                    if (jsonArray != null) {
+                        mUndecodedTokenLists.put(tokenList, jsonArray);
+                    }
+                }
+            }
 
             mStatus = Status.SUCCESS;
             this.authenticatedMode = AuthenticationMode.valueOf(jsonObject
@@ -976,6 +1131,7 @@ public class OMAuthenticationContext {
      * once the authentication is failure.
      */
     void clearAllFields() {
+        forgetValidity();
         clearPassword();
         mASM = null;
         mAuthRequest = null;
@@ -984,6 +1140,7 @@ public class OMAuthenticationContext {
         this.sessionExpInSecs = 0;
         this.idleTimeExpInSecs = 0;
         this.tokens = null;
+        discardStoredTokenList(TOKENS);
         this.mCookies = null;
 
         String userNameFromMap = (String) getInputParams().get(USERNAME_KEY);
@@ -1050,8 +1207,9 @@ public class OMAuthenticationContext {
         return mTimeoutManager;
     }
 
-    void setOAuthTokenList(List<OAuthToken> newTokenList) {
-        this.oAuthTokenList = newTokenList;
+    synchronized void setOAuthTokenList(List<OAuthToken> newTokenList) {
+        discardStoredTokenList(OAUTH_TOKEN);
+        this.oAuthTokenList = OAuthTokenList.of(newTokenList);
     }
 
     /**
@@ -1059,9 +1217,16 @@ public class OMAuthenticationContext {
      *
      * @return
      */
-    public List<OAuthToken> getOAuthTokenList() {
+    public synchronized List<OAuthToken> getOAuthTokenList() {
         if (oAuthTokenList == null) {
-            oAuthTokenList = new ArrayList<>();
+            try {
+                oAuthTokenList = convertJSONArrayToList(takeStoredTokenList(OAUTH_TOKEN));
+            } catch (JSONException e) {
+                OMLog.error(TAG, e.getMessage(), e);
+            }
+        }
+        if (oAuthTokenList == null) {
+            oAuthTokenList = new OAuthTokenList();
         }
         return oAuthTokenList;
     }
@@ -1101,7 +1266,6 @@ public class OMAuthenticationContext {
                 isOAuth = true;
             }
         }
-        OMLog.info(TAG, "isOAuthRelated : " + isOAuth);
         return isOAuth;
     }
 
@@ -1122,34 +1286,30 @@ public class OMAuthenticationContext {
     }
 
     private List<OMToken> getTokens(Set<String> scopes, boolean includeExpiredTokens) {
-        List<OMToken> matchedTokens = new ArrayList<>();
-        if (!isOAuthRelated()) {
+        boolean isOAuth = isOAuthRelated();
+        OMLog.info(TAG, "isOAuthRelated : " + isOAuth);
+        if (!isOAuth) {
             return null;
         }
-        if (scopes == null || scopes.size() == 0) {
-            for (OMToken token : getOAuthTokenList()) {
-                matchedTokens.add(token);
-            }
-        } else {
-            for (OMToken token : getOAuthTokenList()) {
-                OAuthToken oAuthToken = (OAuthToken) token;
-                if (oAuthToken.getScopes() != null) {
-                    if (oAuthToken.getScopes().containsAll(scopes)) {
-                        if (includeExpiredTokens || !token.isTokenExpired()) {
-                            // return only if token is not expired
-                            matchedTokens.add(token);
-                        }
-                    }
-                } else {
-                    // return auxillary tokens also as these are without scopes
-                    // and an oauth access token is always associated with a
-                    // scope if not set a default scopes is associated with the
-                    // token.
-                    matchedTokens.add(token);
-                }
-            }
+        return ((OAuthTokenList) getOAuthTokenList()).getTokens(scopes, includeExpiredTokens);
+    }
+
+    /**
+     * Returns the access token to be used for the passed scopes, i.e. the
+     * first one {@link #getTokens(Set)} would return, or null if there is
+     * none. Unlike {@link #getTokens(Set)}, the token is looked up once per
+     * set of scopes, until it expires or the tokens change, which suits
+     * callers needing a token for every request.
+     *
+     * @param scopes scopes the access token should have; if null or empty,
+     *               the first access token is returned.
+     * @return access token, or null if there is none matching the criteria.
+     */
+    public OMToken getBestToken(Set<String> scopes) {
+        if (!isOAuthRelated()) {
+            return null;
         }
-        return matchedTokens;
+        return ((OAuthTokenList) getOAuthTokenList()).getBestToken(scopes);
     }
 
     /**
@@ -1305,6 +1465,13 @@ public class OMAuthenticationContext {
             String credentialKey = getStorageKey() != null ? getStorageKey()
                     : mASM.getAppCredentialKey();
 
+            if (mStoredAsRecords || mASM.getMSS().getMobileSecurityConfig()
+                    .isIncrementalAuthContextPersistence()) {
+                /* persist() switches between the formats, and writes only the
+                changed records, i.e. the cookies, when stored as records.*/
+                persist(credentialKey);
+                return;
+            }
             String authContextString = css.getAuthContext(credentialKey);
             try {
                 JSONObject authContextJSONObject = new JSONObject(
@@ -1369,8 +1536,8 @@ public class OMAuthenticationContext {
         return null;
     }
 
-    private List<OAuthToken> convertJSONArrayToList(JSONArray jsonArray) throws JSONException {
-        List<OAuthToken> tokenList = new ArrayList<>();
+    private OAuthTokenList convertJSONArrayToList(JSONArray jsonArray) throws JSONException {
+        OAuthTokenList tokenList = new OAuthTokenList();
         if (jsonArray != null) {
             for (int i = 0; i < jsonArray.length(); i++) {
                 JSONObject token = jsonArray.getJSONObject(i);
@@ -1483,7 +1650,10 @@ public class OMAuthenticationContext {
      *
      * @return Map instance
      */
-    public Map<String, OMToken> getTokens() {
+    public synchronized Map<String, OMToken> getTokens() {
+        if (tokens == null) {
+            tokens = decodeStoredTokenMap(TOKENS);
+        }
         if (tokens == null) {
             tokens = new HashMap<>();
         }
@@ -1491,7 +1661,10 @@ public class OMAuthenticationContext {
         return tokens;
     }
 
-    public Map<String, OMToken> getOWSMMACookies() {
+    public synchronized Map<String, OMToken> getOWSMMACookies() {
+        if (owsmMACookies == null) {
+            owsmMACookies = decodeStoredTokenMap(OWSM_MA_COOKIES);
+        }
         if (owsmMACookies == null) {
             owsmMACookies = new HashMap<>();
         }
@@ -1500,10 +1673,140 @@ public class OMAuthenticationContext {
     }
 
 
-    void setTokens(Map<String, OMToken> tokens) {
+    synchronized void setTokens(Map<String, OMToken> tokens) {
+        discardStoredTokenList(TOKENS);
         this.tokens = tokens;
     }
 
+    private Map<String, OMToken> decodeStoredTokenMap(String tokenList) {
+        try {
+            return convertJSONArrayToMap(takeStoredTokenList(tokenList));
+        } catch (JSONException e) {
+            OMLog.error(TAG, e.getMessage(), e);
+            return null;
+        }
+    }
+
+    /* Returns the given token list as read from storage, if it has not been
+    decoded yet. Its record is read from the credential store at this point.*/
+    private JSONArray takeStoredTokenList(String tokenList) throws JSONException {
+        if (mUnreadRecords.remove(tokenList) && mASM != null) {
+            Integer version = mRecordVersions.get(tokenList);
+            if (version == null) {
+                return null;
+            }
+            String record = mASM.getMSS().getCredentialStoreService()
+                    .getAuthContextRecord(getCredentialKey(), getRecordSlot(tokenList, version));
+            JSONObject versionedRecord = record != null ? new JSONObject(record) : null;
+            if (versionedRecord == null || versionedRecord.optInt(RECORD_VERSION, -1) != version) {
+                /* Not the version committed along with the session details.*/
+                OMLog.error(TAG, "Ignoring incomplete auth context record " + tokenList);
+                return null;
+            }
+            String value = versionedRecord.getString(RECORD_VALUE);
+            mPersistedRecords.put(tokenList, value);
+            return new JSONArray(value);
+        }
+        return mUndecodedTokenLists.remove(tokenList);
+    }
+
+    private void discardStoredTokenList(String tokenList) {
+        mUndecodedTokenLists.remove(tokenList);
+        mUnreadRecords.remove(tokenList);
+    }
+
+    private String getCredentialKey() {
+        return getStorageKey() != null ? getStorageKey() : mASM.getAppCredentialKey();
+    }
+
+    /**
+     * Stores this context in the credential store against the given key. If
+     * {@link OMMobileSecurityConfiguration#isIncrementalAuthContextPersistence()},
+     * the session details, the tokens, the OAuth tokens and the OWSM MA cookies
+     * are stored as separate records, and only the records which changed since
+     * they were last read or written are written again. Otherwise, the
+     * string representation {@link #toString(boolean)} is stored.
+     *
+     * @param credentialKey
+     */
+    synchronized void persist(String credentialKey) {
+        OMCredentialStore css = mASM.getMSS().getCredentialStoreService();
+        if (!mASM.getMSS().getMobileSecurityConfig().isIncrementalAuthContextPersistence()) {
+            css.addAuthContext(credentialKey, toString(true));
+            if (mStoredAsRecords) {
+                for (String tokenList : Arrays.asList(TOKENS, OAUTH_TOKEN, OWSM_MA_COOKIES)) {
+                    for (int slot = 0; slot < RECORD_SLOTS; slot++) {
+                        css.deleteAuthContextRecord(credentialKey, getRecordSlot(tokenList, slot));
+                    }
+                }
+                mPersistedRecords.clear();
+                mRecordVersions.clear();
+                mStoredAsRecords = false;
+            }
+            return;
+        }
+
+        try {
+            /* Records not read yet are unchanged.*/
+            if (!mUnreadRecords.contains(TOKENS)) {
+                storeRecord(css, credentialKey, TOKENS, convertMapToJSONArray(getTokens()).toString());
+            }
+            if (!mUnreadRecords.contains(OAUTH_TOKEN)) {
+                JSONArray jsonArray = new JSONArray();
+                for (OAuthToken oAuthToken : getOAuthTokenList()) {
+                    jsonArray.put(oAuthToken.toJSONObject());
+                }
+                storeRecord(css, credentialKey, OAUTH_TOKEN, jsonArray.toString());
+            }
+            if (!mUnreadRecords.contains(OWSM_MA_COOKIES)) {
+                storeRecord(css, credentialKey, OWSM_MA_COOKIES,
+                        convertMapToJSONArray(getOWSMMACookies()).toString());
+            }
+            /* Written last: it commits the versions of the records written above.*/
+            JSONObject jsonObject = toJSONObject(true, false);
+            jsonObject.put(RECORDS, true);
+            jsonObject.put(RECORD_VERSIONS, new JSONObject(mRecordVersions));
+            storeRecord(css, credentialKey, RECORDS, jsonObject.toString());
+            mStoredAsRecords = true;
+        } catch (JSONException e) {
+            OMLog.error(TAG + "_persist", e.getMessage(), e);
+        }
+    }
+
+    /* The session details are the auth context itself, the other records
+    are stored along with it, in the slot which is not committed.*/
+    private void storeRecord(OMCredentialStore css, String credentialKey, String recordName,
+                             String record) throws JSONException {
+        if (record.equals(mPersistedRecords.get(recordName))) {
+            return;
+        }
+        if (RECORDS.equals(recordName)) {
+            css.addAuthContext(credentialKey, record);
+        } else {
+            Integer committedVersion = mRecordVersions.get(recordName);
+            int version = committedVersion != null ? committedVersion + 1 : 0;
+            JSONObject versionedRecord = new JSONObject();
+            versionedRecord.put(RECORD_VERSION, version);
+            versionedRecord.put(RECORD_VALUE, record);
+            css.addAuthContextRecord(credentialKey, getRecordSlot(recordName, version),
+                    versionedRecord.toString());
+            mRecordVersions.put(recordName, version);
+        }
+        mPersistedRecords.put(recordName, record);
+        OMLog.trace(TAG, "Persisted auth context record " + recordName);
+    }
+
+    private static String getRecordSlot(String recordName, int version) {
+        return recordName + "." + (version % RECORD_SLOTS);
+    }
+
+    private boolean hasTokens() {
+        if (tokens == null && mUnreadRecords.contains(TOKENS)) {
+            return mStoredHasTokens;
+        }
+        return !getTokens().isEmpty();
+    }
+
     public Set<URI> getVisitedUrls() {
         return mVisitedUrls;
     }
@@ -1540,6 +1843,23 @@ public class OMAuthenticationContext {
      * @return string representation of the object
      */
     String toString(boolean isAllowTokens) {
+        JSONObject jsonObject = toJSONObject(isAllowTokens, true);
+        if (jsonObject.length() > 0) {
+            return jsonObject.toString();
+        } else {
+            return null;
+        }
+    }
+
+    /**
+     * Returns the JSON representation of this object.
+     *
+     * @param isAllowTokens    whether the tokens are to be included
+     * @param inlineTokenLists whether the token lists are to be included, or
+     *                         only the session details, as they are stored as
+     *                         separate records
+     */
+    private synchronized JSONObject toJSONObject(boolean isAllowTokens, boolean inlineTokenLists) {
         JSONObject jsonObject = new JSONObject();
 
         try {
@@ -1567,13 +1887,17 @@ public class OMAuthenticationContext {
 
             boolean isExpDetAdd = false;
 
-            if (isAllowTokens && !getTokens().isEmpty()) {
+            if (!inlineTokenLists) {
+                boolean hasTokens = isAllowTokens && hasTokens();
+                jsonObject.put(HAS_TOKENS, hasTokens);
+                isExpDetAdd = hasTokens;
+            } else if (isAllowTokens && !getTokens().isEmpty()) {
                 JSONArray tokens = convertMapToJSONArray(getTokens());
                 jsonObject.put(TOKENS, tokens);
 
                 isExpDetAdd = true;
             }
-            if (isAllowTokens && !getOAuthTokenList().isEmpty()) {
+            if (inlineTokenLists && isAllowTokens && !getOAuthTokenList().isEmpty()) {
                 JSONArray jsonArray = new JSONArray();
                 for (OMToken token : getOAuthTokenList()) {
                     OAuthToken oAuthToken = (OAuthToken) token;
@@ -1597,7 +1921,7 @@ public class OMAuthenticationContext {
                 }
             }
 
-            if (!getOWSMMACookies().isEmpty()) {
+            if (inlineTokenLists && !getOWSMMACookies().isEmpty()) {
                 JSONArray owsmMACookies = convertMapToJSONArray(getOWSMMACookies());
                 jsonObject.put(OWSM_MA_COOKIES, owsmMACookies);
             }
@@ -1607,12 +1931,7 @@ public class OMAuthenticationContext {
         } catch (JSONException e) {
             OMLog.debug(TAG + "_toString", e.getLocalizedMessage(), e);
         }
-
-        if (jsonObject.length() > 0) {
-            return jsonObject.toString();
-        } else {
-            return null;
-        }
+        return jsonObject;
     }
 
     /**
@@ -1624,6 +1943,7 @@ public class OMAuthenticationContext {
      * @param authContext
      */
     void copyFromAuthContext(OMAuthenticationContext authContext) {
+        forgetValidity();
         this.userName = authContext.getUserName();
         this.identityDomain = authContext.getIdentityDomain();
         this.authenticatedMode = authContext.getAuthenticatedMode();
@@ -1631,7 +1951,7 @@ public class OMAuthenticationContext {
         this.authenticationMechanism = authContext.getAuthenticationMechanism();
         this.offlineCredentialKey = authContext.getOfflineCredentialKey();
         this.tokens = authContext.getTokens();
-        this.oAuthTokenList = authContext.oAuthTokenList;
+        this.oAuthTokenList = OAuthTokenList.of(authContext.getOAuthTokenList());
         this.sessionExpiry = authContext.getSessionExpiry();
         this.sessionExpInSecs = authContext.getSessionExpInSecs();
         this.idleTimeExpiry = authContext.getIdleTimeExpiry();
@@ -120,11 +120,7 @@ public class OMToken implements Serializable {
             return false;
         }
 
-        Date currentTime = Calendar.getInstance().getTime();
-        if (currentTime.after(expiryTime) || currentTime.equals(expiryTime)) {
-            return true;
-        }
-        return false;
+        return System.currentTimeMillis() >= expiryTime.getTime();
     }
 
     protected void populateExpiryDate() {
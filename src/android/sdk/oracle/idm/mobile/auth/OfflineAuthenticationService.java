@@ -604,4 +604,9 @@ final class OfflineAuthenticationService extends AuthenticationService implement
         return idleTimeOut;
     }
 
+    @Override
+    void resetState() {
+        idleTimeOut = false;
+    }
+
 }
@@ -23,11 +23,13 @@ import oracle.idm.mobile.OMErrorCode;
 import oracle.idm.mobile.OMMobileSecurityException;
 import oracle.idm.mobile.OMSecurityConstants;
 import oracle.idm.mobile.auth.logout.OMLogoutCompletionHandler;
+import oracle.idm.mobile.auth.openID.JWKSCache;
 import oracle.idm.mobile.auth.openID.OpenIDToken;
 import oracle.idm.mobile.auth.openID.OpenIDTokenService;
 import oracle.idm.mobile.auth.openID.OpenIDUserInfo;
 import oracle.idm.mobile.configuration.OMMobileSecurityConfiguration;
 import oracle.idm.mobile.configuration.OMOICMobileSecurityConfiguration;
+import oracle.idm.mobile.connection.OMHTTPRequest;
 import oracle.idm.mobile.connection.OMHTTPResponse;
 import oracle.idm.mobile.logging.OMLog;
 
@@ -81,26 +83,19 @@ public class OpenIDConnect10AuthenticationService extends OAuthAuthorizationCode
                     if (!TextUtils.isEmpty(idTokenString)) {
                         OpenIDToken idToken = getOpenIDTokenService().generate(idTokenString, true);
                         URL url = idConfig.getSigningCertEndpoint();
-                        OMLog.debug(TAG, "Getting Signing Cert details from URL: " + url);
-                        String jwksResponse = "";
-                        OMHTTPResponse response = getSigningCertForIDCS(url, accessToken);
-                        boolean verify = false;
-                        if (response != null) {
-                            int responseCode = response.getResponseCode();
-                            OMLog.debug(TAG, "Response Code: " + responseCode);
-                            if (responseCode == HttpURLConnection.HTTP_OK) {
-                                jwksResponse = response.getResponseStringOnSuccess();
-                                verify = true;
-                            } else {
-                                jwksResponse = response.getResponseStringOnFailure();
-                                verify = false;//no verifying required
-                            }
+                        JWKSCache jwksCache = JWKSCache.getInstance(url);
+                        boolean verify = true;
+                        if (jwksCache.hasKeyFor(idToken.getSignedJWT().getHeader())) {
+                            OMLog.debug(TAG, "Using cached Signing Cert details");
+                        } else {
+                            OMLog.debug(TAG, "Getting Signing Cert details from URL: " + url);
+                            verify = refreshSigningKeys(jwksCache, url, accessToken);
                         }
 
                         //lets do local validation first
                         if (isTokenValid(idToken, true)) {
                             if (verify) {
-                                boolean verificationStatus = getOpenIDTokenService().verifySignature(idToken, jwksResponse);
+                                boolean verificationStatus = getOpenIDTokenService().verifySignature(idToken, jwksCache);
                                 if (!verificationStatus) {
                                     error = true;
                                     mobileException = new OMMobileSecurityException(OMErrorCode.OPENID_TOKEN_SIGNATURE_INVALID);
@@ -176,13 +171,40 @@ public class OpenIDConnect10AuthenticationService extends OAuthAuthorizationCode
         Map<String, String> headers = new HashMap<>();
         headers.put(AUTHORIZATION, BEARER + " " + accessToken.getValue());
         try {
-            return mASM.getMSS().getConnectionHandler().httpGet(url, headers);
+            return mASM.getMSS().getConnectionHandler().httpGet(url, headers,
+                    OMHTTPRequest.REQUIRE_RESPONSE_BYTES);
         } catch (OMMobileSecurityException e) {
             OMLog.error(TAG, e.getErrorMessage(), e);
         }
         return null;
     }
 
+    /**
+     * Downloads the signing keys into the given cache.
+     *
+     * @return false if the signing cert endpoint did not return the keys, in
+     * which case the ID token signature is not verified.
+     */
+    private boolean refreshSigningKeys(JWKSCache jwksCache, URL url, OAuthToken accessToken) {
+        OMHTTPResponse response = getSigningCertForIDCS(url, accessToken);
+        if (response == null) {
+            return false;
+        }
+        int responseCode = response.getResponseCode();
+        OMLog.debug(TAG, "Response Code: " + responseCode);
+        if (responseCode != HttpURLConnection.HTTP_OK) {
+            return false;//no verifying required
+        }
+        try {
+            jwksCache.update(response.getResponseBody(), response.getResponseCharset());
+        } catch (ParseException e) {
+            /* Stale keys must not be used to verify the token.*/
+            OMLog.error(TAG, e.getMessage(), e);
+            jwksCache.invalidate();
+        }
+        return true;
+    }
+
     public OpenIDTokenService getOpenIDTokenService() {
         if (openIDTokenService == null) {
             openIDTokenService = new OpenIDTokenService();
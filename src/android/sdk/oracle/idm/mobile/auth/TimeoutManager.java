@@ -8,10 +8,11 @@ package oracle.idm.mobile.auth;
 
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
 
 import oracle.idm.mobile.auth.OMAuthenticationContext.TimeoutType;
@@ -20,18 +21,29 @@ import oracle.idm.mobile.logging.OMLog;
 
 /**
  * Utility class to handle timeouts. It provides methods to start, reset and stop timers.
+ * <p>
+ * The timers of all the instances run on a single thread shared by the
+ * process, which is started when the first timer is scheduled. Each timer
+ * keeps its deadline in a field, and a task scheduled for it checks the
+ * deadline when it runs: if the deadline was pushed back meanwhile, the task
+ * schedules itself again for the remaining time. Hence, resetting the idle
+ * timer only updates its deadline, without cancelling and scheduling tasks.
  *
  * @hide
  */
 public class TimeoutManager {
     private static final String TAG = TimeoutManager.class.getSimpleName();
-    private static final int CORE_POOL_SIZE = 15;
-    ScheduledThreadPoolExecutor scheduler;
+    private static final String THREAD_NAME = "OMTimeoutManager";
+    private static ScheduledThreadPoolExecutor sScheduler;
     int mIdleTimeout, mSessionTimeout, mAdvanceNotification;
     OMAuthenticationContextCallback mCallback;
-    ScheduledFuture mIdleTimeoutTimer, mAdvanceNotificationTimer, mSessionTimeoutTimer;
     OMAuthenticationContext mAuthContext;
     Handler mHandler;
+    /* Deadlines are in SystemClock.elapsedRealtime() time base, 0 when the
+     * timer is not running. Guarded by this.*/
+    private long mIdleDeadline, mSessionDeadline;
+    private boolean mAdvanceNotified;
+    private ScheduledFuture<?> mIdleTimer, mSessionTimer;
 
     TimeoutManager(OMAuthenticationContextCallback callback, OMAuthenticationContext authContext) {
         mIdleTimeout = authContext.getIdleTimeExpInSecs();
@@ -40,8 +52,6 @@ public class TimeoutManager {
         mCallback = callback;
         mAuthContext = authContext;
         mHandler = new Handler(Looper.getMainLooper());
-        scheduler = (ScheduledThreadPoolExecutor)
-                Executors.newScheduledThreadPool(CORE_POOL_SIZE);
     }
 
     /**
@@ -53,37 +63,29 @@ public class TimeoutManager {
         startSessionTimeoutTimer();
     }
 
-    void startSessionTimeoutTimer() {
+    synchronized void startSessionTimeoutTimer() {
         OMLog.trace(TAG, "Start the SessionTimeoutTimer");
-        mSessionTimeoutTimer = scheduler.schedule(sessionTimeoutTask, mSessionTimeout, TimeUnit.SECONDS);
+        long timeout = TimeUnit.SECONDS.toMillis(mSessionTimeout);
+        mSessionDeadline = SystemClock.elapsedRealtime() + timeout;
+        mSessionTimer = schedule(sessionTimeoutTask, timeout);
     }
 
     /**
      * Starts the timer which triggers the notification to app before idle timeout.
-     * When this advance notification timer is triggered, actual idle timeout
-     * timer is scheduled.
+     * When this advance notification is triggered, the same timer goes on till
+     * the actual idle timeout.
      */
-    void startIdleTimeoutAdvanceNotificationTimer() {
+    synchronized void startIdleTimeoutAdvanceNotificationTimer() {
         OMLog.trace(TAG, "Start the IdleTimeoutAdvanceNotificationTimer");
-        long timeout = Math.round(mIdleTimeout * (1.0d - ((double) mAdvanceNotification / 100)));
-
-        mAdvanceNotificationTimer = scheduler.schedule(advanceNotificationTask, timeout, TimeUnit.SECONDS);
+        mIdleDeadline = SystemClock.elapsedRealtime() + TimeUnit.SECONDS.toMillis(mIdleTimeout);
+        mAdvanceNotified = false;
+        mIdleTimer = schedule(idleTimeoutTask, TimeUnit.SECONDS.toMillis(mIdleTimeout) - getAdvanceNotificationMillis());
     }
 
-    /**
-     * Task to be executed on Advance Idletimeout notification ( at T{i}-T{inot}):
-     * 1. Invoking application callback
-     * 2. Scheduling task for IdleTimeout( with delay T{inot} )
-     * where T{inot} is the advance time before the actual idle time out occurs.
-     */
-    Runnable advanceNotificationTask = new Runnable() {
-        public void run() {
-            OMLog.debug(TAG, "Idle Time expires in seconds " + mIdleTimeout * mAdvanceNotification / 100);
-            onTimeout(TimeoutType.IDLE_TIMEOUT, mIdleTimeout * mAdvanceNotification / 100, false);
-            long timeout = Math.round(mIdleTimeout * (double) mAdvanceNotification / 100);
-            mIdleTimeoutTimer = scheduler.schedule(idleTimeoutTask, timeout, TimeUnit.SECONDS);
-        }
-    };
+    /* Time between the advance notification and the actual idle timeout.*/
+    private long getAdvanceNotificationMillis() {
+        return TimeUnit.SECONDS.toMillis(Math.round(mIdleTimeout * (double) mAdvanceNotification / 100));
+    }
 
     /**
      * Task to be executed on SessionTimeout :
@@ -92,6 +94,16 @@ public class TimeoutManager {
      */
     Runnable sessionTimeoutTask = new Runnable() {
         public void run() {
+            synchronized (TimeoutManager.this) {
+                if (mSessionDeadline == 0) {
+                    return;
+                }
+                long remaining = mSessionDeadline - SystemClock.elapsedRealtime();
+                if (remaining > 0) {
+                    mSessionTimer = schedule(this, remaining);
+                    return;
+                }
+            }
             OMLog.debug(TAG, "Session Time expired");
             stopTimers();
             onTimeout(TimeoutType.SESSION_TIMEOUT, 0, true);
@@ -99,95 +111,134 @@ public class TimeoutManager {
     };
 
     /**
-     * Task to be executed on actual IdleTimeout :
-     * 1. Invoking app callback
-     * 2. Invalidating AuthContext
+     * Task to be executed on Advance Idletimeout notification ( at T{i}-T{inot}):
+     * invoking application callback, and at actual IdleTimeout ( at T{i}):
+     * invoking app callback and invalidating AuthContext.
+     * where T{inot} is the advance time before the actual idle time out occurs.
+     * T{i} moves ahead whenever the timer is reset.
      */
     Runnable idleTimeoutTask = new Runnable() {
         public void run() {
-            OMLog.debug(TAG, "Idle Time expired");
-            if (mAuthContext.getAuthenticationProvider() == OMAuthenticationContext.AuthenticationProvider.FEDERATED) {
-                /*In case of fed auth, idle timeout and session timeout lead to same behavior, that is
-                * clearing of session cookies. Hence, we stop session timer in case of fed auth upon
-                * idle timeout. Also, session timeout callback is invoked along with idle timeout callback
-                * to indicate session and idle timeout to app.
-                * The reverse scenario (cancellation of idle timeout on session timeout)
-                * does not arise, as idle < session timeout.*/
-                stopSessionTimer();
+            boolean advanceNotification;
+            synchronized (TimeoutManager.this) {
+                if (mIdleDeadline == 0) {
+                    return;
+                }
+                long now = SystemClock.elapsedRealtime();
+                if (!mAdvanceNotified) {
+                    long untilNotification = mIdleDeadline - getAdvanceNotificationMillis() - now;
+                    if (untilNotification > 0) {
+                        mIdleTimer = schedule(this, untilNotification);
+                        return;
+                    }
+                    mAdvanceNotified = true;
+                    advanceNotification = true;
+                    mIdleTimer = schedule(this, mIdleDeadline - now);
+                } else {
+                    long remaining = mIdleDeadline - now;
+                    if (remaining > 0) {
+                        mIdleTimer = schedule(this, remaining);
+                        return;
+                    }
+                    advanceNotification = false;
+                    mIdleDeadline = 0;
+                    mIdleTimer = null;
+                }
             }
-            mAuthContext.setIdleTimeout(true);
-            onTimeout(TimeoutType.IDLE_TIMEOUT, 0, true);
-            if (mAuthContext.getAuthenticationProvider() == OMAuthenticationContext.AuthenticationProvider.FEDERATED) {
-                // false is passed since authentication context is already invalidated above.
-                onTimeout(TimeoutType.SESSION_TIMEOUT, 0, false);
+            if (advanceNotification) {
+                OMLog.debug(TAG, "Idle Time expires in seconds " + mIdleTimeout * mAdvanceNotification / 100);
+                onTimeout(TimeoutType.IDLE_TIMEOUT, mIdleTimeout * mAdvanceNotification / 100, false);
+            } else {
+                onIdleTimeout();
             }
         }
     };
 
+    private void onIdleTimeout() {
+        OMLog.debug(TAG, "Idle Time expired");
+        if (mAuthContext.getAuthenticationProvider() == OMAuthenticationContext.AuthenticationProvider.FEDERATED) {
+            /*In case of fed auth, idle timeout and session timeout lead to same behavior, that is
+            * clearing of session cookies. Hence, we stop session timer in case of fed auth upon
+            * idle timeout. Also, session timeout callback is invoked along with idle timeout callback
+            * to indicate session and idle timeout to app.
+            * The reverse scenario (cancellation of idle timeout on session timeout)
+            * does not arise, as idle < session timeout.*/
+            stopSessionTimer();
+        }
+        mAuthContext.setIdleTimeout(true);
+        onTimeout(TimeoutType.IDLE_TIMEOUT, 0, true);
+        if (mAuthContext.getAuthenticationProvider() == OMAuthenticationContext.AuthenticationProvider.FEDERATED) {
+            // false is passed since authentication context is already invalidated above.
+            onTimeout(TimeoutType.SESSION_TIMEOUT, 0, false);
+        }
+    }
+
     /**
-     * Method to reset IdleTimeout. It checks if Idletimeout has already occured and returns false, if not cancels
-     * scheduled tasks for idleTimeout (if any) and schedules new task for advance IdleTimeout Notification.
+     * Method to reset IdleTimeout. It checks if Idletimeout has already occured and returns false, if not
+     * moves the idle timeout deadline ahead. The advance IdleTimeout Notification is then triggered again
+     * before the new deadline.
      *
      * @return true, if timer is successfully reset
      */
-    boolean resetTimer() {
-        if (scheduler.isShutdown() ||
-                mAdvanceNotificationTimer == null ||
-                (mAdvanceNotificationTimer.isDone() &&
-                        (mIdleTimeoutTimer != null && mIdleTimeoutTimer.isDone()))) {
-            OMLog.error(TAG, "Could not reset the timers: "
-                    + " scheduler.isShutdown() : " + scheduler.isShutdown()
-                    + " mAdvanceNotificationTimer == null : " + (mAdvanceNotificationTimer == null)
-                    + " mAdvanceNotificationTimer.isDone() : " + mAdvanceNotificationTimer.isDone()
-                    + " mIdleTimeoutTimer != null : " + (mIdleTimeoutTimer != null));
-            if (mIdleTimeoutTimer != null) {
-                OMLog.error(TAG, " mIdleTimeoutTimer.isDone() : " + mIdleTimeoutTimer.isDone());
-            }
+    synchronized boolean resetTimer() {
+        if (mIdleDeadline == 0) {
+            OMLog.error(TAG, "Could not reset the timers: idle timer is not running");
             return false;
         }
-
-        boolean resetTimerStatus = mAdvanceNotificationTimer.cancel(true);
-        if (mIdleTimeoutTimer != null) {
-            resetTimerStatus = resetTimerStatus || mIdleTimeoutTimer.cancel(true);
-        }
-        long timeout = Math.round(mIdleTimeout * (1.0d - ((double) mAdvanceNotification / 100)));
-        mAdvanceNotificationTimer = scheduler.schedule(advanceNotificationTask, timeout, TimeUnit.SECONDS);
-        OMLog.debug(TAG, " resetTimerStatus " + resetTimerStatus);
-        return resetTimerStatus;
+        mIdleDeadline = SystemClock.elapsedRealtime() + TimeUnit.SECONDS.toMillis(mIdleTimeout);
+        mAdvanceNotified = false;
+        OMLog.debug(TAG, " resetTimerStatus true");
+        return true;
     }
 
     /**
      * @hide
      */
-    public void stopTimers() {
+    public synchronized void stopTimers() {
         OMLog.debug(TAG, "Invalidating the timers");
-        if (mIdleTimeoutTimer != null && !mIdleTimeoutTimer.isDone())
-            mIdleTimeoutTimer.cancel(true);
-        if (mAdvanceNotificationTimer != null && !mAdvanceNotificationTimer.isDone())
-            mAdvanceNotificationTimer.cancel(true);
-        if (mSessionTimeoutTimer != null && !mSessionTimeoutTimer.isDone())
-            mSessionTimeoutTimer.cancel(true);
-
-        mIdleTimeoutTimer = null;
-        mAdvanceNotificationTimer = null;
-        mSessionTimeoutTimer = null;
-
-        scheduler.shutdown();
+        mIdleDeadline = 0;
+        mSessionDeadline = 0;
+        if (mIdleTimer != null)
+            mIdleTimer.cancel(false);
+        if (mSessionTimer != null)
+            mSessionTimer.cancel(false);
+
+        mIdleTimer = null;
+        mSessionTimer = null;
+        /* Drops the cancelled tasks from the shared queue.*/
+        getScheduler().purge();
     }
 
-    private void stopSessionTimer() {
+    private synchronized void stopSessionTimer() {
         OMLog.debug(TAG, "Stopping session timer");
 
-        if (mSessionTimeoutTimer != null && !mSessionTimeoutTimer.isDone()) {
-            boolean stopSessionTimerStatus = mSessionTimeoutTimer.cancel(true);
+        if (mSessionTimer != null && !mSessionTimer.isDone()) {
+            boolean stopSessionTimerStatus = mSessionTimer.cancel(false);
             OMLog.debug(TAG, "stopSessionTimerStatus " + stopSessionTimerStatus);
         } else {
             OMLog.debug(TAG, "Session timer is NOT scheduled");
         }
 
-        mSessionTimeoutTimer = null;
+        mSessionDeadline = 0;
+        mSessionTimer = null;
+    }
 
-        scheduler.shutdown();
+    private static ScheduledFuture<?> schedule(Runnable task, long delayMillis) {
+        return getScheduler().schedule(task, Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor getScheduler() {
+        if (sScheduler == null) {
+            sScheduler = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, THREAD_NAME);
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return sScheduler;
     }
 
     /**
@@ -202,6 +253,7 @@ public class TimeoutManager {
             public void run() {
                 if (invalidateAuthContext) {
                     // To clean up the authentication context on idle/session timeout.
+                    mAuthContext.forgetValidity();
                     mAuthContext.isValid(false);
                 }
                 if (mCallback != null) {
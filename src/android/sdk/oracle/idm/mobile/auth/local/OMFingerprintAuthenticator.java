@@ -287,6 +287,7 @@ public class OMFingerprintAuthenticator implements OMAuthenticator {
     public void invalidate() {
         initialized = false;
         authenticated = false;
+        OMSecureStorageService.clearCache();
         omKeyStore = null;
         secretKeyWrapper = null;
     }
@@ -10,15 +10,9 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.text.TextUtils;
 
+import java.security.GeneralSecurityException;
 import java.security.Key;
-import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
-import java.security.spec.InvalidKeySpecException;
-import java.security.spec.KeySpec;
-
-import javax.crypto.SecretKey;
-import javax.crypto.SecretKeyFactory;
-import javax.crypto.spec.PBEKeySpec;
 
 import oracle.idm.mobile.OMErrorCode;
 import oracle.idm.mobile.OMSecurityConstants;
@@ -65,6 +59,20 @@ public class OMPinAuthenticator implements OMAuthenticator {
         return this.authenticatorId + "_validation_data";
     }
 
+    String getSharedPreferencesKeyForKeyDerivation() {
+        return this.authenticatorId + "_kdf";
+    }
+
+    /* Stored along with the salt; absent for PINs set by older versions.*/
+    PinKeyDerivation.Parameters getKeyDerivationParameters() throws OMAuthenticationManagerException {
+        String parameters = getSharedPreferences().getString(getSharedPreferencesKeyForKeyDerivation(), null);
+        try {
+            return PinKeyDerivation.Parameters.parse(parameters);
+        } catch (IllegalArgumentException e) {
+            throw new OMAuthenticationManagerException(OMErrorCode.INTERNAL_ERROR, e.getMessage(), e);
+        }
+    }
+
     @Override
     public void initialize(Context context, String authenticatorId, OMAuthenticationPolicy authenticationPolicy) throws OMAuthenticationManagerException {
 
@@ -106,12 +114,15 @@ public class OMPinAuthenticator implements OMAuthenticator {
         String pin = (String) authData.getData();
         String storedSalt = getSharedPreferences().getString(getSharedPreferencesKeyForSalt(), null);
         byte[] salt;
+        PinKeyDerivation.Parameters parameters;
         if (storedSalt == null) {
             salt = getSalt();
+            parameters = PinKeyDerivation.getCalibratedParameters();
         } else {
             salt = Base64.decode(storedSalt);
+            parameters = getKeyDerivationParameters();
         }
-        doSetAuthData(pin, salt);
+        doSetAuthData(pin, salt, parameters);
     }
 
     /**
@@ -119,10 +130,11 @@ public class OMPinAuthenticator implements OMAuthenticator {
      *
      * @param pin
      * @param salt
+     * @param parameters
      */
-    private void doSetAuthData(String pin, byte[] salt) throws OMAuthenticationManagerException {
+    private void doSetAuthData(String pin, byte[] salt, PinKeyDerivation.Parameters parameters) throws OMAuthenticationManagerException {
         try {
-            kek = getKeyFromPin(pin, salt);
+            kek = getKeyFromPin(pin, salt, parameters);
             if (OMSecurityConstants.DEBUG) {
                 OMLog.trace(TAG, "**** Inside doSetAuthData: kek = " + Base64.encode(kek.getEncoded()));
             }
@@ -155,28 +167,26 @@ public class OMPinAuthenticator implements OMAuthenticator {
             getSharedPreferences().edit()
                     .putString(randomDataStorageKey, randomData)
                     .putString(getSharedPreferencesKeyForSalt(), Base64.encode(salt))
+                    .putString(getSharedPreferencesKeyForKeyDerivation(), parameters.toString())
                     .commit();
+            PinKeyDerivation.cacheKey(authenticatorId, pin, salt, parameters, kek);
         } catch (Exception e) {
             throw new OMAuthenticationManagerException(OMErrorCode.INTERNAL_ERROR, e.getMessage(), e);
         }
     }
 
+    /**
+     * Derives the key from the PIN using the stored key derivation parameters.
+     */
     Key getKeyFromPin(String pin, byte[] salt) throws OMAuthenticationManagerException {
+        return getKeyFromPin(pin, salt, getKeyDerivationParameters());
+    }
 
-        long start = System.currentTimeMillis();
-        int iterations = 2000;
-        int keyLengthInBits = /* 32 bytes = */ 256;
-        char[] chars = pin.toCharArray();
-
-        KeySpec spec = new PBEKeySpec(chars, salt, iterations, keyLengthInBits);
-
+    private Key getKeyFromPin(String pin, byte[] salt, PinKeyDerivation.Parameters parameters)
+            throws OMAuthenticationManagerException {
         try {
-            SecretKeyFactory skf = SecretKeyFactory.getInstance("PBKDF2WithHmacSHA1");
-            SecretKey key = skf.generateSecret(spec);
-            long end = System.currentTimeMillis() - start;
-            OMLog.debug("getKeyFromPin", "getKeyFromPin took:  " + end + " ms");
-            return key;
-        } catch (NoSuchAlgorithmException | InvalidKeySpecException e) {
+            return PinKeyDerivation.getKey(authenticatorId, pin, salt, parameters);
+        } catch (GeneralSecurityException | IllegalArgumentException e) {
             throw new OMAuthenticationManagerException(OMErrorCode.INTERNAL_ERROR, e.getMessage(), e);
         }
     }
@@ -217,6 +227,7 @@ public class OMPinAuthenticator implements OMAuthenticator {
         getSharedPreferences().edit().
                 remove(getSharedPreferencesKeyForPinValidationData())
                 .remove(getSharedPreferencesKeyForSalt())
+                .remove(getSharedPreferencesKeyForKeyDerivation())
                 .commit();
 
         invalidate();
@@ -254,12 +265,15 @@ public class OMPinAuthenticator implements OMAuthenticator {
 
         String newPin = (String) newAuthData.getData();
         byte[] newSalt = getSalt();
-        Key newKey = getKeyFromPin(newPin, newSalt);
+        PinKeyDerivation.Parameters newParameters = PinKeyDerivation.getCalibratedParameters();
+        Key newKey = getKeyFromPin(newPin, newSalt, newParameters);
+        /* So that doSetAuthData() does not derive it again.*/
+        PinKeyDerivation.cacheKey(authenticatorId, newPin, newSalt, newParameters, newKey);
 
         OMKeyManager keyManager = new OMKeyManager(context);
 
         keyManager.updateEncryptionKey(authenticatorId, kek.getEncoded(), newKey.getEncoded());
-        doSetAuthData(newPin, newSalt);
+        doSetAuthData(newPin, newSalt, newParameters);
     }
 
     @Override
@@ -287,7 +301,8 @@ public class OMPinAuthenticator implements OMAuthenticator {
         try {
             Key localKek;
             OMKeyStore localKeyStore;
-            localKek = getKeyFromPin(pin, salt);
+            PinKeyDerivation.Parameters parameters = getKeyDerivationParameters();
+            localKek = getKeyFromPin(pin, salt, parameters);
             if (OMSecurityConstants.DEBUG) {
                 OMLog.trace(TAG, "**** Inside authenticate: KEK = " + Base64.encode(localKek.getEncoded()));
             }
@@ -305,6 +320,7 @@ public class OMPinAuthenticator implements OMAuthenticator {
                  * if authentication is successful.*/
                 kek = localKek;
                 keyStore = localKeyStore;
+                PinKeyDerivation.cacheKey(authenticatorId, pin, salt, parameters, localKek);
                 return true;
             }
             return false;
@@ -335,8 +351,12 @@ public class OMPinAuthenticator implements OMAuthenticator {
 
     @Override
     public void invalidate() {
+        if (authenticatorId != null) {
+            PinKeyDerivation.clearCache(authenticatorId);
+        }
         initialized = false;
         authenticated = false;
+        OMSecureStorageService.clearCache();
         keyStore = null;
         oldKeyStore = null;
         kek = null;
@@ -0,0 +1,282 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates.
+ * The Universal Permissive License (UPL), Version 1.0
+ */
+
+
+package oracle.idm.mobile.auth.local;
+
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.crypto.Mac;
+import javax.crypto.SecretKeyFactory;
+import javax.crypto.spec.PBEKeySpec;
+import javax.crypto.spec.SecretKeySpec;
+
+import oracle.idm.mobile.logging.OMLog;
+
+/**
+ * Derivation of the key encryption key of {@link OMPinAuthenticator} from the
+ * PIN. The cost of the derivation is calibrated on the device, so that it
+ * takes about {@link #TARGET_MILLIS} whatever the hardware, and the
+ * {@link Parameters} used are stored along with the salt, so that keys
+ * derived before a change of the calibration or of the algorithm are derived
+ * again the same way. PINs set by older versions of the SDK, without stored
+ * parameters, use {@link Parameters#LEGACY}.
+ * <p>
+ * Once the PIN is verified, the derived key is kept in memory, so that the
+ * PIN entered again within {@link #CACHE_IDLE_MILLIS} is checked without
+ * deriving the key again. Only a keyed digest of the PIN is kept, to tell it
+ * apart from a different one.
+ */
+final class PinKeyDerivation {
+
+    private static final String TAG = PinKeyDerivation.class.getSimpleName();
+
+    static final String PBKDF2_HMAC_SHA1 = "PBKDF2WithHmacSHA1";
+    static final String PBKDF2_HMAC_SHA256 = "PBKDF2WithHmacSHA256";
+
+    private static final String HMAC_SHA256 = "HmacSHA256";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int KEY_LENGTH_IN_BITS = 256;
+    private static final long TARGET_MILLIS = 250;
+    private static final int CALIBRATION_ITERATIONS = 5000;
+    private static final int MIN_ITERATIONS = 10000;
+    private static final int MAX_ITERATIONS = 1000000;
+    private static final long CACHE_IDLE_MILLIS = 5 * 60 * 1000;
+
+    private static Parameters sCalibrated;
+    /* Authenticator id -> key derived from the last verified PIN.*/
+    private static final Map<String, CachedKey> sCache = new HashMap<>();
+    private static byte[] sDigestKey;
+
+    private PinKeyDerivation() {
+    }
+
+    /**
+     * Algorithm and cost of a derivation, stored as "algorithm:iterations".
+     */
+    static final class Parameters {
+        static final Parameters LEGACY = new Parameters(PBKDF2_HMAC_SHA1, 2000);
+
+        private final String mAlgorithm;
+        private final int mIterations;
+
+        Parameters(String algorithm, int iterations) {
+            mAlgorithm = algorithm;
+            mIterations = iterations;
+        }
+
+        /**
+         * Returns the parameters stored as the given string, or
+         * {@link #LEGACY} if null.
+         *
+         * @throws IllegalArgumentException if the string cannot be parsed
+         */
+        static Parameters parse(String parameters) {
+            if (parameters == null) {
+                return LEGACY;
+            }
+            int separator = parameters.lastIndexOf(':');
+            if (separator == -1) {
+                throw new IllegalArgumentException("Invalid key derivation parameters: " + parameters);
+            }
+            String algorithm = parameters.substring(0, separator);
+            if (!PBKDF2_HMAC_SHA1.equals(algorithm) && !PBKDF2_HMAC_SHA256.equals(algorithm)) {
+                throw new IllegalArgumentException("Unsupported key derivation algorithm: " + algorithm);
+            }
+            return new Parameters(algorithm, Integer.parseInt(parameters.substring(separator + 1)));
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Parameters)) {
+                return false;
+            }
+            Parameters other = (Parameters) o;
+            return mIterations == other.mIterations && mAlgorithm.equals(other.mAlgorithm);
+        }
+
+        @Override
+        public int hashCode() {
+            return 31 * mAlgorithm.hashCode() + mIterations;
+        }
+
+        @Override
+        public String toString() {
+            return mAlgorithm + ":" + mIterations;
+        }
+    }
+
+    /**
+     * Returns the parameters for a new PIN on this device, calibrated once per
+     * process.
+     */
+    static synchronized Parameters getCalibratedParameters() {
+        if (sCalibrated == null) {
+            byte[] salt = new byte[16];
+            try {
+                /* The first run warms up the implementation.*/
+                derive("calibration", salt, PBKDF2_HMAC_SHA256, CALIBRATION_ITERATIONS);
+                long start = System.nanoTime();
+                derive("calibration", salt, PBKDF2_HMAC_SHA256, CALIBRATION_ITERATIONS);
+                long elapsedMillis = Math.max(1, (System.nanoTime() - start) / 1000000);
+                long iterations = CALIBRATION_ITERATIONS * TARGET_MILLIS / elapsedMillis;
+                iterations = Math.min(MAX_ITERATIONS, Math.max(MIN_ITERATIONS, iterations));
+                sCalibrated = new Parameters(PBKDF2_HMAC_SHA256, (int) (iterations / 1000 * 1000));
+            } catch (GeneralSecurityException e) {
+                OMLog.error(TAG, "Calibration failed, using the minimum cost", e);
+                sCalibrated = new Parameters(PBKDF2_HMAC_SHA256, MIN_ITERATIONS);
+            }
+            OMLog.debug(TAG, "Calibrated key derivation: " + sCalibrated);
+        }
+        return sCalibrated;
+    }
+
+    /**
+     * Returns the key derived from the given PIN, from the cache if the PIN
+     * was verified for the given authenticator recently.
+     */
+    static Key getKey(String authenticatorId, String pin, byte[] salt, Parameters parameters)
+            throws GeneralSecurityException {
+        byte[] digest = digest(pin);
+        synchronized (sCache) {
+            CachedKey cached = sCache.get(authenticatorId);
+            if (cached != null && cached.matches(digest, salt, parameters)) {
+                cached.mLastUsed = System.currentTimeMillis();
+                return cached.mKey;
+            }
+        }
+        long start = System.currentTimeMillis();
+        Key key;
+        if (PBKDF2_HMAC_SHA1.equals(parameters.mAlgorithm)) {
+            /* As derived by older versions of the SDK.*/
+            PBEKeySpec spec = new PBEKeySpec(pin.toCharArray(), salt, parameters.mIterations,
+                    KEY_LENGTH_IN_BITS);
+            try {
+                key = SecretKeyFactory.getInstance(PBKDF2_HMAC_SHA1).generateSecret(spec);
+            } finally {
+                spec.clearPassword();
+            }
+        } else {
+            key = new SecretKeySpec(derive(pin, salt, parameters.mAlgorithm, parameters.mIterations),
+                    "AES");
+        }
+        OMLog.debug(TAG, "Key derivation (" + parameters + ") took: "
+                + (System.currentTimeMillis() - start) + " ms");
+        return key;
+    }
+
+    /**
+     * Keeps the key derived from the given PIN, once verified.
+     */
+    static void cacheKey(String authenticatorId, String pin, byte[] salt, Parameters parameters,
+                         Key key) {
+        try {
+            CachedKey cached = new CachedKey(digest(pin), salt, parameters, key);
+            synchronized (sCache) {
+                sCache.put(authenticatorId, cached);
+            }
+        } catch (GeneralSecurityException e) {
+            OMLog.error(TAG, "Could not cache the derived key", e);
+        }
+    }
+
+    static void clearCache(String authenticatorId) {
+        synchronized (sCache) {
+            sCache.remove(authenticatorId);
+        }
+    }
+
+    private static byte[] derive(String pin, byte[] salt, String algorithm, int iterations)
+            throws GeneralSecurityException {
+        try {
+            PBEKeySpec spec = new PBEKeySpec(pin.toCharArray(), salt, iterations, KEY_LENGTH_IN_BITS);
+            try {
+                return SecretKeyFactory.getInstance(algorithm).generateSecret(spec).getEncoded();
+            } finally {
+                spec.clearPassword();
+            }
+        } catch (NoSuchAlgorithmException e) {
+            /* PBKDF2WithHmacSHA256 is provided from API level 26 only.*/
+            return pbkdf2(HMAC_SHA256, pin.getBytes(UTF_8), salt, iterations, KEY_LENGTH_IN_BITS / 8);
+        }
+    }
+
+    /* PBKDF2 as per RFC 8018, section 5.2.*/
+    private static byte[] pbkdf2(String macAlgorithm, byte[] password, byte[] salt,
+                                 int iterations, int keyLength) throws GeneralSecurityException {
+        Mac mac = Mac.getInstance(macAlgorithm);
+        mac.init(new SecretKeySpec(password, macAlgorithm));
+        int macLength = mac.getMacLength();
+        byte[] derived = new byte[keyLength];
+        byte[] u = new byte[macLength];
+        byte[] t = new byte[macLength];
+        int blocks = (keyLength + macLength - 1) / macLength;
+        for (int block = 1; block <= blocks; block++) {
+            mac.update(salt);
+            mac.update(new byte[]{(byte) (block >>> 24), (byte) (block >>> 16),
+                    (byte) (block >>> 8), (byte) block});
+            mac.doFinal(u, 0);
+            System.arraycopy(u, 0, t, 0, macLength);
+            for (int i = 1; i < iterations; i++) {
+                mac.update(u);
+                mac.doFinal(u, 0);
+                for (int j = 0; j < macLength; j++) {
+                    t[j] ^= u[j];
+                }
+            }
+            int offset = (block - 1) * macLength;
+            System.arraycopy(t, 0, derived, offset, Math.min(macLength, keyLength - offset));
+        }
+        Arrays.fill(u, (byte) 0);
+        Arrays.fill(t, (byte) 0);
+        return derived;
+    }
+
+    /* Keyed with a random per process key, so that the digest of a PIN is of
+     * no use outside this process.*/
+    private static byte[] digest(String pin) throws GeneralSecurityException {
+        byte[] digestKey;
+        synchronized (PinKeyDerivation.class) {
+            if (sDigestKey == null) {
+                sDigestKey = new byte[32];
+                new SecureRandom().nextBytes(sDigestKey);
+            }
+            digestKey = sDigestKey;
+        }
+        Mac mac = Mac.getInstance(HMAC_SHA256);
+        mac.init(new SecretKeySpec(digestKey, HMAC_SHA256));
+        return mac.doFinal(pin.getBytes(UTF_8));
+    }
+
+    private static class CachedKey {
+        private final byte[] mPinDigest;
+        private final byte[] mSalt;
+        private final Parameters mParameters;
+        private final Key mKey;
+        private long mLastUsed = System.currentTimeMillis();
+
+        CachedKey(byte[] pinDigest, byte[] salt, Parameters parameters, Key key) {
+            mPinDigest = pinDigest;
+            mSalt = salt.clone();
+            mParameters = parameters;
+            mKey = key;
+        }
+
+        boolean matches(byte[] pinDigest, byte[] salt, Parameters parameters) {
+            return System.currentTimeMillis() - mLastUsed < CACHE_IDLE_MILLIS
+                    && MessageDigest.isEqual(mPinDigest, pinDigest)
+                    && Arrays.equals(mSalt, salt)
+                    && mParameters.equals(parameters);
+        }
+    }
+}
@@ -16,6 +16,7 @@ import oracle.idm.mobile.OMMobileSecurityException;
 import oracle.idm.mobile.OMMobileSecurityService;
 import oracle.idm.mobile.OMSecurityConstants;
 import oracle.idm.mobile.auth.AuthServiceInputCallback;
+import oracle.idm.mobile.auth.AuthenticationServiceManager;
 import oracle.idm.mobile.auth.OAuthConnectionsUtil;
 import oracle.idm.mobile.auth.OMAuthenticationChallenge;
 import oracle.idm.mobile.callback.OMMobileSecurityServiceCallback;
@@ -32,23 +33,27 @@ public class OAuthAuthorizationCodeLogoutHandler extends OMLogoutCompletionHandl
 
     private static final String TAG = OAuthAuthorizationCodeLogoutHandler.class.getSimpleName();
     private OMMobileSecurityServiceCallback mAppCallback;
-    private OMMobileSecurityConfiguration.BrowserMode mBrowserMode;
-    private String mState;
+    private AuthenticationServiceManager mASM;
     private AuthServiceInputCallback mAuthServiceCallback;
     private boolean isProceededOrCanceled = false;
 
-    public OAuthAuthorizationCodeLogoutHandler(OMMobileSecurityConfiguration.BrowserMode browserMode, String state,
+    /**
+     * The browser mode and OAuth state are read from the current
+     * {@link OAuthConnectionsUtil} of the given manager on each logout, so
+     * that the handler, and the service owning it, outlive the util.
+     */
+    public OAuthAuthorizationCodeLogoutHandler(AuthenticationServiceManager asm,
                                                OMMobileSecurityServiceCallback applicationCallback) {
-        OMLog.info(TAG, "initialized OAuthAuthZCodeLogoutHandler: " + browserMode);
+        OMLog.info(TAG, "initialized OAuthAuthZCodeLogoutHandler");
         mAppCallback = applicationCallback;
-        mBrowserMode = browserMode;
-        mState = state;
+        mASM = asm;
     }
 
     @Override
     public void createLogoutChallengeRequest(OMMobileSecurityService mss, OMAuthenticationChallenge challenge, AuthServiceInputCallback authServiceCallback) {
         OMLog.info(TAG, "createLogoutChallengeRequest");
         mAuthServiceCallback = authServiceCallback;
+        isProceededOrCanceled = false;
         mAppCallback.onLogoutChallenge(mss, challenge, this);
     }
 
@@ -67,7 +72,8 @@ public class OAuthAuthorizationCodeLogoutHandler extends OMLogoutCompletionHandl
 
     @Override
     void validateResponseFields(Map<String, Object> responseFields) throws OMMobileSecurityException {
-        if (mBrowserMode == OMMobileSecurityConfiguration.BrowserMode.EMBEDDED) {
+        OAuthConnectionsUtil oAuthConnectionsUtil = mASM.getOAuthConnectionsUtil();
+        if (oAuthConnectionsUtil.getBrowserMode() == OMMobileSecurityConfiguration.BrowserMode.EMBEDDED) {
             if (responseFields != null) {
                 Object view = responseFields.get(OMSecurityConstants.Challenge.WEBVIEW_KEY);
                 if (view instanceof WebView) {
@@ -90,7 +96,7 @@ public class OAuthAuthorizationCodeLogoutHandler extends OMLogoutCompletionHandl
                 String query = redirectResponseUri.getEncodedQuery();
                 if (query != null) {
                     String state = redirectResponseUri.getQueryParameter(OAuthConnectionsUtil.OAuthResponseParameters.STATE.getValue());
-                    if (state == null || !state.equals(mState)) {
+                    if (state == null || !state.equals(oAuthConnectionsUtil.getOAuthState())) {
                         OMLog.error(TAG, "Invalid state recovered from the response.");
                         throw new OMMobileSecurityException(OMErrorCode.OAUTH_STATE_INVALID);
                     }
@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates.
+ * The Universal Permissive License (UPL), Version 1.0
+ */
+
+
+package oracle.idm.mobile.auth.openID;
+
+import com.nimbusds.jose.Algorithm;
+import com.nimbusds.jose.JOSEException;
+import com.nimbusds.jose.JWSHeader;
+import com.nimbusds.jose.JWSVerifier;
+import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
+import com.nimbusds.jose.jwk.ECKey;
+import com.nimbusds.jose.jwk.JWK;
+import com.nimbusds.jose.jwk.JWKSet;
+import com.nimbusds.jose.jwk.RSAKey;
+import com.nimbusds.jose.proc.JWSVerifierFactory;
+
+import java.net.URL;
+import java.nio.charset.Charset;
+import java.security.Key;
+import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import oracle.idm.mobile.logging.OMLog;
+
+/**
+ * Cache of the signing keys published at a JWKS endpoint. Keys are converted
+ * to public keys once, when the key set is downloaded, and are looked up by
+ * key id and algorithm. The {@link JWSVerifier} of a key is created the first
+ * time it is used and kept along with it.
+ * <p>
+ * The key set is considered current for {@link #DEFAULT_TTL_MILLIS}; it
+ * should be downloaded again once expired, or when a token is signed with a
+ * key which is not known yet.
+ *
+ * @hide
+ */
+public class JWKSCache {
+
+    private static final String TAG = JWKSCache.class.getSimpleName();
+    private static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+    private static final Map<String, JWKSCache> CACHES = new ConcurrentHashMap<>();
+    private static final JWSVerifierFactory VERIFIER_FACTORY = new DefaultJWSVerifierFactory();
+
+    private volatile List<SigningKey> mKeys = Collections.emptyList();
+    private volatile Map<String, List<SigningKey>> mKeysById = Collections.emptyMap();
+    private volatile long mExpiresAt;
+
+    JWKSCache() {
+    }
+
+    /**
+     * Returns the cache of the given JWKS endpoint, shared by the whole process.
+     */
+    public static JWKSCache getInstance(URL jwksURL) {
+        String key = jwksURL.toString();
+        JWKSCache cache = CACHES.get(key);
+        if (cache == null) {
+            synchronized (CACHES) {
+                cache = CACHES.get(key);
+                if (cache == null) {
+                    cache = new JWKSCache();
+                    CACHES.put(key, cache);
+                }
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Returns true if the key set is not expired and has a key matching the
+     * key id and algorithm of the given header. Otherwise, the key set has to
+     * be downloaded again and passed to {@link #update(String)}.
+     */
+    public boolean hasKeyFor(JWSHeader jwsHeader) {
+        return System.currentTimeMillis() < mExpiresAt && !getKeys(jwsHeader).isEmpty();
+    }
+
+    /**
+     * Replaces the cached keys with the ones of the given JWKS response body,
+     * which is decoded only here.
+     *
+     * @throws ParseException if the response is not a valid JWK set
+     */
+    public void update(byte[] jwksResponse, Charset charset) throws ParseException {
+        if (jwksResponse == null) {
+            throw new ParseException("Empty JWKS response", 0);
+        }
+        update(new String(jwksResponse, charset));
+    }
+
+    /**
+     * Replaces the cached keys with the ones of the given JWKS response.
+     *
+     * @throws ParseException if the response is not a valid JWK set
+     */
+    public void update(String jwksResponse) throws ParseException {
+        JWKSet jwkSet = JWKSet.parse(jwksResponse);
+        List<SigningKey> keys = new ArrayList<>();
+        Map<String, List<SigningKey>> keysById = new HashMap<>();
+        for (JWK jwk : jwkSet.getKeys()) {
+            Key publicKey = null;
+            try {
+                if (jwk instanceof RSAKey) {
+                    publicKey = ((RSAKey) jwk).toRSAPublicKey();
+                } else if (jwk instanceof ECKey) {
+                    publicKey = ((ECKey) jwk).toECPublicKey();
+                }
+            } catch (JOSEException e) {
+                OMLog.error(TAG, e.getMessage(), e);
+            }
+            if (publicKey == null) {
+                continue;
+            }
+            SigningKey signingKey = new SigningKey(jwk.getAlgorithm(), publicKey);
+            keys.add(signingKey);
+            if (jwk.getKeyID() != null) {
+                List<SigningKey> sameId = keysById.get(jwk.getKeyID());
+                if (sameId == null) {
+                    sameId = new ArrayList<>(1);
+                    keysById.put(jwk.getKeyID(), sameId);
+                }
+                sameId.add(signingKey);
+            }
+        }
+        OMLog.trace(TAG, "Cached " + keys.size() + " signing keys");
+        mKeys = keys;
+        mKeysById = keysById;
+        mExpiresAt = System.currentTimeMillis() + DEFAULT_TTL_MILLIS;
+    }
+
+    /**
+     * Drops the cached keys, so that the key set is downloaded again.
+     */
+    public void invalidate() {
+        mExpiresAt = 0;
+        mKeys = Collections.emptyList();
+        mKeysById = Collections.emptyMap();
+    }
+
+    /**
+     * Returns the verifiers of the keys matching the key id and algorithm of
+     * the given header. If the header has no key id, keys with any id match.
+     */
+    List<JWSVerifier> getVerifiers(JWSHeader jwsHeader) {
+        List<SigningKey> keys = getKeys(jwsHeader);
+        OMLog.trace(TAG, "Found " + keys.size() + " matching JWKs");
+        List<JWSVerifier> verifiers = new ArrayList<>(keys.size());
+        for (SigningKey key : keys) {
+            try {
+                verifiers.add(key.getVerifier(jwsHeader));
+            } catch (JOSEException e) {
+                OMLog.error(TAG, e.getMessage(), e);
+            }
+        }
+        return verifiers;
+    }
+
+    private List<SigningKey> getKeys(JWSHeader jwsHeader) {
+        List<SigningKey> candidates = jwsHeader.getKeyID() != null
+                ? mKeysById.get(jwsHeader.getKeyID()) : mKeys;
+        if (candidates == null) {
+            return Collections.emptyList();
+        }
+        List<SigningKey> keys = new ArrayList<>(candidates.size());
+        for (SigningKey key : candidates) {
+            if (jwsHeader.getAlgorithm().equals(key.mAlgorithm)) {
+                keys.add(key);
+            }
+        }
+        return keys;
+    }
+
+    private static class SigningKey {
+        private final Algorithm mAlgorithm;
+        private final Key mPublicKey;
+        private volatile JWSVerifier mVerifier;
+
+        SigningKey(Algorithm algorithm, Key publicKey) {
+            mAlgorithm = algorithm;
+            mPublicKey = publicKey;
+        }
+
+        /* Keys only match headers of their own algorithm, hence a single
+         * verifier per key is enough.*/
+        JWSVerifier getVerifier(JWSHeader jwsHeader) throws JOSEException {
+            JWSVerifier verifier = mVerifier;
+            if (verifier == null) {
+                verifier = VERIFIER_FACTORY.createJWSVerifier(jwsHeader, mPublicKey);
+                mVerifier = verifier;
+            }
+            return verifier;
+        }
+    }
+}
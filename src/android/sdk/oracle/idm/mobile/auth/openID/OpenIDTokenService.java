@@ -9,16 +9,7 @@ package oracle.idm.mobile.auth.openID;
 import android.util.Log;
 
 import com.nimbusds.jose.JOSEException;
-import com.nimbusds.jose.JWSHeader;
 import com.nimbusds.jose.JWSVerifier;
-import com.nimbusds.jose.crypto.factories.DefaultJWSVerifierFactory;
-import com.nimbusds.jose.jwk.ECKey;
-import com.nimbusds.jose.jwk.JWK;
-import com.nimbusds.jose.jwk.JWKMatcher;
-import com.nimbusds.jose.jwk.JWKSelector;
-import com.nimbusds.jose.jwk.JWKSet;
-import com.nimbusds.jose.jwk.RSAKey;
-import com.nimbusds.jose.proc.JWSVerifierFactory;
 import com.nimbusds.jwt.SignedJWT;
 
 import java.security.Key;
@@ -147,42 +138,35 @@ public class OpenIDTokenService {
      * @return
      */
     public boolean verifySignature(OpenIDToken idToken, String jwksResponse) {
-        boolean verificationStatus = false;
+        JWKSCache jwksCache = new JWKSCache();
         try {
-            JWKSet jwkSet = JWKSet.parse(jwksResponse);
-            JWSHeader jwsHeader = idToken.getSignedJWT().getHeader();
-            if (jwkSet != null) {
-                List<JWK> matchingJWKs = new JWKSelector(new JWKMatcher.Builder()
-                        .keyID(jwsHeader.getKeyID())
-                        .algorithm(jwsHeader.getAlgorithm())
-                        .build())
-                        .select(jwkSet);
-                OMLog.trace(TAG, "Found " + matchingJWKs.size() + " matching JWKs");
-
-                JWSVerifierFactory jwsVerifierFactory = new DefaultJWSVerifierFactory();
-                for (JWK jwk : matchingJWKs) {
-                    try {
-                        Key key = null;
-                        if (jwk instanceof RSAKey) {
-                            key = ((RSAKey) jwk).toRSAPublicKey();
-                        } else if (jwk instanceof ECKey) {
-                            key = ((ECKey) jwk).toECPublicKey();
-                        }
-                        if (key != null) {
-                            JWSVerifier jwsVerifier = jwsVerifierFactory.createJWSVerifier(jwsHeader, key);
-                            verificationStatus = idToken.getSignedJWT().verify(jwsVerifier);
-                            if (verificationStatus) {
-                                idToken.setVerified(true);
-                                break;
-                            }
-                        }
-                    } catch (JOSEException e) {
-                        OMLog.error(TAG, e.getMessage(), e);
-                    }
-                }
-            }
+            jwksCache.update(jwksResponse);
         } catch (ParseException e) {
             Log.e(TAG, e.getMessage(), e);
+            return false;
+        }
+        return verifySignature(idToken, jwksCache);
+    }
+
+    /**
+     * Verifies the signature in idToken with the matching public key of jwksCache
+     *
+     * @param idToken
+     * @param jwksCache
+     * @return
+     */
+    public boolean verifySignature(OpenIDToken idToken, JWKSCache jwksCache) {
+        boolean verificationStatus = false;
+        for (JWSVerifier jwsVerifier : jwksCache.getVerifiers(idToken.getSignedJWT().getHeader())) {
+            try {
+                verificationStatus = idToken.getSignedJWT().verify(jwsVerifier);
+                if (verificationStatus) {
+                    idToken.setVerified(true);
+                    break;
+                }
+            } catch (JOSEException e) {
+                OMLog.error(TAG, e.getMessage(), e);
+            }
         }
         return verificationStatus;
     }
@@ -0,0 +1,28 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates.
+ * The Universal Permissive License (UPL), Version 1.0
+ */
+
+
+package oracle.idm.mobile.callback;
+
+import oracle.idm.mobile.auth.OMAuthenticationContext;
+
+/**
+ * {@link OMTokenRefreshCallback} is an interface which can be implemented by
+ * any calling client application to be notified when the OAuth access tokens
+ * of the {@link OMAuthenticationContext} are refreshed, be it when checking
+ * the validity of the context or ahead of their expiry, e.g. to drop anything
+ * derived from the previous tokens.
+ */
+public interface OMTokenRefreshCallback
+{
+    /**
+     * This method will be called by the SDK after tokens are refreshed, on the
+     * thread which refreshed them.
+     *
+     * @param authContext
+     *            The {@link OMAuthenticationContext} holding the refreshed tokens.
+     **/
+    public void onTokenRefreshed(OMAuthenticationContext authContext);
+}
@@ -55,6 +55,7 @@ import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_CUSTOM_HEADERS_F
 import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_DEFAULT_PROTOCOL_FOR_CLIENT_SOCKET;
 import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_ENABLED_CIPHER_SUITES;
 import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_HOSTNAME_VERIFICATION;
+import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_HTTP_TRANSPORT;
 import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_IDENTITY_DOMAIN_NAME_IN_HEADER;
 import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_IDLE_TIMEOUT_VALUE;
 import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_LOCAL_AUTHENTICATOR_INSTANCE_ID;
@@ -68,6 +69,9 @@ import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_OAUTH_AUTHORIZAT
 import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_OAUTH_ENABLE_PKCE;
 import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_OAUTH_INCLUDE_CLIENT_AUTH_HEADER;
 import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_OAUTH_SCOPE;
+import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_INCREMENTAL_AUTH_CONTEXT_PERSISTENCE;
+import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_AUTH_SERVICE_RETENTION;
+import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_WARM_UP_AUTH_SERVICES;
 import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_OFFLINE_AUTH_ALLOWED;
 import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_PARSE_TOKEN_RELAY_RESPONSE;
 import static oracle.idm.mobile.OMMobileSecurityService.OM_PROP_PRESENT_CLIENT_IDENTITY_ON_DEMAND;
@@ -109,6 +113,7 @@ public abstract class OMMobileSecurityConfiguration {
     private static final String DEFAULT_HEADER_FOR_IDENTITY_DOMAIN = "X-USER-IDENTITY-DOMAIN-NAME";
     private static final int DEFAULT_ADVANCE_TIMEOUT_NOTIFICATION = 10; // In percentage
     public static final HostnameVerification DEFAULT_HOSTNAME_VERIFICATION = HostnameVerification.ALLOW_ALL;
+    public static final HttpTransport DEFAULT_HTTP_TRANSPORT = HttpTransport.URL_CONNECTION;
 
     protected static final String CLAIM_ATTRIBUTES_MSOAUTH = "claimAttributes";
     protected static final String MOBILE_APP_CONFIG = "mobileAppConfig";
@@ -148,6 +153,49 @@ public abstract class OMMobileSecurityConfiguration {
         }
     }
 
+    /**
+     * Refer {@link OMMobileSecurityService#OM_PROP_AUTH_SERVICE_RETENTION}
+     */
+    public enum AuthServiceRetention {
+        /**
+         * Services are not kept once used; the ones created by the warm up
+         * are kept until first used.
+         */
+        NONE("None"),
+        /**
+         * Services are kept as long as the {@link OMMobileSecurityService}.
+         */
+        ALWAYS("Always"),
+        /**
+         * The most recently used services are kept.
+         */
+        LRU("LRU"),
+        /**
+         * Services are kept until the system asks the application to trim
+         * its memory.
+         */
+        UNTIL_MEMORY_PRESSURE("UntilMemoryPressure");
+
+        private String value;
+
+        AuthServiceRetention(String value) {
+            this.value = value;
+        }
+
+        public String getValue() {
+            return this.value;
+        }
+
+        public static AuthServiceRetention valueOfAuthServiceRetention(String retention) {
+            for (AuthServiceRetention retentionEnum : values()) {
+                if (retentionEnum.value.equalsIgnoreCase(retention)) {
+                    return retentionEnum;
+                }
+            }
+            return null;
+        }
+    }
+
     /**
      * Provides available options to do Hostname verification while establishing
      * HTTPS connection with the server.
@@ -180,6 +228,33 @@ public abstract class OMMobileSecurityConfiguration {
         }
     }
 
+    /**
+     * Refer {@link OMMobileSecurityService#OM_PROP_HTTP_TRANSPORT}
+     */
+    public enum HttpTransport {
+        /**
+         * A new {@link java.net.HttpURLConnection} is opened for every request
+         * and disconnected once the response is read.
+         */
+        URL_CONNECTION,
+        /**
+         * Requests are executed through an OkHttp client backed by a connection
+         * pool shared across the process. Connections are kept alive, TLS
+         * sessions are resumed and HTTP/2 is negotiated when the server
+         * supports it.
+         */
+        POOLED;
+
+        public static HttpTransport valueOfHttpTransport(String httpTransport) {
+            for (HttpTransport httpTransportEnum : values()) {
+                if (httpTransportEnum.name().equalsIgnoreCase(httpTransport)) {
+                    return httpTransportEnum;
+                }
+            }
+            return null;
+        }
+    }
+
     protected OMAuthenticationScheme authenticationScheme;
 
     protected String applicationId;
@@ -220,6 +295,9 @@ public abstract class OMMobileSecurityConfiguration {
     // RC
 
     private boolean authContextPersistenceAllowed = false;
+    private boolean incrementalAuthContextPersistence = false;
+    private AuthServiceRetention authServiceRetention = AuthServiceRetention.NONE;
+    private boolean warmUpAuthServices = false;
 
     private String[] mDefaultProtcols;
     protected String[] mEnabledCipherSuites;
@@ -251,6 +329,7 @@ public abstract class OMMobileSecurityConfiguration {
     private Set<String> confirmLogoutButtonId;
     private boolean removeAllSessionCookies;
     private HostnameVerification hostnameVerification = DEFAULT_HOSTNAME_VERIFICATION;
+    private HttpTransport httpTransport = DEFAULT_HTTP_TRANSPORT;
 
     public static OMMobileSecurityConfiguration createMobileSecurityConfiguration(Map<String, Object> configProperties) throws OMMobileSecurityException {
         Object serverTypeObj = configProperties.get(OM_PROP_AUTHSERVER_TYPE);
@@ -495,6 +574,10 @@ public abstract class OMMobileSecurityConfiguration {
                                 || nameValue[0]
                                 .equalsIgnoreCase(OM_PROP_SESSION_ACTIVE_ON_RESTART)
                                 || nameValue[0]
+                                .equalsIgnoreCase(OM_PROP_INCREMENTAL_AUTH_CONTEXT_PERSISTENCE)
+                                || nameValue[0]
+                                .equalsIgnoreCase(OM_PROP_WARM_UP_AUTH_SERVICES)
+                                || nameValue[0]
                                 .equalsIgnoreCase(OM_PROP_IDENTITY_DOMAIN_NAME_IN_HEADER)
                                 || nameValue[0]
                                 .equalsIgnoreCase(OM_PROP_OAUTH_INCLUDE_CLIENT_AUTH_HEADER)
@@ -532,6 +615,13 @@ public abstract class OMMobileSecurityConfiguration {
                             configPropertiesMap.put(OM_PROP_CRYPTO_SCHEME,
                                     CryptoScheme.getCryptoScheme(nameValue[1]));
                         }
+                        else if (nameValue[0]
+                                .equalsIgnoreCase(OM_PROP_AUTH_SERVICE_RETENTION))
+                        {
+                            configPropertiesMap.put(OM_PROP_AUTH_SERVICE_RETENTION,
+                                    AuthServiceRetention
+                                            .valueOfAuthServiceRetention(nameValue[1]));
+                        }
                         else if (nameValue[0]
                                 .equalsIgnoreCase(OM_PROP_IDLE_TIMEOUT_VALUE)
                                 || nameValue[0]
@@ -830,6 +920,8 @@ public abstract class OMMobileSecurityConfiguration {
                     || key.equals(OM_REMEMBER_USERNAME_DEFAULT)
                     || key.equals(OM_PROP_LOCATION_UPDATE_ENABLED)
                     || key.equals(OM_PROP_SESSION_ACTIVE_ON_RESTART)
+                    || key.equals(OM_PROP_INCREMENTAL_AUTH_CONTEXT_PERSISTENCE)
+                    || key.equals(OM_PROP_WARM_UP_AUTH_SERVICES)
                     || key.equals(OM_PROP_IDENTITY_DOMAIN_NAME_IN_HEADER)
                     || key.equals(OM_PROP_OAUTH_INCLUDE_CLIENT_AUTH_HEADER)
                     || key.equals(OM_PROP_SEND_IDENTITY_DOMAIN_HEADER_TO_MOBILE_AGENT)
@@ -854,6 +946,11 @@ public abstract class OMMobileSecurityConfiguration {
                 configPropertiesMap.put(key, CryptoScheme
                         .getCryptoScheme(configPropertiesJSON.optString(key)));
             }
+            else if (key.equals(OM_PROP_AUTH_SERVICE_RETENTION))
+            {
+                configPropertiesMap.put(key, AuthServiceRetention
+                        .valueOfAuthServiceRetention(configPropertiesJSON.optString(key)));
+            }
             else if (key.equals(OM_PROP_IDLE_TIMEOUT_VALUE)
                     || key.equals(OM_PROP_MAX_LOGIN_ATTEMPTS)
                     || key.equals(OM_PROP_SESSION_TIMEOUT_VALUE)
@@ -1001,6 +1098,26 @@ public abstract class OMMobileSecurityConfiguration {
         if (sessionActiveOnRestartObject instanceof Boolean) {
             this.authContextPersistenceAllowed = (Boolean) sessionActiveOnRestartObject;
         }
+        Object incrementalPersistenceObject = configProperties
+                .get(OM_PROP_INCREMENTAL_AUTH_CONTEXT_PERSISTENCE);
+        if (incrementalPersistenceObject instanceof Boolean) {
+            this.incrementalAuthContextPersistence = (Boolean) incrementalPersistenceObject;
+        }
+
+        Object retentionObj = configProperties.get(OM_PROP_AUTH_SERVICE_RETENTION);
+        if (retentionObj instanceof AuthServiceRetention) {
+            this.authServiceRetention = (AuthServiceRetention) retentionObj;
+        } else if (retentionObj instanceof String) {
+            AuthServiceRetention retention = AuthServiceRetention
+                    .valueOfAuthServiceRetention((String) retentionObj);
+            if (retention != null) {
+                this.authServiceRetention = retention;
+            }
+        }
+        Object warmUpObj = configProperties.get(OM_PROP_WARM_UP_AUTH_SERVICES);
+        if (warmUpObj instanceof Boolean) {
+            this.warmUpAuthServices = (Boolean) warmUpObj;
+        }
 
         Object logoutTimeoutObj = configProperties
                 .get(OMMobileSecurityService.OM_PROP_LOGOUT_TIMEOUT_VALUE);
@@ -1122,6 +1239,16 @@ public abstract class OMMobileSecurityConfiguration {
         {
             this.hostnameVerification = (HostnameVerification) hostNameVerificationObj;
         }
+
+        Object httpTransportObj = configProperties.get(OM_PROP_HTTP_TRANSPORT);
+        if (httpTransportObj instanceof HttpTransport) {
+            this.httpTransport = (HttpTransport) httpTransportObj;
+        } else if (httpTransportObj instanceof String) {
+            HttpTransport transport = HttpTransport.valueOfHttpTransport((String) httpTransportObj);
+            if (transport != null) {
+                this.httpTransport = transport;
+            }
+        }
 }
 
     /**
@@ -1723,6 +1850,39 @@ public abstract class OMMobileSecurityConfiguration {
         return authContextPersistenceAllowed;
     }
 
+    /**
+     * Internal API that returns whether the auth context is persisted as
+     * separate records, which are written only when changed.
+     *
+     * @return
+     * @hide
+     */
+    public boolean isIncrementalAuthContextPersistence() {
+        return incrementalAuthContextPersistence;
+    }
+
+    /**
+     * Internal API that returns how long the authentication service
+     * instances are kept.
+     *
+     * @return
+     * @hide
+     */
+    public AuthServiceRetention getAuthServiceRetention() {
+        return authServiceRetention;
+    }
+
+    /**
+     * Internal API that returns whether the authentication services are
+     * created once setup completes.
+     *
+     * @return
+     * @hide
+     */
+    public boolean isWarmUpAuthServices() {
+        return warmUpAuthServices;
+    }
+
     /*
      * Internal API to set whether the client certificate authentication feature
      * is enabled or disabled by the app.
@@ -1921,6 +2081,10 @@ public abstract class OMMobileSecurityConfiguration {
         return hostnameVerification;
     }
 
+    public HttpTransport getHttpTransport() {
+        return httpTransport;
+    }
+
     public Set<String> getConfirmLogoutButtonId() {
         if (confirmLogoutButtonId == null) {
             confirmLogoutButtonId = new HashSet<>();
@@ -34,6 +34,7 @@ public class OMOAuthMobileSecurityConfiguration extends
         OMMobileSecurityConfiguration {
     private static final String TAG = OMOAuthMobileSecurityConfiguration.class
             .getName();
+    public static final int DEFAULT_TOKEN_REFRESH_SKEW = 60;//in seconds
     protected URL mOAuthTokenEndpoint;
     protected URL mOAuthAuthorizationEndpoint;
     protected String mOAuthClientID;
@@ -46,6 +47,7 @@ public class OMOAuthMobileSecurityConfiguration extends
     protected boolean mIncludeClientAuthHeader;
     protected OAuthMSToken mClientAssertionToken;
     protected boolean mEnablePKCE;
+    protected int mTokenRefreshSkew = DEFAULT_TOKEN_REFRESH_SKEW;
     private boolean isClientRegistrationRequired;
     private String mLoginHint = "defaultUser";
     protected String mClientRegistrationEndpoint;
@@ -219,6 +221,10 @@ public class OMOAuthMobileSecurityConfiguration extends
                 }
                 OMLog.debug(TAG, "Grant type = Authorization_code. PKCE Enabled = " + mEnablePKCE);
             }
+            Object refreshSkewObj = configProperties.get(OMMobileSecurityService.OM_PROP_OAUTH_TOKEN_REFRESH_SKEW);
+            if (refreshSkewObj instanceof Integer && (Integer) refreshSkewObj >= 0) {
+                mTokenRefreshSkew = (Integer) refreshSkewObj;
+            }
             if (!additionalInitRequired) {
                 OMLog.info(TAG, "Additional Initialization not required");
                 initOAuthConfig(configProperties);
@@ -339,6 +345,14 @@ public class OMOAuthMobileSecurityConfiguration extends
         return mOAuthClientSecret;
     }
 
+    /**
+     * Returns the number of seconds before the expiry of an access token,
+     * from which it is refreshed in the background.
+     */
+    public int getTokenRefreshSkew() {
+        return mTokenRefreshSkew;
+    }
+
     public boolean includeClientAuthHeader() {
         return mIncludeClientAuthHeader;
     }
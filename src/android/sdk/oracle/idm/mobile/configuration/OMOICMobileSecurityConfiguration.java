@@ -13,10 +13,12 @@ import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URISyntaxException;
 import java.net.URL;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
 import java.util.Set;
@@ -24,7 +26,9 @@ import java.util.Set;
 import oracle.idm.mobile.OMErrorCode;
 import oracle.idm.mobile.OMMobileSecurityException;
 import oracle.idm.mobile.OMMobileSecurityService;
+import oracle.idm.mobile.callback.OMHTTPRequestCallback;
 import oracle.idm.mobile.connection.OMConnectionHandler;
+import oracle.idm.mobile.connection.OMHTTPRequest;
 import oracle.idm.mobile.connection.OMHTTPResponse;
 import oracle.idm.mobile.logging.OMLog;
 
@@ -221,12 +225,20 @@ public class OMOICMobileSecurityConfiguration extends OMOAuthMobileSecurityConfi
         try {
             if (mConfigURL != null) {
                 String discoveryURL = mConfigURL.toString();
-                OMLog.debug(TAG, "Downloading openID well known configuration from URL: " + discoveryURL);
-                OMHTTPResponse response = handler.httpGet(new URL(discoveryURL), null);
-                if (response != null && response.isSuccess()) {
-                    populateDetails(new JSONObject(response.getResponseStringOnSuccess()));
-                } else {
-                    throw new OMMobileSecurityException(OMErrorCode.OPENID_FETCH_CONFIGURATION_FAILED);
+                OpenIDDiscoveryCache cache = context != null ? new OpenIDDiscoveryCache(context) : null;
+                if (!populateFromCache(cache, discoveryURL, handler)) {
+                    OMLog.debug(TAG, "Downloading openID well known configuration from URL: " + discoveryURL);
+                    OMHTTPResponse response = handler.httpGet(new URL(discoveryURL), null,
+                            OMHTTPRequest.REQUIRE_RESPONSE_BYTES);
+                    if (response != null && response.isSuccess()) {
+                        String document = getDocument(response);
+                        populateDetails(new JSONObject(document));
+                        if (cache != null) {
+                            cache.put(discoveryURL, document, response);
+                        }
+                    } else {
+                        throw new OMMobileSecurityException(OMErrorCode.OPENID_FETCH_CONFIGURATION_FAILED);
+                    }
                 }
                 try {
                     this.logoutSuccessUrl = new URL(getOAuthRedirectEndpoint());
@@ -245,6 +257,76 @@ public class OMOICMobileSecurityConfiguration extends OMOAuthMobileSecurityConfi
         }
     }
 
+    /**
+     * Populates the configuration from the cached discovery document, if any.
+     * A stale document is used as well, and revalidated in the background so
+     * that the next setup picks up the latest one.
+     *
+     * @return true if the configuration was populated from the cache
+     */
+    private boolean populateFromCache(OpenIDDiscoveryCache cache, String discoveryURL,
+                                      OMConnectionHandler handler) {
+        if (cache == null) {
+            return false;
+        }
+        OpenIDDiscoveryCache.Entry entry = cache.get(discoveryURL);
+        if (entry == null) {
+            return false;
+        }
+        try {
+            populateDetails(new JSONObject(entry.getDocument()));
+        } catch (JSONException | MalformedURLException | OMMobileSecurityException e) {
+            OMLog.error(TAG, "Cached openID configuration is invalid, downloading it again", e);
+            cache.remove(discoveryURL);
+            return false;
+        }
+        OMLog.debug(TAG, "Using cached openID well known configuration for URL: " + discoveryURL);
+        if (entry.isStale()) {
+            revalidate(cache, discoveryURL, entry, handler);
+        }
+        return true;
+    }
+
+    private void revalidate(final OpenIDDiscoveryCache cache, final String discoveryURL,
+                            final OpenIDDiscoveryCache.Entry entry, OMConnectionHandler handler) {
+        OMLog.debug(TAG, "Revalidating cached openID well known configuration");
+        Map<String, String> headers = new HashMap<>();
+        entry.addValidators(headers);
+        handler.executeRequestAsync(new OMHTTPRequest(mConfigURL, OMHTTPRequest.Method.GET), headers,
+                OMHTTPRequest.REQUIRE_RESPONSE_BYTES, new OMHTTPRequestCallback() {
+                    @Override
+                    public void processHTTPResponse(OMHTTPRequest request, OMHTTPResponse response,
+                                                    OMMobileSecurityException exception) {
+                        if (exception != null || response == null) {
+                            OMLog.debug(TAG, "Could not revalidate openID configuration, keeping the cached one");
+                        } else if (response.getResponseCode() == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                            cache.revalidated(discoveryURL, entry, response);
+                        } else if (response.isSuccess()) {
+                            try {
+                                String document = getDocument(response);
+                                new JSONObject(document);
+                                cache.put(discoveryURL, document, response);
+                            } catch (JSONException e) {
+                                OMLog.error(TAG, "Downloaded openID configuration is invalid", e);
+                            }
+                        } else {
+                            OMLog.debug(TAG, "Revalidation of openID configuration failed with response code: "
+                                    + response.getResponseCode());
+                        }
+                    }
+                });
+    }
+
+    /* The document is downloaded as bytes, so that it is decoded only once,
+     * here, for both the parser and the cache.*/
+    private static String getDocument(OMHTTPResponse response) throws JSONException {
+        byte[] body = response.getResponseBody();
+        if (body == null) {
+            throw new JSONException("Empty openID configuration");
+        }
+        return new String(body, response.getResponseCharset());
+    }
+
     public URL getConfigURL() {
         return mConfigURL;
     }
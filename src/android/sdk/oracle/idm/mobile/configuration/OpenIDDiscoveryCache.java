@@ -0,0 +1,203 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates.
+ * The Universal Permissive License (UPL), Version 1.0
+ */
+
+
+package oracle.idm.mobile.configuration;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.text.TextUtils;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import oracle.idm.mobile.connection.OMHTTPResponse;
+import oracle.idm.mobile.logging.OMLog;
+
+/**
+ * Persistent cache of OpenID discovery documents, keyed by the discovery URL.
+ * <p>
+ * An entry is fresh for the max-age advertised by the server in Cache-Control,
+ * or {@link #DEFAULT_TTL_MILLIS} otherwise. A stale entry is still served, and
+ * is meant to be revalidated in the background using the ETag and
+ * Last-Modified validators stored along with it. Entries older than
+ * {@link #MAX_STALE_MILLIS} are not served at all.
+ *
+ * @hide
+ */
+class OpenIDDiscoveryCache {
+
+    private static final String TAG = OpenIDDiscoveryCache.class.getSimpleName();
+    private static final long DEFAULT_TTL_MILLIS = TimeUnit.HOURS.toMillis(24);
+    private static final long MAX_STALE_MILLIS = TimeUnit.DAYS.toMillis(7);
+    private static final String HEADER_ETAG = "ETag";
+    private static final String HEADER_LAST_MODIFIED = "Last-Modified";
+    private static final String HEADER_CACHE_CONTROL = "Cache-Control";
+    private static final String HEADER_IF_NONE_MATCH = "If-None-Match";
+    private static final String HEADER_IF_MODIFIED_SINCE = "If-Modified-Since";
+    private static final String MAX_AGE = "max-age=";
+    private static final String NO_STORE = "no-store";
+
+    private static final String KEY_DOCUMENT = "document";
+    private static final String KEY_ETAG = "etag";
+    private static final String KEY_LAST_MODIFIED = "lastModified";
+    private static final String KEY_FETCHED_AT = "fetchedAt";
+    private static final String KEY_TTL = "ttl";
+
+    private final SharedPreferences mPreferences;
+
+    OpenIDDiscoveryCache(Context context) {
+        mPreferences = context.getSharedPreferences(OpenIDDiscoveryCache.class.getName(),
+                Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Returns the cached entry for the given discovery URL, or null if there
+     * is none or it is too old to be served.
+     */
+    Entry get(String discoveryURL) {
+        String stored = mPreferences.getString(discoveryURL, null);
+        if (stored == null) {
+            return null;
+        }
+        try {
+            JSONObject json = new JSONObject(stored);
+            Entry entry = new Entry(json.getString(KEY_DOCUMENT), json.optString(KEY_ETAG, null),
+                    json.optString(KEY_LAST_MODIFIED, null), json.getLong(KEY_FETCHED_AT),
+                    json.optLong(KEY_TTL, DEFAULT_TTL_MILLIS));
+            if (System.currentTimeMillis() - entry.mFetchedAt > MAX_STALE_MILLIS) {
+                OMLog.debug(TAG, "Discarding discovery document cached too long ago");
+                remove(discoveryURL);
+                return null;
+            }
+            return entry;
+        } catch (JSONException e) {
+            OMLog.error(TAG, "Discarding unreadable cache entry", e);
+            remove(discoveryURL);
+            return null;
+        }
+    }
+
+    /**
+     * Stores the document of a successful response along with its validators.
+     * Nothing is stored if the server forbids it.
+     */
+    void put(String discoveryURL, String document, OMHTTPResponse response) {
+        String cacheControl = getHeader(response, HEADER_CACHE_CONTROL);
+        if (cacheControl != null && cacheControl.toLowerCase(Locale.US).contains(NO_STORE)) {
+            remove(discoveryURL);
+            return;
+        }
+        store(discoveryURL, new Entry(document,
+                getHeader(response, HEADER_ETAG), getHeader(response, HEADER_LAST_MODIFIED),
+                System.currentTimeMillis(), parseMaxAge(cacheControl)));
+    }
+
+    /**
+     * Marks the given entry fresh again, after the server answered a
+     * conditional request with 304 Not Modified.
+     */
+    void revalidated(String discoveryURL, Entry entry, OMHTTPResponse response) {
+        String etag = getHeader(response, HEADER_ETAG);
+        String lastModified = getHeader(response, HEADER_LAST_MODIFIED);
+        String cacheControl = getHeader(response, HEADER_CACHE_CONTROL);
+        store(discoveryURL, new Entry(entry.mDocument,
+                etag != null ? etag : entry.mETag,
+                lastModified != null ? lastModified : entry.mLastModified,
+                System.currentTimeMillis(),
+                cacheControl != null ? parseMaxAge(cacheControl) : entry.mTTL));
+    }
+
+    void remove(String discoveryURL) {
+        mPreferences.edit().remove(discoveryURL).apply();
+    }
+
+    private void store(String discoveryURL, Entry entry) {
+        try {
+            JSONObject json = new JSONObject();
+            json.put(KEY_DOCUMENT, entry.mDocument);
+            json.putOpt(KEY_ETAG, entry.mETag);
+            json.putOpt(KEY_LAST_MODIFIED, entry.mLastModified);
+            json.put(KEY_FETCHED_AT, entry.mFetchedAt);
+            json.put(KEY_TTL, entry.mTTL);
+            mPreferences.edit().putString(discoveryURL, json.toString()).apply();
+        } catch (JSONException e) {
+            OMLog.error(TAG, "Could not cache discovery document", e);
+        }
+    }
+
+    private static long parseMaxAge(String cacheControl) {
+        if (cacheControl != null) {
+            for (String directive : cacheControl.split(",")) {
+                directive = directive.trim().toLowerCase(Locale.US);
+                if (directive.startsWith(MAX_AGE)) {
+                    try {
+                        return TimeUnit.SECONDS.toMillis(
+                                Long.parseLong(directive.substring(MAX_AGE.length())));
+                    } catch (NumberFormatException e) {
+                        OMLog.debug(TAG, "Ignoring invalid max-age: " + directive);
+                    }
+                }
+            }
+        }
+        return DEFAULT_TTL_MILLIS;
+    }
+
+    /* Header names are matched ignoring case, as OkHttp lower cases them.*/
+    private static String getHeader(OMHTTPResponse response, String name) {
+        Map<String, List<String>> headers = response.getResponseHeaders();
+        if (headers != null) {
+            for (Map.Entry<String, List<String>> header : headers.entrySet()) {
+                if (name.equalsIgnoreCase(header.getKey()) && header.getValue() != null
+                        && !header.getValue().isEmpty()) {
+                    return header.getValue().get(0);
+                }
+            }
+        }
+        return null;
+    }
+
+    static class Entry {
+        private final String mDocument;
+        private final String mETag;
+        private final String mLastModified;
+        private final long mFetchedAt;
+        private final long mTTL;
+
+        private Entry(String document, String etag, String lastModified, long fetchedAt, long ttl) {
+            mDocument = document;
+            mETag = etag;
+            mLastModified = lastModified;
+            mFetchedAt = fetchedAt;
+            mTTL = ttl;
+        }
+
+        String getDocument() {
+            return mDocument;
+        }
+
+        boolean isStale() {
+            return System.currentTimeMillis() - mFetchedAt > mTTL;
+        }
+
+        /**
+         * Adds the headers which turn a request for this document into a
+         * conditional request.
+         */
+        void addValidators(Map<String, String> headers) {
+            if (!TextUtils.isEmpty(mETag)) {
+                headers.put(HEADER_IF_NONE_MATCH, mETag);
+            }
+            if (!TextUtils.isEmpty(mLastModified)) {
+                headers.put(HEADER_IF_MODIFIED_SINCE, mLastModified);
+            }
+        }
+    }
+}
@@ -53,7 +53,8 @@ class OAuthAuthorizationService {
 
     protected OMHTTPResponse handleAuthorization(OAuthHttpRequest httpRequest,
                                                  OMAuthenticationContext authContext, OMHTTPRequestCallback callback) {
-        new ExecuteRequestTask(httpRequest, authContext, callback, this).execute();
+        new ExecuteRequestTask(httpRequest, authContext, callback, this).executeOnExecutor(
+                OMHTTPRequestExecutor.getExecutor(OMHTTPRequestExecutor.Priority.INTERACTIVE, "Authorization"));
         return null;
     }
 
@@ -10,16 +10,17 @@ import android.content.Context;
 import android.net.ConnectivityManager;
 import android.net.NetworkInfo;
 import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Log;
 
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.net.Authenticator;
 import java.net.CookieHandler;
@@ -30,6 +31,7 @@ import java.net.ProtocolException;
 import java.net.Socket;
 import java.net.SocketException;
 import java.net.URL;
+import java.nio.charset.Charset;
 import java.security.GeneralSecurityException;
 import java.security.Principal;
 import java.security.cert.CertificateException;
@@ -38,6 +40,12 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
 
 import javax.net.ssl.HostnameVerifier;
 import javax.net.ssl.HttpsURLConnection;
@@ -45,24 +53,31 @@ import javax.net.ssl.SSLException;
 import javax.net.ssl.SSLHandshakeException;
 import javax.net.ssl.SSLSession;
 
+import okhttp3.Call;
+import okhttp3.ConnectionPool;
 import okhttp3.MediaType;
 import okhttp3.OkHttpClient;
+import okhttp3.Protocol;
 import okhttp3.Request;
 import okhttp3.RequestBody;
 import okhttp3.Response;
+import okhttp3.ResponseBody;
 import oracle.idm.mobile.OMErrorCode;
 import oracle.idm.mobile.OMMobileSecurityException;
 import oracle.idm.mobile.OMMobileSecurityService;
 import oracle.idm.mobile.OMSecurityConstants;
+import oracle.idm.mobile.callback.OMHTTPRequestCallback;
 import oracle.idm.mobile.certificate.ClientCertificatePreference;
 import oracle.idm.mobile.certificate.OMCertificateService;
 import oracle.idm.mobile.configuration.OMMobileSecurityConfiguration;
 import oracle.idm.mobile.configuration.OMMobileSecurityConfiguration.HostnameVerification;
+import oracle.idm.mobile.configuration.OMMobileSecurityConfiguration.HttpTransport;
 import oracle.idm.mobile.logging.OMLog;
 import oracle.idm.mobile.util.ArrayUtils;
 import oracle.idm.mobile.util.LogUtils;
 
 import static oracle.idm.mobile.configuration.OMMobileSecurityConfiguration.DEFAULT_HOSTNAME_VERIFICATION;
+import static oracle.idm.mobile.configuration.OMMobileSecurityConfiguration.DEFAULT_HTTP_TRANSPORT;
 import static oracle.idm.mobile.connection.OMCookieManager.SET_COOKIE2_HEADER;
 import static oracle.idm.mobile.connection.OMCookieManager.SET_COOKIE_HEADER;
 
@@ -84,11 +99,53 @@ public class OMConnectionHandler {
     private static final String HEADER_FIELD_LOCATION = "Location";
     private static final String HEADER_FIELD_CONTENT = "Content-Type";
     private static final String HEADER_FIELD_ACCEPT_LANGUAGE = "Accept-Language";
+    private static final Charset DEFAULT_RESPONSE_CHARSET = Charset.forName("UTF-8");
+    private static final int READ_BUFFER_SIZE = 8 * 1024;
+    /* Per thread copy buffer, so that reading a response does not allocate
+     * a new chunk for every call.*/
+    private static final ThreadLocal<byte[]> READ_BUFFER = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[READ_BUFFER_SIZE];
+        }
+    };
 
     /* The connection timeout in Headed SDK was 20 seconds which is good enough.
      * Ref: https://orareview.us.oracle.com/18809556/diff/18858112/18858188 */
     private static final int DEFAULT_CONNECTION_TIMEOUT = 20;//in seconds
     private static String DEFAULT_SSL_PROTOCOL = "TLS";
+    private static final int MAX_IDLE_CONNECTIONS = 5;
+    private static final int KEEP_ALIVE_DURATION = 5;//in minutes
+    /* Shared by every handler of the process, so that warm connections survive
+     * a handler reset (e.g. after logout) and are reused across auth flows.
+     * OkHttp matches pooled connections on the SSLSocketFactory instance too,
+     * hence a connection is never reused with a different trust configuration.*/
+    private static final ConnectionPool SHARED_CONNECTION_POOL = new ConnectionPool(
+            MAX_IDLE_CONNECTIONS, KEEP_ALIVE_DURATION, TimeUnit.MINUTES);
+    /* Same limit as HttpURLConnection when it follows redirects itself.*/
+    private static final int MAX_REDIRECTS = 20;
+    /* Every client of the pooled transport is derived from this one via
+     * newBuilder(), hence they share the pool and the dispatcher.*/
+    private static final OkHttpClient SHARED_OK_HTTP_CLIENT = new OkHttpClient.Builder()
+            .connectionPool(SHARED_CONNECTION_POOL)
+            .protocols(Arrays.asList(Protocol.HTTP_2, Protocol.HTTP_1_1))
+            .followRedirects(false)
+            .followSslRedirects(false)
+            .build();
+    /* OkHttp reuses a pooled connection only for the same SSLSocketFactory and
+     * HostnameVerifier instances, hence those are shared by the handlers of the
+     * same configuration instead of being created per handler.*/
+    private static final HostnameVerifier ALLOW_ALL_HOSTNAME_VERIFIER = new HostnameVerifier() {
+        @Override
+        public boolean verify(String hostname, SSLSession session) {
+            OMLog.warn(TAG, "Hostname verification is turned off");
+            return true;
+        }
+    };
+    private static final Map<String, OMSSLSocketFactory> SHARED_SOCKET_FACTORIES = new HashMap<>();
+    /* Asynchronous request being executed on the current thread, if any. Lets
+     * the OkHttp call be aborted when the request is cancelled.*/
+    private static final ThreadLocal<AsyncRequest> CURRENT_ASYNC_REQUEST = new ThreadLocal<>();
     private int mConnectionTimeout = DEFAULT_CONNECTION_TIMEOUT * 1000;//in milli seconds
     private final int mReadTimeout = mConnectionTimeout;//for now.
     private final Context mContext;
@@ -102,6 +159,7 @@ public class OMConnectionHandler {
     private boolean mAllowHttpToHttpsRedirect = true;/*We are by default allowing this configuration*/
     private OkHttpClient okHttpClient;
     private HostnameVerification mHostnameVerification = DEFAULT_HOSTNAME_VERIFICATION;
+    private HttpTransport mHttpTransport = DEFAULT_HTTP_TRANSPORT;
 
     public OMConnectionHandler(Context context) {
         mContext = context;
@@ -131,6 +189,7 @@ public class OMConnectionHandler {
         mHandleClientCerts = handleClientCerts;
         if (mobileSecurityConfiguration != null) {
             mHostnameVerification = mobileSecurityConfiguration.getHostnameVerification();
+            mHttpTransport = mobileSecurityConfiguration.getHttpTransport();
         }
     }
 
@@ -178,7 +237,7 @@ public class OMConnectionHandler {
 
     public OMHTTPResponse httpGet(URL url, String username, char[] pwd, Map<String, String> headers,
                                   boolean retryRequest, int flags) throws OMMobileSecurityException {
-        return httpGet(url, username, pwd, headers, retryRequest, ((flags & OMHTTPRequest.AUTHENTICATION_REQUEST) != 0), ((flags & OMHTTPRequest.REQUIRE_RESPONSE_CODE) != 0), ((flags & OMHTTPRequest.REQUIRE_RESPONSE_STRING) != 0), ((flags & OMHTTPRequest.REQUIRE_RESPONSE_HEADERS) != 0));
+        return httpGet(url, username, pwd, headers, retryRequest, ((flags & OMHTTPRequest.AUTHENTICATION_REQUEST) != 0), ((flags & OMHTTPRequest.REQUIRE_RESPONSE_CODE) != 0), ((flags & OMHTTPRequest.REQUIRE_RESPONSE_STRING) != 0), ((flags & OMHTTPRequest.REQUIRE_RESPONSE_HEADERS) != 0), ((flags & OMHTTPRequest.REQUIRE_RESPONSE_BYTES) != 0));
     }
 
     /**
@@ -189,8 +248,23 @@ public class OMConnectionHandler {
      */
 
     public OMHTTPResponse httpGet(final URL url, Map<String, String> headers) throws OMMobileSecurityException {
+        return httpGet(url, headers, 0);
+    }
+
+    /**
+     * Same as {@link #httpGet(URL, Map)}, except that the body is kept as
+     * bytes instead of a String if flags has
+     * {@link OMHTTPRequest#REQUIRE_RESPONSE_BYTES}.
+     *
+     * @param url
+     * @param headers
+     * @param flags   Refer to OMHTTPRequest for available flags.
+     * @return
+     * @throws OMMobileSecurityException
+     */
+    public OMHTTPResponse httpGet(final URL url, Map<String, String> headers, int flags) throws OMMobileSecurityException {
         return httpGet(url, null, null, headers, false, false,
-                true, true, true);
+                true, true, true, ((flags & OMHTTPRequest.REQUIRE_RESPONSE_BYTES) != 0));
 
     }
 
@@ -269,8 +343,9 @@ public class OMConnectionHandler {
         boolean responseHeadersRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_HEADERS) != 0);
         boolean responseCodeRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_CODE) != 0);
         boolean responseStringRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_STRING) != 0);
+        boolean responseBytesRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_BYTES) != 0);
 
-        return executeHttpRequest(HTTP_POST, url, headers, payload, payloadType, responseCodeRequired, responseStringRequired, responseHeadersRequired);
+        return executeHttpRequest(HTTP_POST, url, headers, payload, payloadType, responseCodeRequired, responseStringRequired, responseHeadersRequired, responseBytesRequired);
     }
 
     public OMHTTPResponse httpPut(URL url, final Map<String, String> headers, String payload, String payloadType, int flags) throws OMMobileSecurityException {
@@ -280,14 +355,16 @@ public class OMConnectionHandler {
         boolean responseHeadersRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_HEADERS) != 0);
         boolean responseCodeRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_CODE) != 0);
         boolean responseStringRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_STRING) != 0);
-        return executeHttpRequest(HTTP_PUT, url, headers, payload, payloadType, responseCodeRequired, responseStringRequired, responseHeadersRequired);
+        boolean responseBytesRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_BYTES) != 0);
+        return executeHttpRequest(HTTP_PUT, url, headers, payload, payloadType, responseCodeRequired, responseStringRequired, responseHeadersRequired, responseBytesRequired);
     }
 
 
     //internal;
     private OMHTTPResponse httpGet(final URL url, final String username, final char[] pwd, Map<String, String> headers,
                                    boolean retryRequest, boolean isAuthMode, boolean requireResponseCode,
-                                   boolean requireResponseString, boolean requireHeaders) throws OMMobileSecurityException {
+                                   boolean requireResponseString, boolean requireHeaders,
+                                   boolean requireResponseBytes) throws OMMobileSecurityException {
         validateURL(url);
         OMLog.trace(TAG, "httpGet URL              : " + url.toString());
         // extra info only to be logged if required.
@@ -299,6 +376,11 @@ public class OMConnectionHandler {
         if (shouldSetCookieManager()) {
             CookieHandler.setDefault(OMCookieManager.getInstance());
         }
+        if (usePooledTransport() && !isAuthMode && TextUtils.isEmpty(username)) {
+            /* Basic authentication relies on java.net.Authenticator, which only
+             * HttpURLConnection honours. Hence, it stays on that transport.*/
+            return executeOkHttpRequest(HTTP_GET, url, headers, null, null, requireHeaders, requireResponseBytes);
+        }
         HttpURLConnection connection;
         InputStream inputStream = null;
         Map<String, List<String>> visitedUrlsCookiesMap = new HashMap<>();
@@ -376,11 +458,10 @@ public class OMConnectionHandler {
                 //http://docs.oracle.com/javase/1.5.0/docs/guide/net/http-keepalive.html
                 if (readResponse) {
                     inputStream = connection.getInputStream();
-                    response.setResponseStringOnSuccess(readInputStreamString(inputStream));
                 } else {
                     inputStream = connection.getErrorStream();
-                    response.setResponseStringOnFailure(readInputStreamString(inputStream));
                 }
+                readResponseBody(response, inputStream, connection, readResponse, requireResponseBytes);
                 if (requireHeaders) {
                     response.setResponseHeaders(connection.getHeaderFields());
                 }
@@ -394,7 +475,7 @@ public class OMConnectionHandler {
                 if (retryRequest) {
                     //lets release this connection first.
                     connection.disconnect();
-                    httpGet(url, username, pwd, headers, false, isAuthMode, requireResponseCode, requireResponseString, requireHeaders);
+                    httpGet(url, username, pwd, headers, false, isAuthMode, requireResponseCode, requireResponseString, requireHeaders, requireResponseBytes);
                 }
                 throw new OMMobileSecurityException(OMErrorCode.UNABLE_TO_CONNECT_TO_SERVER, se);
             } catch (IOException e) {
@@ -457,21 +538,27 @@ public class OMConnectionHandler {
     }
 
     private void handleSSLHandShakeException(HttpsURLConnection connection, SSLHandshakeException e) throws OMMobileSecurityException {
+        handleSSLHandShakeException((OMSSLSocketFactory) connection.getSSLSocketFactory(),
+                connection.getURL(), e, OMErrorCode.SSL_EXCEPTION);
+    }
+
+    private void handleSSLHandShakeException(OMSSLSocketFactory socketFactory, URL url,
+                                             SSLHandshakeException e, OMErrorCode errorCode) throws OMMobileSecurityException {
         OMLog.debug(TAG, "handling SSLHandShakeException");
-        OMSSLSocketFactory socketFactory = ((OMSSLSocketFactory) connection.getSSLSocketFactory());
-        if (socketFactory.isServerCertUntrusted()) {
+        OMSSLSocketFactory.UntrustedServerCert untrustedServerCert = socketFactory.takeUntrustedServerCert();
+        if (untrustedServerCert != null) {
             //handle one way ssl;
             OMLog.info(TAG, "Creating SSLExceptionEvent");
-            SSLExceptionEvent event = new SSLExceptionEvent(socketFactory.getUntrustedServerCertChain(),
-                    socketFactory.getAuthType(), connection.getURL());
-            throw new OMMobileSecurityException(OMErrorCode.SSL_EXCEPTION, event, e);
+            SSLExceptionEvent event = new SSLExceptionEvent(untrustedServerCert.getChain(),
+                    untrustedServerCert.getAuthType(), url);
+            throw new OMMobileSecurityException(errorCode, event, e);
         } else if (socketFactory.isClientCertRequired()) {
             OMLog.info(TAG, "Creating CBAExceptionEvent");
             CBAExceptionEvent event = new CBAExceptionEvent(socketFactory.getIssuers(), socketFactory.getPeerHost(), socketFactory.getPeerPort(), socketFactory.getKeyTypes());
-            throw new OMMobileSecurityException(OMErrorCode.SSL_EXCEPTION, event, e);
+            throw new OMMobileSecurityException(errorCode, event, e);
         }
         OMLog.info(TAG, "Client Certificate not enabled, hence failing!");
-        throw new OMMobileSecurityException(OMErrorCode.SSL_EXCEPTION, e);
+        throw new OMMobileSecurityException(errorCode, e);
     }
 
     /**
@@ -635,7 +722,7 @@ public class OMConnectionHandler {
         OMLog.info(TAG, "Valid Redirection " + from + " -> " + to);
     }
 
-    private OMHTTPResponse executeHttpRequest(String httpMethod, URL url, Map<String, String> headers, String payload, String payloadType, boolean requireResponseCode, boolean requireResponseString, boolean requireResponseHeaders) throws OMMobileSecurityException {
+    private OMHTTPResponse executeHttpRequest(String httpMethod, URL url, Map<String, String> headers, String payload, String payloadType, boolean requireResponseCode, boolean requireResponseString, boolean requireResponseHeaders, boolean requireResponseBytes) throws OMMobileSecurityException {
         OMLog.debug(TAG, " http method              : " + httpMethod);
         OMLog.trace(TAG, " http request URL              : " + url.toString());
         // extra info only to be logged if required.
@@ -652,16 +739,11 @@ public class OMConnectionHandler {
         if (shouldSetCookieManager()) {
             CookieHandler.setDefault(OMCookieManager.getInstance());
         }
-        if (httpMethod.equals(HTTP_PATCH) && Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
-            try {
-                return patch(url.toString(), headers, payloadType, payload);
-            } catch (IOException e) {
-                OMLog.error(TAG, e.getMessage(), e);
-                throw new OMMobileSecurityException(OMErrorCode.UNABLE_TO_CONNECT_TO_SERVER, e);
-            } catch (GeneralSecurityException e) {
-                OMLog.error(TAG, e.getMessage(), e);
-                throw new OMMobileSecurityException(OMErrorCode.UNABLE_OPEN_SECURE_CONNECTION);
-            }
+        /* HttpURLConnection does not support PATCH below LOLLIPOP.*/
+        if (usePooledTransport()
+                || (httpMethod.equals(HTTP_PATCH) && Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP)) {
+            return executeOkHttpRequest(httpMethod, url, headers, payload, payloadType, requireResponseHeaders,
+                    requireResponseBytes);
         }
         HttpURLConnection connection;
         final byte[] payloadBytes = payload != null ? payload.getBytes() : null;
@@ -713,25 +795,25 @@ public class OMConnectionHandler {
                 }
 
                 OMLog.trace(TAG, "Response code : " + responseCode);
-                if (responseCode / 100 == 2) {
-                    //success
+                boolean success = responseCode / 100 == 2;
+                if (success) {
                     inputStream = connection.getInputStream();
-                    response.setResponseStringOnSuccess(readInputStreamString(inputStream));
                 } else {
                     inputStream = connection.getErrorStream();
-                    response.setResponseStringOnFailure(readInputStreamString(inputStream));
                 }
+                readResponseBody(response, inputStream, connection, success, requireResponseBytes);
                 response.setResponseCode(responseCode);
                 response.setResponseMessage(connection.getResponseMessage());
             } catch (IOException e) {
                 if (e instanceof SSLHandshakeException) {
                     OMLog.error(TAG, "SSLHandshakeException");
                     OMSSLSocketFactory socketFactory = ((OMSSLSocketFactory) ((HttpsURLConnection) connection).getSSLSocketFactory());
-                    if (socketFactory.isServerCertUntrusted()) {
+                    OMSSLSocketFactory.UntrustedServerCert untrustedServerCert = socketFactory.takeUntrustedServerCert();
+                    if (untrustedServerCert != null) {
                         //handle one way ssl;
                         OMLog.info(TAG, "Creating SSLExceptionEvent");
-                        SSLExceptionEvent event = new SSLExceptionEvent(socketFactory.getUntrustedServerCertChain(),
-                                socketFactory.getAuthType(), connection.getURL());
+                        SSLExceptionEvent event = new SSLExceptionEvent(untrustedServerCert.getChain(),
+                                untrustedServerCert.getAuthType(), connection.getURL());
                         throw new OMMobileSecurityException(OMErrorCode.UNABLE_TO_CONNECT_TO_SERVER, event, e);
                     } else if (socketFactory.isClientCertRequired()) {
                         OMLog.info(TAG, "Creating CBAExceptionEvent");
@@ -758,64 +840,233 @@ public class OMConnectionHandler {
         return null;
     }
 
+    private boolean usePooledTransport() {
+        return mHttpTransport == HttpTransport.POOLED;
+    }
+
+    /**
+     * Returns the OkHttp client used by {@link HttpTransport#POOLED}. All the
+     * clients share {@link #SHARED_CONNECTION_POOL}. TLS sessions are resumed
+     * through the {@link javax.net.ssl.SSLContext} of {@link #getSSLSocketFactory()},
+     * and HTTP/2 is negotiated via ALPN when the server supports it.
+     * Redirects are not followed by OkHttp, as they have to be validated by
+     * {@link #validateRedirect(URL, URL)}.
+     */
     private OkHttpClient getOkHttpClient() throws GeneralSecurityException {
         if (okHttpClient == null) {
             OMSSLSocketFactory omsslSocketFactory = getSSLSocketFactory();
-            okHttpClient = new OkHttpClient.Builder()
+            OkHttpClient.Builder builder = SHARED_OK_HTTP_CLIENT.newBuilder()
                     .sslSocketFactory(omsslSocketFactory, omsslSocketFactory.getTrustManager())
-                    .build();
+                    .connectTimeout(mConnectionTimeout, TimeUnit.MILLISECONDS)
+                    .readTimeout(mReadTimeout, TimeUnit.MILLISECONDS);
+            if (mHostnameVerification == HostnameVerification.ALLOW_ALL) {
+                builder.hostnameVerifier(ALLOW_ALL_HOSTNAME_VERIFIER);
+            }
+            if (shouldSetCookieManager()) {
+                builder.addNetworkInterceptor(new OMCookieInterceptor());
+            }
+            okHttpClient = builder.build();
         }
         return okHttpClient;
     }
 
-    private OMHTTPResponse patch(String url, Map<String, String> headers, String payloadType, String payload) throws IOException, GeneralSecurityException {
-        MediaType mediaType = MediaType.parse(payloadType);
-        RequestBody body = RequestBody.create(mediaType, payload);
-        Request.Builder requestBuilder = new Request.Builder()
-                .url(url)
-                .patch(body);
-
-        for (Map.Entry<String, String> header : headers.entrySet()) {
-            requestBuilder.addHeader(header.getKey(), header.getValue());
-        }
-        Request request = requestBuilder.build();
-        Response response = getOkHttpClient().newCall(request).execute();
-        OMHTTPResponse omhttpResponse = new OMHTTPResponse();
-        int responseCode = response.code();
-        OMLog.trace(TAG, "Response code : " + responseCode);
-        omhttpResponse.setResponseCode(responseCode);
-        String responseString = response.body() != null ? response.body().string() : null;
-        if (responseCode / 100 == 2) {
-            omhttpResponse.setResponseStringOnSuccess(responseString);
+    private OMHTTPResponse executeOkHttpRequest(String httpMethod, URL url, Map<String, String> headers,
+                                                String payload, String payloadType,
+                                                boolean requireResponseHeaders,
+                                                boolean requireResponseBytes) throws OMMobileSecurityException {
+        OkHttpClient client;
+        try {
+            client = getOkHttpClient();
+        } catch (GeneralSecurityException gse) {
+            OMLog.error(TAG, gse.getMessage(), gse);
+            throw new OMMobileSecurityException(OMErrorCode.UNABLE_OPEN_SECURE_CONNECTION, gse);
+        }
+        boolean isGet = HTTP_GET.equals(httpMethod);
+        Map<String, List<String>> visitedUrlsCookiesMap = new HashMap<>();
+        URL requestURL = url;
+        Response response = null;
+        try {
+            response = executeCall(client.newCall(buildOkHttpRequest(httpMethod, requestURL, headers, payload, payloadType)));
+            visitedUrlsCookiesMap.putAll(parseCookieFromResponseHeader(response.headers().toMultimap(), requestURL));
+            /* Only GET follows redirects, same as the HttpURLConnection transport.*/
+            int redirects = 0;
+            while (isGet && (response.code() == HttpURLConnection.HTTP_MOVED_PERM
+                    || response.code() == HttpURLConnection.HTTP_MOVED_TEMP)) {
+                if (++redirects > MAX_REDIRECTS) {
+                    OMLog.error(TAG, "Too many redirects, last redirected to URL: " + requestURL);
+                    throw new OMMobileSecurityException(OMErrorCode.UNABLE_TO_CONNECT_TO_SERVER,
+                            new ProtocolException("Too many redirects: " + redirects));
+                }
+                URL redirectedURL = new URL(requestURL, response.header(HEADER_FIELD_LOCATION));
+                OMLog.debug(TAG, "Redirected to URL: " + redirectedURL);
+                validateRedirect(url, redirectedURL);
+                closeResponse(response);
+                requestURL = redirectedURL;
+                response = executeCall(client.newCall(buildOkHttpRequest(HTTP_GET, requestURL, headers, null, null)));
+                visitedUrlsCookiesMap.putAll(parseCookieFromResponseHeader(response.headers().toMultimap(), requestURL));
+            }
+            int responseCode = response.code();
+            OMLog.trace(TAG, "Response code : " + responseCode + " Protocol : " + response.protocol());
+            if (isGet && responseCode == HttpURLConnection.HTTP_UNAUTHORIZED) {
+                OMLog.error(TAG, "Wrong credentials");
+                throw new OMMobileSecurityException(OMErrorCode.UN_PWD_INVALID, new InvalidCredentialEvent());
+            }
+            OMHTTPResponse omhttpResponse = new OMHTTPResponse();
+            readResponseBody(omhttpResponse, response.body(), responseCode / 100 == 2, requireResponseBytes);
+            if (requireResponseHeaders) {
+                omhttpResponse.setResponseHeaders(response.headers().toMultimap());
+            }
+            omhttpResponse.setResponseCode(responseCode);
+            omhttpResponse.setResponseMessage(response.message());
+            omhttpResponse.setVisitedUrlsCookiesMap(visitedUrlsCookiesMap);
+            return omhttpResponse;
+        } catch (MalformedURLException e) {
+            throw new OMMobileSecurityException(OMErrorCode.UNABLE_OPEN_CONNECTION, e);
+        } catch (SSLHandshakeException e) {
+            OMLog.error(TAG, "SSLHandshakeException");
+            handleSSLHandShakeException(mSocketFactory, requestURL, e,
+                    isGet ? OMErrorCode.SSL_EXCEPTION : OMErrorCode.UNABLE_TO_CONNECT_TO_SERVER);
+            return null;
+        } catch (SSLException e) {
+            OMLog.error(TAG, "SSLException");
+            throw new OMMobileSecurityException(OMErrorCode.SSL_EXCEPTION, e);
+        } catch (IOException e) {
+            OMLog.error(TAG, "IOException ", e);
+            throw new OMMobileSecurityException(OMErrorCode.UNABLE_TO_CONNECT_TO_SERVER, e);
+        } finally {
+            /* Releases the connection back to the pool instead of disconnecting.*/
+            closeResponse(response);
+        }
+    }
+
+    private Response executeCall(Call call) throws IOException {
+        AsyncRequest asyncRequest = CURRENT_ASYNC_REQUEST.get();
+        if (asyncRequest != null) {
+            asyncRequest.setCall(call);
+        }
+        return call.execute();
+    }
+
+    private Request buildOkHttpRequest(String httpMethod, URL url, Map<String, String> headers,
+                                       String payload, String payloadType) {
+        Request.Builder requestBuilder = new Request.Builder().url(url);
+        if (headers != null) {
+            for (Map.Entry<String, String> header : headers.entrySet()) {
+                requestBuilder.header(header.getKey(), header.getValue());
+            }
+        }
+        requestBuilder.header(HEADER_FIELD_ACCEPT_LANGUAGE, getAcceptLanguageValue());
+        MediaType mediaType = null;
+        if (!TextUtils.isEmpty(payloadType)) {
+            mediaType = MediaType.parse(payloadType);
+            requestBuilder.header(HEADER_FIELD_CONTENT, payloadType);
+        }
+        RequestBody body = null;
+        if (payload != null) {
+            /* Bytes are passed instead of String, so that OkHttp does not append
+             * a charset to the Content-Type sent to the server.*/
+            body = RequestBody.create(mediaType, payload.getBytes());
+        } else if (HTTP_POST.equals(httpMethod) || HTTP_PUT.equals(httpMethod)
+                || HTTP_PATCH.equals(httpMethod)) {
+            body = RequestBody.create(mediaType, new byte[0]);
+        }
+        return requestBuilder.method(httpMethod, body).build();
+    }
+
+    private void readResponseBody(OMHTTPResponse response, ResponseBody body,
+                                  boolean success, boolean bytesRequired) throws IOException {
+        if (body == null) {
+            return;
+        }
+        MediaType contentType = body.contentType();
+        Charset charset = (contentType != null)
+                ? contentType.charset(DEFAULT_RESPONSE_CHARSET) : DEFAULT_RESPONSE_CHARSET;
+        setResponseBody(response, readInputStreamBytes(body.byteStream(), (int) body.contentLength()),
+                charset, success, bytesRequired);
+    }
+
+    private void closeResponse(Response response) {
+        if (response != null && response.body() != null) {
+            response.body().close();
+        }
+    }
+
+    private void readResponseBody(OMHTTPResponse response, InputStream in,
+                                  HttpURLConnection connection, boolean success,
+                                  boolean bytesRequired) throws IOException {
+        if (in == null) {
+            return;
+        }
+        setResponseBody(response, readInputStreamBytes(in, connection.getContentLength()),
+                getCharset(connection.getContentType()), success, bytesRequired);
+    }
+
+    /**
+     * Keeps the body read either as is, if bytes are required, or decoded,
+     * so that it is never kept both as bytes and as String.
+     */
+    private void setResponseBody(OMHTTPResponse response, byte[] body, Charset charset,
+                                 boolean success, boolean bytesRequired) {
+        if (bytesRequired) {
+            response.setResponseBody(body, charset);
+            return;
+        }
+        String responseString = new String(body, charset);
+        if (success) {
+            response.setResponseStringOnSuccess(responseString);
         } else {
-            omhttpResponse.setResponseStringOnFailure(responseString);
+            response.setResponseStringOnFailure(responseString);
         }
-        return omhttpResponse;
+        logResponse(responseString);
     }
 
     private String readInputStreamString(InputStream in) throws IOException {
         if (in != null) {
-            BufferedReader responseBufferedReader = new BufferedReader(new InputStreamReader(in));
-            StringBuilder responseStringBuilder;
-            responseStringBuilder = new StringBuilder();
-            String line;
-            while ((line = responseBufferedReader.readLine()) != null) {
-                responseStringBuilder.append(line);
-            }
-            String responseString = responseStringBuilder.toString();
-            if (OMSecurityConstants.DEBUG) {
-                try {
-                    LogUtils.log("Response: " +
-                            new JSONObject(responseString).toString(3));
-                } catch (JSONException e) {
-                    LogUtils.log("Response: " + responseString);
-                }
-            }
+            String responseString = new String(readInputStreamBytes(in, -1), DEFAULT_RESPONSE_CHARSET);
+            logResponse(responseString);
             return responseString;
         }
         return null;
     }
 
+    /**
+     * Reads the stream completely, byte by byte as sent by the server.
+     *
+     * @param contentLength expected length of the stream if known, -1 otherwise.
+     *                      It is used only to size the output buffer upfront.
+     */
+    private byte[] readInputStreamBytes(InputStream in, int contentLength) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(
+                contentLength > 0 ? contentLength : READ_BUFFER_SIZE);
+        byte[] buffer = READ_BUFFER.get();
+        int read;
+        while ((read = in.read(buffer)) != -1) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private Charset getCharset(String contentType) {
+        if (!TextUtils.isEmpty(contentType)) {
+            MediaType mediaType = MediaType.parse(contentType);
+            if (mediaType != null) {
+                return mediaType.charset(DEFAULT_RESPONSE_CHARSET);
+            }
+        }
+        return DEFAULT_RESPONSE_CHARSET;
+    }
+
+    private void logResponse(String responseString) {
+        if (OMSecurityConstants.DEBUG) {
+            try {
+                LogUtils.log("Response: " +
+                        new JSONObject(responseString).toString(3));
+            } catch (JSONException e) {
+                LogUtils.log("Response: " + responseString);
+            }
+        }
+    }
+
 
     private void validateURL(URL url) {
         if (url == null) {
@@ -845,25 +1096,50 @@ public class OMConnectionHandler {
 
     public OMSSLSocketFactory getSSLSocketFactory() throws GeneralSecurityException {
         if (mSocketFactory == null) {
-            mSocketFactory = new OMSSLSocketFactory(getCertificateService(), mHandleClientCerts,
-                    DEFAULT_SSL_PROTOCOL, mCorrectedProtocols, mEnabledCipherSuites);
+            if (mHandleClientCerts) {
+                /* The key manager holds the client certificate preference of
+                 * this handler, so it is not shared.*/
+                mSocketFactory = new OMSSLSocketFactory(getCertificateService(), mHandleClientCerts,
+                        DEFAULT_SSL_PROTOCOL, mCorrectedProtocols, mEnabledCipherSuites);
+            } else {
+                /* The trust manager keeps the chain rejected by a handshake
+                 * per thread, so sharing the factory does not mix up the
+                 * untrusted certificates of concurrent requests.*/
+                String key = DEFAULT_SSL_PROTOCOL + "|" + Arrays.toString(mCorrectedProtocols)
+                        + "|" + Arrays.toString(mEnabledCipherSuites);
+                synchronized (SHARED_SOCKET_FACTORIES) {
+                    mSocketFactory = SHARED_SOCKET_FACTORIES.get(key);
+                    if (mSocketFactory == null) {
+                        mSocketFactory = new OMSSLSocketFactory(getCertificateService(), false,
+                                DEFAULT_SSL_PROTOCOL, mCorrectedProtocols, mEnabledCipherSuites);
+                        SHARED_SOCKET_FACTORIES.put(key, mSocketFactory);
+                    }
+                }
+            }
         }
         return mSocketFactory;
     }
 
+    /**
+     * Drops the SSL socket factories shared by the handlers, so that the ones
+     * created next pick up the current trust store, e.g. after a server
+     * certificate is imported.
+     *
+     * @hide
+     */
+    public static void clearSharedSSLSocketFactories() {
+        synchronized (SHARED_SOCKET_FACTORIES) {
+            SHARED_SOCKET_FACTORIES.clear();
+        }
+    }
+
     private HttpsURLConnection getSecureUrlConnection(URL url) throws IOException, GeneralSecurityException {
         HttpsURLConnection connection;
         connection = (HttpsURLConnection) url.openConnection();
         connection.setSSLSocketFactory(getSSLSocketFactory());
 
         if (mHostnameVerification == HostnameVerification.ALLOW_ALL) {
-            connection.setHostnameVerifier(new HostnameVerifier() {
-                @Override
-                public boolean verify(String hostname, SSLSession session) {
-                    OMLog.warn(TAG, "Hostname verification is turned off");
-                    return true;
-                }
-            });
+            connection.setHostnameVerifier(ALLOW_ALL_HOSTNAME_VERIFIER);
         }
 
         updateHttpProps(connection);
@@ -935,6 +1211,30 @@ public class OMConnectionHandler {
      */
     public void setConnectionTimeout(int connectionTimeout) {
         mConnectionTimeout = connectionTimeout;
+        if (okHttpClient != null) {
+            /* Derived from the current client, hence it keeps sharing the pool.*/
+            okHttpClient = okHttpClient.newBuilder()
+                    .connectTimeout(mConnectionTimeout, TimeUnit.MILLISECONDS)
+                    .build();
+        }
+    }
+
+    /**
+     * Sets the transport used for the subsequent requests.
+     *
+     * @param httpTransport transport to be used. null resets it to the default.
+     * @hide
+     */
+    public void setHttpTransport(HttpTransport httpTransport) {
+        OMLog.debug(TAG, "setHttpTransport : " + httpTransport);
+        mHttpTransport = (httpTransport != null) ? httpTransport : DEFAULT_HTTP_TRANSPORT;
+    }
+
+    /**
+     * @hide
+     */
+    public HttpTransport getHttpTransport() {
+        return mHttpTransport;
     }
 
     /**
@@ -1067,8 +1367,9 @@ public class OMConnectionHandler {
         boolean responseHeadersRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_HEADERS) != 0);
         boolean responseCodeRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_CODE) != 0);
         boolean responseStringRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_STRING) != 0);
+        boolean responseBytesRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_BYTES) != 0);
 
-        return executeHttpRequest(HTTP_PATCH, url, headers, payload, payloadType, responseCodeRequired, responseStringRequired, responseHeadersRequired);
+        return executeHttpRequest(HTTP_PATCH, url, headers, payload, payloadType, responseCodeRequired, responseStringRequired, responseHeadersRequired, responseBytesRequired);
     }
 
     public OMHTTPResponse httpDelete(URL url, final Map<String, String> headers, String payload, String payloadType, int flags) throws OMMobileSecurityException {
@@ -1077,8 +1378,158 @@ public class OMConnectionHandler {
         boolean responseHeadersRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_HEADERS) != 0);
         boolean responseCodeRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_CODE) != 0);
         boolean responseStringRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_STRING) != 0);
+        boolean responseBytesRequired = ((flags & OMHTTPRequest.REQUIRE_RESPONSE_BYTES) != 0);
+
+        return executeHttpRequest(HTTP_DELETE, url, headers, payload, payloadType, responseCodeRequired, responseStringRequired, responseHeadersRequired, responseBytesRequired);
+    }
+
+    /**
+     * Executes the given request synchronously, using the http method of the
+     * request.
+     *
+     * @param request the request to be executed
+     * @param headers request headers, can be null
+     * @param flags   {@link OMHTTPRequest} flags
+     * @return the response
+     * @throws OMMobileSecurityException if the request fails
+     */
+    public OMHTTPResponse executeRequest(OMHTTPRequest request, Map<String, String> headers, int flags) throws OMMobileSecurityException {
+        if (request == null || request.getMethod() == null) {
+            throw new OMMobileSecurityException(OMErrorCode.INVALID_INPUT);
+        }
+        URL url = request.getResourceURL();
+        String payload = request.getRawPayload();
+        String payloadType = request.getPayloadType();
+        switch (request.getMethod()) {
+            case GET:
+                return httpGet(url, headers, flags);
+            case POST:
+                return httpPost(url, headers, payload, payloadType, flags);
+            case PUT:
+                return httpPut(url, headers, payload, payloadType, flags);
+            case PATCH:
+                return httpPatch(url, headers, payload, payloadType, flags);
+            case DELETE:
+                return httpDelete(url, headers, payload, payloadType, flags);
+            default:
+                throw new OMMobileSecurityException(OMErrorCode.INVALID_INPUT);
+        }
+    }
+
+    /**
+     * Asynchronous variant of {@link #executeRequest(OMHTTPRequest, Map, int)}.
+     * The request is queued on an executor owned by the SDK, which has a fixed
+     * number of threads, so callers do not have to park a thread of their own
+     * per request. The callback, if any, is invoked on the main thread.
+     * <p>
+     * The request can be cancelled through the returned {@link Future}. Once
+     * cancelled, the callback is not invoked. A request which has not started
+     * yet is never executed, and an in-flight request over the pooled transport
+     * is aborted; over {@link HttpURLConnection} it runs to completion and its
+     * response is discarded.
+     *
+     * @param request  the request to be executed
+     * @param headers  request headers, can be null
+     * @param flags    {@link OMHTTPRequest} flags
+     * @param callback notified with the response or the exception, can be null
+     * @return the pending response
+     */
+    public Future<OMHTTPResponse> executeRequestAsync(OMHTTPRequest request, Map<String, String> headers,
+                                                      int flags, OMHTTPRequestCallback callback) {
+        AsyncRequest asyncRequest = new AsyncRequest(this, request, headers, flags, callback);
+        try {
+            OMHTTPRequestExecutor.execute(asyncRequest);
+        } catch (RejectedExecutionException e) {
+            OMLog.error(TAG, "Too many pending requests, rejecting the request");
+            asyncRequest.reject(e);
+        }
+        return asyncRequest;
+    }
+
+    /**
+     * Request queued by {@link #executeRequestAsync(OMHTTPRequest, Map, int, OMHTTPRequestCallback)}.
+     */
+    private static class AsyncRequest extends FutureTask<OMHTTPResponse> {
+        private static final Handler MAIN_HANDLER = new Handler(Looper.getMainLooper());
+
+        private final OMHTTPRequest mRequest;
+        private final OMHTTPRequestCallback mCallback;
+        private volatile Call mCall;
+
+        AsyncRequest(final OMConnectionHandler handler, final OMHTTPRequest request,
+                     final Map<String, String> headers, final int flags, OMHTTPRequestCallback callback) {
+            super(new Callable<OMHTTPResponse>() {
+                @Override
+                public OMHTTPResponse call() throws Exception {
+                    return handler.executeRequest(request, headers, flags);
+                }
+            });
+            mRequest = request;
+            mCallback = callback;
+        }
+
+        @Override
+        public void run() {
+            CURRENT_ASYNC_REQUEST.set(this);
+            try {
+                super.run();
+            } finally {
+                CURRENT_ASYNC_REQUEST.remove();
+            }
+        }
 
-        return executeHttpRequest(HTTP_DELETE, url, headers, payload, payloadType, responseCodeRequired, responseStringRequired, responseHeadersRequired);
+        void setCall(Call call) {
+            mCall = call;
+            if (isCancelled()) {
+                call.cancel();
+            }
+        }
+
+        void reject(RejectedExecutionException e) {
+            setException(new OMMobileSecurityException(OMErrorCode.INTERNAL_ERROR, e));
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            Call call = mCall;
+            if (cancelled && call != null) {
+                call.cancel();
+            }
+            return cancelled;
+        }
+
+        @Override
+        protected void done() {
+            if (mCallback == null || isCancelled()) {
+                return;
+            }
+            OMHTTPResponse response = null;
+            OMMobileSecurityException exception = null;
+            try {
+                response = get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof OMMobileSecurityException) {
+                    exception = (OMMobileSecurityException) cause;
+                } else {
+                    OMLog.error(TAG, "Asynchronous request failed", cause);
+                    exception = new OMMobileSecurityException(OMErrorCode.INTERNAL_ERROR, cause);
+                }
+            } catch (InterruptedException e) {
+                exception = new OMMobileSecurityException(OMErrorCode.INTERNAL_ERROR, e);
+            }
+            final OMHTTPResponse result = response;
+            final OMMobileSecurityException error = exception;
+            MAIN_HANDLER.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (!isCancelled()) {
+                        mCallback.processHTTPResponse(mRequest, result, error);
+                    }
+                }
+            });
+        }
     }
 
     /**
@@ -0,0 +1,52 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates.
+ * The Universal Permissive License (UPL), Version 1.0
+ */
+
+
+package oracle.idm.mobile.connection;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.List;
+import java.util.Map;
+
+import okhttp3.Interceptor;
+import okhttp3.Request;
+import okhttp3.Response;
+
+/**
+ * Bridges OkHttp requests to {@link OMCookieManager}, so that the pooled
+ * transport shares the webkit cookie store and URL tracking exactly like
+ * {@link java.net.HttpURLConnection} does through
+ * {@link java.net.CookieHandler#setDefault(java.net.CookieHandler)}.
+ * <p>
+ * Raw Set-Cookie header values are handed over as they are, instead of going
+ * through {@link okhttp3.CookieJar}, which would re-serialize parsed cookies.
+ *
+ * @hide
+ */
+class OMCookieInterceptor implements Interceptor {
+
+    private static final String COOKIE_HEADER = "Cookie";
+
+    @Override
+    public Response intercept(Chain chain) throws IOException {
+        OMCookieManager cookieManager = OMCookieManager.getInstance();
+        Request request = chain.request();
+        URI uri = request.url().uri();
+
+        Map<String, List<String>> cookieHeaders = cookieManager.get(uri,
+                request.headers().toMultimap());
+        List<String> cookies = cookieHeaders.get(COOKIE_HEADER);
+        if (cookies != null && !cookies.isEmpty() && request.header(COOKIE_HEADER) == null) {
+            request = request.newBuilder()
+                    .header(COOKIE_HEADER, cookies.get(0))
+                    .build();
+        }
+
+        Response response = chain.proceed(request);
+        cookieManager.put(uri, response.headers().toMultimap());
+        return response;
+    }
+}
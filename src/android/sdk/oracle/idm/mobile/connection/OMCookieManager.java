@@ -21,6 +21,8 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -280,36 +282,26 @@ public class OMCookieManager extends CookieManager {
             return true;
         }
 
-        Set<String> filteredCookies = new HashSet<>();
+        Set<String> missingCookies = new HashSet<>(requiredCookies);
         for (URI visitedURL : visitedURLs) {
-            String cookies = mWebkitCookieManager.getCookie(visitedURL.toString());
-            if (TextUtils.isEmpty(cookies)) {
+            Map<String, String> urlCookies = parseCookies(mWebkitCookieManager.getCookie(visitedURL.toString()));
+            if (urlCookies.isEmpty()) {
                 continue;
             }
-
-            for (String requiredCookie : requiredCookies) {
-                if (cookies.contains(requiredCookie)) {
-
-                    // Check if the cookie value is valid
-                    String requiredCookieValue = null;
-                    int beginIndex = cookies.indexOf(requiredCookie) + requiredCookie.length() + 1;
-                    if (beginIndex < cookies.length()) {
-                        int endIndex = cookies.indexOf(';', beginIndex);
-                        if (endIndex == -1) {
-                            requiredCookieValue = cookies.substring(beginIndex);
-                        } else {
-                            requiredCookieValue = cookies.substring(beginIndex, endIndex);
-                        }
-                    }
-                    if (!TextUtils.isEmpty(requiredCookieValue)) {
-                        filteredCookies.add(requiredCookie);
-                    }
-
+            Iterator<String> iterator = missingCookies.iterator();
+            while (iterator.hasNext()) {
+                String requiredCookieValue = urlCookies.get(iterator.next());
+                // Check if the cookie value is valid
+                if (!TextUtils.isEmpty(requiredCookieValue)) {
+                    iterator.remove();
                 }
             }
+            if (missingCookies.isEmpty()) {
+                return true;
+            }
         }
 
-        return requiredCookies.size() <= filteredCookies.size();
+        return false;
     }
 
     /**
@@ -318,109 +310,67 @@ public class OMCookieManager extends CookieManager {
      */
     public Map<String, OMCookie> filterCookies(Set<String> requiredCookies, Set<String> visitedURLs) {
         Map<String, OMCookie> filteredCookies = new HashMap<>();
+        boolean toBeFiltered = requiredCookies != null && !requiredCookies.isEmpty();
 
         for (String visitedUrl : visitedURLs) {
             String host = null;
             try {
-                URL url = new URL(visitedUrl);
-                host = url.getHost();
+                host = new URL(visitedUrl).getHost();
             } catch (MalformedURLException e) {
                 OMLog.error(TAG, e.getMessage(), e);
             }
 
-            String cookiesOfVisitedUrl = mWebkitCookieManager.getCookie(visitedUrl);
             /* The key in this map is <cookie name>_<host>. Host and port are
              appended as there can be multiple cookies with the same name
              issued by different servers.*/
-            Map<String, OMCookie> filteredCookiesOfUrl = filterCookies(cookiesOfVisitedUrl,
-                    requiredCookies, host);
-            if (filteredCookiesOfUrl != null) {
-                filteredCookies.putAll(filteredCookiesOfUrl);
-            }
-        }
-        return filteredCookies;
-    }
-
-    private Map<String, OMCookie> filterCookies(String cookies,
-                                                Set<String> requiredCookies, String host) {
-
-        if (TextUtils.isEmpty(cookies)) {
-            return null;
-        }
-
-        Map<String, OMCookie> filteredCookies = new HashMap<>();
-        ArrayList<String> cookieNames = filterCookieNames(cookies);
-        String keyToBeAppendedToCookieName = "_" + host;
-
-        /*
-            If requiredCookies given is valid, only matching cookies are filtered and returned,
-            Else, all cookies corresponding to visitedURLs are returned.
-        */
-        boolean toBeFiltered = requiredCookies != null && !requiredCookies.isEmpty();
-        int beginIndex, endIndex;
-
-        for (String cookieName : cookieNames) {
-            if (!toBeFiltered
-                    || (toBeFiltered && requiredCookies.contains(cookieName))) {
-                beginIndex = cookies.indexOf(cookieName) + cookieName.length() + 1;
-                if (beginIndex < cookies.length()) {
-                    endIndex = cookies.indexOf(';', beginIndex);
-                    if (endIndex > 0) {
-                        filteredCookies.put(
-                                cookieName + keyToBeAppendedToCookieName,
-                                new OMCookie(cookieName, cookies.substring(
-                                        beginIndex, endIndex), host));
-                    } else {
-                        filteredCookies.put(cookieName
-                                + keyToBeAppendedToCookieName, new OMCookie(
-                                cookieName, cookies.substring(beginIndex), host));
+            String keyToBeAppendedToCookieName = "_" + host;
+            Map<String, String> webkitCookies = parseCookies(mWebkitCookieManager.getCookie(visitedUrl));
+            if (toBeFiltered) {
+                for (String requiredCookie : requiredCookies) {
+                    String value = webkitCookies.get(requiredCookie);
+                    if (value != null) {
+                        filteredCookies.put(requiredCookie + keyToBeAppendedToCookieName,
+                                new OMCookie(requiredCookie, value, host));
                     }
-                } else {
-                    /* This can happen if tokens end with <cookie_name>=
-                     e.g: ORA_ADF_VIEW_PAGE_ID= */
-                    filteredCookies.put(cookieName + keyToBeAppendedToCookieName,
-                            new OMCookie(cookieName, "", host));
                 }
-
+            } else {
+                for (Map.Entry<String, String> cookie : webkitCookies.entrySet()) {
+                    filteredCookies.put(cookie.getKey() + keyToBeAppendedToCookieName,
+                            new OMCookie(cookie.getKey(), cookie.getValue(), host));
+                }
             }
         }
-
         return filteredCookies;
-
     }
 
     /**
-     * Returns the name of all the cookies available in the given cookie string.
-     * <p>
-     * <b>Note</b> This method filter out the cookie names based on the
-     * {@link CookieManager} implementation
+     * Returns the name and value of all the cookies available in the given
+     * cookie string, in a single pass.
      * <p>
-     * <code> cookie1=value1;cookie2=;cookie3=value3 will be filtered to
-     * [cookie1,cookie2,cookie3] </code>
+     * <code> cookie1=value1;cookie2=;cookie3=value3 will be parsed to
+     * {cookie1=value1, cookie2=, cookie3=value3} </code>
      *
      * @param cookieString
      * @return
      */
-    private ArrayList<String> filterCookieNames(String cookieString) {
-        ArrayList<String> names = new ArrayList<>();
-        String[] namevalues = cookieString.split(";[\\s]*");
-        if (namevalues != null) {
-            for (String namevalue : namevalues) {
-                int index = namevalue.indexOf('=', 0);
-                if (index != -1) {
-                    String name = namevalue.substring(0, index);
-                    if (!TextUtils.isEmpty(name)) {
-                        name = name.trim();
-                        /* REMOVE ANY LEADING OR TRAILING
-                         SPACES, If found in the cookie
-                         name.*/
-                        names.add(name);
-                    }
+    private Map<String, String> parseCookies(String cookieString) {
+        if (TextUtils.isEmpty(cookieString)) {
+            return Collections.emptyMap();
+        }
+        Map<String, String> cookies = new LinkedHashMap<>();
+        for (String namevalue : cookieString.split(";")) {
+            int index = namevalue.indexOf('=');
+            if (index != -1) {
+                /* REMOVE ANY LEADING OR TRAILING
+                 SPACES, If found in the cookie
+                 name.*/
+                String name = namevalue.substring(0, index).trim();
+                if (!TextUtils.isEmpty(name) && !cookies.containsKey(name)) {
+                    cookies.put(name, namevalue.substring(index + 1));
                 }
             }
         }
-
-        return names;
+        return cookies;
     }
 
     public Set<URI> getVisitedURLs() {
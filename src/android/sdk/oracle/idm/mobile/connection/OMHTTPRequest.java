@@ -24,6 +24,8 @@ public class OMHTTPRequest {
     public static int AUTHENTICATION_REQUEST = REQUIRE_RESPONSE_CODE << 1;
     public static int REQUIRE_RESPONSE_STRING = REQUIRE_RESPONSE_CODE << 2;
     public static int REQUIRE_RESPONSE_HEADERS = REQUIRE_RESPONSE_CODE << 3;
+    /* The body is kept as bytes, see OMHTTPResponse#getResponseBody(), and not as a String.*/
+    public static int REQUIRE_RESPONSE_BYTES = REQUIRE_RESPONSE_CODE << 4;
 
 
     protected URL mResourceURL;
@@ -0,0 +1,249 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates.
+ * The Universal Permissive License (UPL), Version 1.0
+ */
+
+
+package oracle.idm.mobile.connection;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import oracle.idm.mobile.logging.OMLog;
+
+/**
+ * Bounded executor owned by the SDK, on which the asynchronous requests of
+ * {@link OMConnectionHandler}, the setup and authentication flows, and other
+ * background network work of the SDK, are executed. It is shared by the whole
+ * process, so that concurrent fetches (token, user info, signing keys) queue
+ * up on a small fixed set of threads instead of each parking a thread of its
+ * own, and so that SDK flows never wait behind the tasks the app runs on the
+ * global {@link android.os.AsyncTask} executor. Idle threads are released
+ * after {@link #KEEP_ALIVE_TIME} seconds.
+ * <p>
+ * Queued tasks are run by {@link Priority}, then in submission order: a login
+ * the user waits for is run ahead of background refreshes and requests. Only
+ * background tasks are bounded to {@link #MAX_PENDING_REQUESTS}; interactive
+ * tasks are never rejected.
+ * <p>
+ * The number of threads can be changed using {@link #setThreadCount(int)},
+ * and the execution of every task observed using {@link #setListener(Listener)}.
+ *
+ * @hide
+ */
+public class OMHTTPRequestExecutor {
+
+    private static final String TAG = OMHTTPRequestExecutor.class.getSimpleName();
+    private static final String THREAD_NAME_PREFIX = "OMHTTPRequest-";
+    private static final int POOL_SIZE = 4;
+    private static final int MAX_PENDING_REQUESTS = 64;
+    private static final int KEEP_ALIVE_TIME = 30;//in seconds
+
+    /**
+     * Priority of a task; tasks of a lower ordinal are run first.
+     */
+    public enum Priority {
+        /**
+         * Work the user is waiting for, e.g. setup, login and logout.
+         */
+        INTERACTIVE,
+        /**
+         * Work done ahead of need, e.g. token refresh, and app requests.
+         */
+        BACKGROUND
+    }
+
+    /**
+     * Notified of the execution of the tasks, e.g. to measure queueing
+     * delays. Methods are invoked on the submitting thread for
+     * {@link #onTaskQueued(String, Priority, int)}, and on the executor
+     * thread for the others, so implementations must be thread safe and quick.
+     */
+    public interface Listener {
+        /**
+         * @param pendingTasks the number of tasks of the same priority waiting
+         *                     for a thread, this one included
+         */
+        void onTaskQueued(String name, Priority priority, int pendingTasks);
+
+        void onTaskStarted(String name, Priority priority, long queuedMillis);
+
+        /**
+         * @param failure the exception the task threw, or null
+         */
+        void onTaskCompleted(String name, Priority priority, long runMillis, Throwable failure);
+    }
+
+    private static volatile ThreadPoolExecutor sExecutor;
+    private static volatile Listener sListener;
+    private static int sThreadCount = POOL_SIZE;
+    private static final AtomicInteger[] sPendingTasks = {new AtomicInteger(), new AtomicInteger()};
+    private static final AtomicLong sSequence = new AtomicLong();
+
+    private OMHTTPRequestExecutor() {
+    }
+
+    /**
+     * Queues the given task for execution, with {@link Priority#BACKGROUND}.
+     *
+     * @throws RejectedExecutionException if {@link #MAX_PENDING_REQUESTS} requests
+     *                                    are already waiting for a thread
+     */
+    public static void execute(Runnable task) {
+        execute(task, Priority.BACKGROUND, null);
+    }
+
+    /**
+     * Queues the given task for execution.
+     *
+     * @param name identifies the task to the {@link Listener}, can be null
+     * @throws RejectedExecutionException if the task is a background one and
+     *                                    {@link #MAX_PENDING_REQUESTS} of them
+     *                                    are already waiting for a thread
+     */
+    public static void execute(Runnable task, Priority priority, String name) {
+        if (task == null || priority == null) {
+            throw new NullPointerException();
+        }
+        AtomicInteger pending = sPendingTasks[priority.ordinal()];
+        int pendingTasks = pending.incrementAndGet();
+        if (priority == Priority.BACKGROUND && pendingTasks > MAX_PENDING_REQUESTS) {
+            pending.decrementAndGet();
+            throw new RejectedExecutionException("Too many pending background tasks");
+        }
+        if (name == null) {
+            name = task.getClass().getSimpleName();
+        }
+        Listener listener = sListener;
+        if (listener != null) {
+            listener.onTaskQueued(name, priority, pendingTasks);
+        }
+        getExecutor().execute(new PrioritizedTask(task, priority, name));
+    }
+
+    /**
+     * Returns an executor queuing the tasks with the given priority, e.g. to
+     * run an {@link android.os.AsyncTask} using
+     * {@link android.os.AsyncTask#executeOnExecutor(Executor, Object[])}.
+     */
+    public static Executor getExecutor(final Priority priority, final String name) {
+        return new Executor() {
+            @Override
+            public void execute(Runnable task) {
+                OMHTTPRequestExecutor.execute(task, priority, name);
+            }
+        };
+    }
+
+    /**
+     * Sets the number of threads executing the tasks; the default is
+     * {@link #POOL_SIZE}.
+     */
+    public static void setThreadCount(int threadCount) {
+        if (threadCount <= 0) {
+            throw new IllegalArgumentException("Thread count must be positive");
+        }
+        synchronized (OMHTTPRequestExecutor.class) {
+            sThreadCount = threadCount;
+            ThreadPoolExecutor executor = sExecutor;
+            if (executor != null) {
+                /* The core size may never exceed the maximum one.*/
+                if (threadCount > executor.getMaximumPoolSize()) {
+                    executor.setMaximumPoolSize(threadCount);
+                    executor.setCorePoolSize(threadCount);
+                } else {
+                    executor.setCorePoolSize(threadCount);
+                    executor.setMaximumPoolSize(threadCount);
+                }
+            }
+        }
+        OMLog.debug(TAG, "Request executor thread count set to " + threadCount);
+    }
+
+    /**
+     * Sets the listener notified of the execution of the tasks, or removes it
+     * if null.
+     */
+    public static void setListener(Listener listener) {
+        sListener = listener;
+    }
+
+    private static ThreadPoolExecutor getExecutor() {
+        if (sExecutor == null) {
+            synchronized (OMHTTPRequestExecutor.class) {
+                if (sExecutor == null) {
+                    /* Unbounded, as only background tasks are bounded, in execute().*/
+                    ThreadPoolExecutor executor = new ThreadPoolExecutor(sThreadCount, sThreadCount,
+                            KEEP_ALIVE_TIME, TimeUnit.SECONDS,
+                            new PriorityBlockingQueue<Runnable>(),
+                            new RequestThreadFactory());
+                    executor.allowCoreThreadTimeOut(true);
+                    OMLog.debug(TAG, "Created request executor with " + sThreadCount + " threads");
+                    sExecutor = executor;
+                }
+            }
+        }
+        return sExecutor;
+    }
+
+    private static class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+        private final Runnable mTask;
+        private final Priority mPriority;
+        private final String mName;
+        private final long mSequence = sSequence.getAndIncrement();
+        private final long mQueuedAt = System.currentTimeMillis();
+
+        PrioritizedTask(Runnable task, Priority priority, String name) {
+            mTask = task;
+            mPriority = priority;
+            mName = name;
+        }
+
+        @Override
+        public void run() {
+            sPendingTasks[mPriority.ordinal()].decrementAndGet();
+            Listener listener = sListener;
+            long startedAt = System.currentTimeMillis();
+            if (listener != null) {
+                listener.onTaskStarted(mName, mPriority, startedAt - mQueuedAt);
+            }
+            Throwable failure = null;
+            try {
+                mTask.run();
+            } catch (RuntimeException | Error e) {
+                failure = e;
+                throw e;
+            } finally {
+                if (listener != null) {
+                    listener.onTaskCompleted(mName, mPriority,
+                            System.currentTimeMillis() - startedAt, failure);
+                }
+            }
+        }
+
+        @Override
+        public int compareTo(PrioritizedTask other) {
+            if (mPriority != other.mPriority) {
+                return mPriority.compareTo(other.mPriority);
+            }
+            return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+        }
+    }
+
+    private static class RequestThreadFactory implements ThreadFactory {
+        private final AtomicInteger mCount = new AtomicInteger(1);
+
+        @Override
+        public Thread newThread(Runnable runnable) {
+            Thread thread = new Thread(runnable, THREAD_NAME_PREFIX + mCount.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
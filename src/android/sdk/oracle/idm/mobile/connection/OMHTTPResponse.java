@@ -7,6 +7,7 @@
 package oracle.idm.mobile.connection;
 
 import java.net.HttpURLConnection;
+import java.nio.charset.Charset;
 import java.util.List;
 import java.util.Map;
 
@@ -14,7 +15,8 @@ import oracle.idm.mobile.auth.OMCookie;
 
 /**
  * This holds the response from the server. The body of the response is made
- * available as a String.
+ * available as a String, or as bytes if requested with
+ * {@link OMHTTPRequest#REQUIRE_RESPONSE_BYTES}.
  *
  * @hide
  * @since 11.1.2.3.1
@@ -24,6 +26,8 @@ public class OMHTTPResponse {
     private String mResponseMessage;
     private String mResponseStringOnFailure;
     private String mResponseStringOnSuccess;
+    private byte[] mResponseBody;
+    private Charset mResponseCharset;
     private Map<String, List<String>> mResponseHeaders;
     private List<OMCookie> mCookies;
     private Map<String, List<String>> mVisitedUrlsCookiesMap;
@@ -43,6 +47,12 @@ public class OMHTTPResponse {
         return this;
     }
 
+    OMHTTPResponse setResponseBody(byte[] body, Charset charset) {
+        mResponseBody = body;
+        mResponseCharset = charset;
+        return this;
+    }
+
     OMHTTPResponse setResponseCode(int responseCode) {
         mResponseCode = responseCode;
         return this;
@@ -73,6 +83,25 @@ public class OMHTTPResponse {
         return mResponseStringOnFailure;
     }
 
+    /**
+     * Returns the body of the response, on success as well as on failure, as
+     * sent by the server. Only available if the request had
+     * {@link OMHTTPRequest#REQUIRE_RESPONSE_BYTES}, in which case
+     * {@link #getResponseStringOnSuccess()} and
+     * {@link #getResponseStringOnFailure()} return null.
+     */
+    public byte[] getResponseBody() {
+        return mResponseBody;
+    }
+
+    /**
+     * Returns the charset of {@link #getResponseBody()}, as given by the
+     * Content-Type of the response, UTF-8 otherwise.
+     */
+    public Charset getResponseCharset() {
+        return mResponseCharset;
+    }
+
     public int getResponseCode() {
         return mResponseCode;
     }
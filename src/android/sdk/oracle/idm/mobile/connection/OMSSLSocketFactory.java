@@ -83,8 +83,12 @@ public class OMSSLSocketFactory extends SSLSocketFactory {
     }
 
 
-    boolean isServerCertUntrusted() {
-        return mTM.isServerCertUntrusted();
+    /**
+     * Returns the untrusted server certificate of the last handshake of the
+     * calling thread, if that handshake failed because of it, and forgets it.
+     */
+    UntrustedServerCert takeUntrustedServerCert() {
+        return mTM.takeUntrustedServerCert();
     }
 
 
@@ -127,18 +131,6 @@ public class OMSSLSocketFactory extends SSLSocketFactory {
         return null;
     }
 
-    void setServerCertAllowed(boolean flag) {
-        mTM.setServerCertAllowed(flag);
-    }
-
-    X509Certificate[] getUntrustedServerCertChain() {
-        return mTM.getUntrustedServerCertChain();
-    }
-
-    String getAuthType() {
-        return mTM.getAuthType();
-    }
-
     void setClientCertificatePreference(ClientCertificatePreference preference) {
         if (mKM != null) {
             mKM.setClientCertificatePreference(preference);
@@ -223,6 +215,29 @@ public class OMSSLSocketFactory extends SSLSocketFactory {
         return mTM;
     }
 
+    /**
+     * Server certificate chain rejected during a handshake.
+     *
+     * @hide
+     */
+    static class UntrustedServerCert {
+        private final X509Certificate[] mChain;
+        private final String mAuthType;
+
+        UntrustedServerCert(X509Certificate[] chain, String authType) {
+            mChain = chain;
+            mAuthType = authType;
+        }
+
+        X509Certificate[] getChain() {
+            return mChain;
+        }
+
+        String getAuthType() {
+            return mAuthType;
+        }
+    }
+
     /**
      * SDK TrustManager Impl
      *
@@ -232,11 +247,10 @@ public class OMSSLSocketFactory extends SSLSocketFactory {
         private X509TrustManager localTM = null;
         private X509TrustManager androidTM = null;
         private KeyStore trustStore;
-        private boolean isServerCertAllowed = false;
-        private boolean isServerCertUntrusted;
         private boolean isClientCertRequired;
-        private X509Certificate[] chain;
-        private String authType;
+        /* Per thread, as handshakes run on the thread making the request, and
+         * the socket factory may be shared by several connection handlers.*/
+        private final ThreadLocal<UntrustedServerCert> untrustedServerCert = new ThreadLocal<>();
 
         public OMTrustManager(KeyStore store) throws KeyStoreException, NoSuchAlgorithmException {
             if (store == null) {
@@ -247,7 +261,6 @@ public class OMSSLSocketFactory extends SSLSocketFactory {
             trustStore = store;
             localTM = getTrustManager(trustStore);
             isClientCertRequired = false;
-            isServerCertUntrusted = false;
         }
 
         private X509TrustManager getTrustManager(KeyStore keyStore)
@@ -260,20 +273,10 @@ public class OMSSLSocketFactory extends SSLSocketFactory {
             return (X509TrustManager) tmf.getTrustManagers()[0];
         }
 
-        void setServerCertAllowed(boolean flag) {
-            isServerCertAllowed = flag;
-        }
-
-        boolean isServerCertUntrusted() {
-            return isServerCertUntrusted;
-        }
-
-        X509Certificate[] getUntrustedServerCertChain() {
-            return this.chain;
-        }
-
-        String getAuthType() {
-            return authType;
+        UntrustedServerCert takeUntrustedServerCert() {
+            UntrustedServerCert cert = untrustedServerCert.get();
+            untrustedServerCert.remove();
+            return cert;
         }
 
         @Override
@@ -284,7 +287,7 @@ public class OMSSLSocketFactory extends SSLSocketFactory {
         @Override
         public void checkServerTrusted(X509Certificate[] chain, String authType) throws CertificateException {
             //first lets check the certificate trust in the System Trust Store.
-
+            untrustedServerCert.remove();
             try {
                 androidTM.checkServerTrusted(chain, authType);
             } catch (CertificateException e) {
@@ -304,16 +307,12 @@ public class OMSSLSocketFactory extends SSLSocketFactory {
                         mLogger.trace("[OMTrustManager] Cert trusted by local store");
                     } catch (CertificateException e1) {
                         mLogger.trace("[OMTrustManager] Cert not trusted in local store");
-                        isServerCertUntrusted = true;
-                        this.chain = chain;
-                        this.authType = authType;
+                        untrustedServerCert.set(new UntrustedServerCert(chain, authType));
                         throw e1;
                     }
                 } else {
                     mLogger.trace("[OMTrustStore] No certs available in local store");
-                    isServerCertUntrusted = true;
-                    this.chain = chain;
-                    this.authType = authType;
+                    untrustedServerCert.set(new UntrustedServerCert(chain, authType));
                     if (systemStoreException != null) {
                         throw systemStoreException;
                     } else {
@@ -321,9 +320,7 @@ public class OMSSLSocketFactory extends SSLSocketFactory {
                     }
                 }
             } catch (KeyStoreException e1) {
-                isServerCertUntrusted = true;
-                this.chain = chain;
-                this.authType = authType;
+                untrustedServerCert.set(new UntrustedServerCert(chain, authType));
                 throw new CertificateException(e1);
             }
 
@@ -52,6 +52,12 @@ public class OMCredentialStore
      */
     private static final String AUTH_CONTEXT_SUFFIX = "_AuthContext";
 
+    /**
+     * This separates the name of an authentication context record from the
+     * key of the authentication context it belongs to.
+     */
+    private static final String AUTH_CONTEXT_RECORD_SEPARATOR = "#";
+
     /**
      * This is appended with the key passed to store/retrieve/delete the configuration passed via URI to the SDK.
      */
@@ -592,6 +598,88 @@ public class OMCredentialStore
         {
             key = key + AUTH_CONTEXT_SUFFIX;
             deleteFromSecureStorage(key);
+            deleteAuthContextRecords(key);
+        }
+    }
+
+    /**
+     * Internal API to store one record of an authentication context which is
+     * persisted as separate records, e.g. its tokens. The records are deleted
+     * along with the authentication context by {@link #deleteAuthContext(String)}.
+     *
+     * @param key        key of the authentication context
+     * @param recordName name of the record
+     * @param value
+     * @hide
+     */
+    public void addAuthContextRecord(String key, String recordName, String value)
+    {
+        if (!TextUtils.isEmpty(key))
+        {
+            storeInSecureStorage(getAuthContextRecordId(key, recordName), value);
+        }
+    }
+
+    /**
+     * Internal API to retrieve one record of an authentication context stored
+     * using {@link #addAuthContextRecord(String, String, String)}.
+     *
+     * @param key        key of the authentication context
+     * @param recordName name of the record
+     * @return the record, or null if it is not stored
+     * @hide
+     */
+    public String getAuthContextRecord(String key, String recordName)
+    {
+        OMSecureStorageService sss = getSecureStorageService();
+        String record = null;
+        if (sss != null && !TextUtils.isEmpty(key))
+        {
+            try {
+                Serializable data = sss.get(getAuthContextRecordId(key, recordName));
+                if (data instanceof String) {
+                    record = (String) data;
+                }
+            } catch (OMSecureStorageException e) {
+                OMLog.error(TAG, e.getErrorDescription(), e);
+            }
+        }
+        return record;
+    }
+
+    /**
+     * Internal API to delete one record of an authentication context.
+     *
+     * @param key        key of the authentication context
+     * @param recordName name of the record
+     * @hide
+     */
+    public void deleteAuthContextRecord(String key, String recordName)
+    {
+        if (!TextUtils.isEmpty(key))
+        {
+            deleteFromSecureStorage(getAuthContextRecordId(key, recordName));
+        }
+    }
+
+    private String getAuthContextRecordId(String key, String recordName) {
+        return key + AUTH_CONTEXT_SUFFIX + AUTH_CONTEXT_RECORD_SEPARATOR + recordName;
+    }
+
+    private void deleteAuthContextRecords(String authContextId) {
+        Set<String> dataIds = getPreference().getStringSet(SECURE_STORAGE_DATA_IDS, null);
+        if (dataIds == null) {
+            return;
+        }
+        String recordIdPrefix = authContextId + AUTH_CONTEXT_RECORD_SEPARATOR;
+        Set<String> recordIds = new HashSet<>();
+        for (String dataId : dataIds) {
+            if (dataId.startsWith(recordIdPrefix)) {
+                recordIds.add(dataId);
+            }
+        }
+        if (!recordIds.isEmpty()) {
+            deleteFromSecureStorage(recordIds);
         }
     }
 
@@ -14,6 +14,7 @@ import java.io.StreamCorruptedException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -64,6 +65,17 @@ public class OMKeyStore implements Serializable {
         this.filePathSupport = new FilePathSupport(context);
     }
 
+    /**
+     * Holder of the keys read by {@link SecureStorageCodec}, in the same
+     * state as an instance restored by Java serialization.
+     */
+    /* package */ OMKeyStore(Map<String, byte[]> keys) {
+        this.context = null;
+        this.keyStoreId = null;
+        this.filePathSupport = null;
+        this.keys = keys;
+    }
+
     /* package */ void setEncryptionKey(Key encryptionKey) throws OMKeyManagerException {
         ensureValidState();
         this.encryptionKey = encryptionKey;
@@ -218,11 +230,20 @@ public class OMKeyStore implements Serializable {
 
         try {
             File keyStoreFile = filePathSupport.getKeyStoreFile(this.keyStoreId);
-            Serializable object = secureSerializationSupport.deserialize(keyStoreFile, this.encryptionKey);
-            OMKeyStore loaded = (OMKeyStore) object;
+            byte[] decrypted = secureSerializationSupport.decrypt(keyStoreFile, this.encryptionKey);
+            boolean legacyFormat = secureSerializationSupport.needsMigration(keyStoreFile, decrypted);
+            OMKeyStore loaded;
+            try {
+                loaded = (OMKeyStore) secureSerializationSupport.byteArrayToSerializable(decrypted);
+            } finally {
+                Arrays.fill(decrypted, (byte) 0);
+            }
             this.keys.clear();
             this.keys.putAll(loaded.keys);
             loaded.keys.clear();
+            if (legacyFormat) {
+                migrate();
+            }
             return this;
         } catch (StreamCorruptedException e) {
             throw new OMInvalidKeyException(OMErrorCode.INVALID_INPUT, e.getMessage(), e);
@@ -231,6 +252,17 @@ public class OMKeyStore implements Serializable {
         }
     }
 
+    /* Rewrites a key store saved by an older version of the SDK in the
+     * current format. It is still readable as is, hence failures are ignored.*/
+    private void migrate() {
+        try {
+            saveKeyStore();
+            OMLog.debug(TAG, "Migrated key store to the current storage format");
+        } catch (OMKeyManagerException e) {
+            OMLog.error(TAG, "Could not migrate key store: " + e.getMessage());
+        }
+    }
+
     /**
      * For each key id in keyIds, generates a random key.
      * @param keyIds
@@ -12,14 +12,21 @@ import android.text.TextUtils;
 import java.io.File;
 import java.io.Serializable;
 import java.security.Key;
+import java.util.Arrays;
 
 import oracle.idm.mobile.OMErrorCode;
+import oracle.idm.mobile.logging.OMLog;
 
 /**
  * Secure storage.
+ * <p>
+ * Decrypted entries are kept in a bounded memory only cache, which is
+ * invalidated when an entry is stored or deleted, and wiped by {@link #clearCache()}.
  */
 public class OMSecureStorageService {
 
+    private static final String TAG = OMSecureStorageService.class.getSimpleName();
+
     private final Context context;
     private final OMKeyStore keyStore;
     private final String keyId;
@@ -81,14 +88,45 @@ public class OMSecureStorageService {
             return null;
         }
 
+        byte[] decrypted = null;
         try {
-            return secureSerializationSupport.deserialize(file, getKey());
+            String filePath = file.getAbsolutePath();
+            String cacheKey = SecureStorageCache.getCacheKey(filePath,
+                    keyStore.getKeyStoreId(), keyId);
+            decrypted = SecureStorageCache.get(cacheKey);
+            boolean needsMigration = false;
+            if (decrypted == null) {
+                long version = SecureStorageCache.getVersion();
+                decrypted = secureSerializationSupport.decrypt(file, getKey());
+                needsMigration = secureSerializationSupport.needsMigration(file, decrypted);
+                SecureStorageCache.put(cacheKey, filePath, decrypted, version);
+            }
+            Serializable data = secureSerializationSupport.byteArrayToSerializable(decrypted);
+            if (needsMigration) {
+                migrate(dataId, data);
+            }
+            return data;
         } catch (Exception e) {
             throw new OMSecureStorageException(OMErrorCode.INTERNAL_ERROR, e.getMessage(), e);
+        } finally {
+            if (decrypted != null) {
+                Arrays.fill(decrypted, (byte) 0);
+            }
         }
     }
 
 
+    /* Rewrites data stored by an older version of the SDK in the current
+     * format. It is still readable as is, hence failures are ignored.*/
+    private void migrate(String dataId, Serializable data) {
+        try {
+            store(dataId, data);
+            OMLog.debug(TAG, "Migrated " + dataId + " to the current storage format");
+        } catch (OMSecureStorageException e) {
+            OMLog.error(TAG, "Could not migrate " + dataId + ": " + e.getMessage());
+        }
+    }
+
     /**
      * Stores data for specific dataId in secure storage. If we already have data stored under
      * the given id, it would be overwritten.
@@ -105,10 +143,15 @@ public class OMSecureStorageService {
             throw new NullPointerException("data cannot be null");
         }
 
+        File file = filePathSupport.getFileForDataId(dataId);
+        /* Invalidated before writing too, so that the old entry is not served meanwhile.*/
+        SecureStorageCache.invalidate(file.getAbsolutePath());
         try {
-            secureSerializationSupport.serialize(data, filePathSupport.getFileForDataId(dataId), getKey());
+            secureSerializationSupport.serialize(data, file, getKey());
         } catch (Exception e) {
             throw new OMSecureStorageException(OMErrorCode.INTERNAL_ERROR, e.getMessage(), e);
+        } finally {
+            SecureStorageCache.invalidate(file.getAbsolutePath());
         }
 
     }
@@ -122,7 +165,22 @@ public class OMSecureStorageService {
      */
     public boolean delete(String dataId) {
         File file = filePathSupport.getFileForDataId(dataId);
-        return file != null && file.exists() && file.delete();
+        if (file == null) {
+            return false;
+        }
+        SecureStorageCache.invalidate(file.getAbsolutePath());
+        return file.exists() && file.delete();
+    }
+
+    /**
+     * Wipes the decrypted entries kept in memory by all the instances. This
+     * should be called once the user logs out or local authentication is
+     * invalidated, so that stored data is decrypted again from then on.
+     *
+     * @hide
+     */
+    public static void clearCache() {
+        SecureStorageCache.clear();
     }
 
 }
@@ -6,24 +6,28 @@
 
 package oracle.idm.mobile.crypto;
 
+import java.io.BufferedOutputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
+import java.io.DataInputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
+import java.io.StreamCorruptedException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.Key;
 import java.security.NoSuchAlgorithmException;
 import java.security.SecureRandom;
+import java.util.Arrays;
 
+import javax.crypto.BadPaddingException;
 import javax.crypto.Cipher;
-import javax.crypto.CipherInputStream;
-import javax.crypto.CipherOutputStream;
+import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 import javax.crypto.spec.IvParameterSpec;
 
@@ -35,8 +39,12 @@ import oracle.idm.mobile.OMErrorCode;
  */
 /* package */ final class SecureSerializationSupport {
 
+    /* Used to read files written by older versions of the SDK, and to write
+     * files below API level 19. See SecureStorageContainer for the current format.*/
     public static final String AES_TRANSFORMATION = "AES/CBC/PKCS7Padding";
     public static final int IV_LENGTH = 16;
+    /* Suffix of the file written before being renamed over the destination.*/
+    private static final String TEMP_FILE_SUFFIX = ".tmp";
 
     /**
      * We don't liked to be instantiated outside our package.
@@ -53,32 +61,87 @@ import oracle.idm.mobile.OMErrorCode;
      * @throws Exception
      */
     public Serializable deserialize(File inputFile, Key decryptionKey) throws Exception {
-        FileInputStream fis = null;
-        ObjectInputStream ois = null;
-
+        byte[] decrypted = decrypt(inputFile, decryptionKey);
         try {
-            fis = new FileInputStream(inputFile);
-
-            // read the IV and hence move the fp to actual encrypted data
-            byte[] iv = new byte[SecureSerializationSupport.IV_LENGTH];
-            int read = fis.read(iv);
-            if (read != SecureSerializationSupport.IV_LENGTH) {
-                throw new OMKeyManagerException(OMErrorCode.IV_LENGTH_MUST_MATCH_ALGORITHM_BLOCK_SIZE,
-                        "Failed to read IV header from serialized file");
-            }
+            return byteArrayToSerializable(decrypted);
+        } finally {
+            Arrays.fill(decrypted, (byte) 0);
+        }
+    }
 
-            final IvParameterSpec ivSpec = new IvParameterSpec(iv);
-            Cipher cipher = getDecryptingCipher(decryptionKey, ivSpec);
+    /**
+     * Decrypts the given file that was written using
+     * {@link SecureSerializationSupport#serialize(Serializable, File, Key)} method,
+     * without deserializing the object.
+     * @param inputFile
+     * @param decryptionKey
+     * @return serialized form of the object
+     * @throws Exception
+     */
+    public byte[] decrypt(File inputFile, Key decryptionKey) throws Exception {
+        if (isContainer(inputFile)) {
+            return SecureStorageContainer.read(inputFile, decryptionKey);
+        }
+        return decryptLegacy(inputFile, decryptionKey);
+    }
 
-            ois = new ObjectInputStream(new CipherInputStream(fis, cipher));
-            Object object = ois.readObject();
-            return (Serializable) object;
+    /* Below API level 19, files are only written in the older format.*/
+    private boolean isContainer(File file) throws IOException {
+        return SecureStorageContainer.isSupported() && SecureStorageContainer.isContainer(file);
+    }
+
+    /* Files written by older versions of the SDK: AES-CBC after a plain IV.*/
+    private byte[] decryptLegacy(File inputFile, Key decryptionKey) throws Exception {
+        byte[] content;
+        DataInputStream in = new DataInputStream(new FileInputStream(inputFile));
+        try {
+            content = new byte[(int) inputFile.length()];
+            in.readFully(content);
         } finally {
-            closeQuietly(ois);
-            closeQuietly(fis);
+            closeQuietly(in);
+        }
+
+        // the IV is the header of the actual encrypted data
+        if (content.length < SecureSerializationSupport.IV_LENGTH) {
+            throw new OMKeyManagerException(OMErrorCode.IV_LENGTH_MUST_MATCH_ALGORITHM_BLOCK_SIZE,
+                    "Failed to read IV header from serialized file");
+        }
+        final IvParameterSpec ivSpec = new IvParameterSpec(content, 0, SecureSerializationSupport.IV_LENGTH);
+        Cipher cipher = getDecryptingCipher(decryptionKey, ivSpec);
+        try {
+            return cipher.doFinal(content, SecureSerializationSupport.IV_LENGTH,
+                    content.length - SecureSerializationSupport.IV_LENGTH);
+        } catch (BadPaddingException | IllegalBlockSizeException e) {
+            /* Wrong key or corrupted file, reported as such to callers like
+             * the GCM authentication failures of SecureStorageContainer.*/
+            StreamCorruptedException corrupted = new StreamCorruptedException(
+                    "Secure storage file could not be decrypted");
+            corrupted.initCause(e);
+            throw corrupted;
         }
     }
 
+    /**
+     * Reads a <code>Serializable</code> from the given byte array.
+     * @param bytes
+     * @return
+     */
+    public Serializable byteArrayToSerializable(byte[] bytes) throws IOException, ClassNotFoundException {
+        return SecureStorageCodec.decode(bytes);
+    }
+
+    /**
+     * Returns true if the given file, whose decrypted content is given, was
+     * written by an older version of the SDK and should be written again.
+     * @param file
+     * @param decrypted
+     * @return
+     */
+    public boolean needsMigration(File file, byte[] decrypted) throws IOException {
+        return SecureStorageCodec.isLegacyFormat(decrypted)
+                || (SecureStorageContainer.isSupported() && !SecureStorageContainer.isContainer(file));
+    }
+
     /**
      * Writes an object to the given file after encrypting it the with the given key.
      * @param data
@@ -87,25 +150,47 @@ import oracle.idm.mobile.OMErrorCode;
      * @throws Exception mainly IOException
      */
     public void serialize(Serializable data, File destFile, Key encryptionKey) throws Exception {
+        byte[] encoded = SecureStorageCodec.encode(data);
+        /* Written next to the destination and renamed over it once synced, so
+         * that a crash or a full disk leaves either the old or the new file.*/
+        File tempFile = new File(destFile.getParentFile(), destFile.getName() + TEMP_FILE_SUFFIX);
         FileOutputStream fos = null;
-        ObjectOutputStream oos = null;
+        boolean renamed = false;
         try {
-            fos = new FileOutputStream(destFile);
-
-            final IvParameterSpec iv = getRandomIv();
-            Cipher cipher = getEncryptingCipher(encryptionKey, iv);
-
-            // write unencrypted IV as the header
-            fos.write(iv.getIV());
-
-            oos = new ObjectOutputStream(new CipherOutputStream(fos, cipher));
-            oos.writeObject(data);
+            fos = new FileOutputStream(tempFile);
+            BufferedOutputStream out = new BufferedOutputStream(fos);
+            if (SecureStorageContainer.isSupported()) {
+                SecureStorageContainer.write(out, encryptionKey, encoded);
+            } else {
+                serializeLegacy(encoded, out, encryptionKey);
+            }
+            out.flush();
+            fos.getFD().sync();
+            fos.close();
+            fos = null;
+            if (!tempFile.renameTo(destFile)) {
+                throw new IOException("Failed to replace " + destFile.getName());
+            }
+            renamed = true;
         } finally {
-            closeQuietly(oos);
             closeQuietly(fos);
+            Arrays.fill(encoded, (byte) 0);
+            if (!renamed) {
+                tempFile.delete();
+            }
         }
     }
 
+    /* AES-CBC after a plain IV, as read by decryptLegacy.*/
+    private void serializeLegacy(byte[] encoded, OutputStream out, Key encryptionKey) throws Exception {
+        final IvParameterSpec iv = getRandomIv();
+        Cipher cipher = getEncryptingCipher(encryptionKey, iv);
+
+        // write unencrypted IV as the header
+        out.write(iv.getIV());
+        out.write(cipher.doFinal(encoded));
+    }
+
     /**
      * Tries to close any <code>Closeable</code> object if it's non-null ignoring any exceptions.
      * @param closeable
@@ -0,0 +1,135 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates.
+ * The Universal Permissive License (UPL), Version 1.0
+ */
+
+
+package oracle.idm.mobile.crypto;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Memory only cache of decrypted secure storage entries, shared by all
+ * {@link OMSecureStorageService} instances of the process. It holds the
+ * decrypted, still serialized, bytes of the most recently used entries, so
+ * that reading them again skips the disk and the cipher. As callers
+ * deserialize their own copy, cached entries cannot be modified by them.
+ * <p>
+ * Entries are keyed by the data file and the key used to decrypt it, hence
+ * a hit never yields data to a key store that could not decrypt it. The
+ * bytes of evicted entries are zeroed.
+ * <p>
+ * Entries decrypted while their file was being stored are not cached: the
+ * caller obtains {@link #getVersion()} before decrypting, and {@link #put}
+ * skips the entry if the file was invalidated since.
+ */
+/* package */ final class SecureStorageCache {
+
+    private static final int MAX_ENTRIES = 32;
+    private static final int MAX_ENTRY_SIZE = 64 * 1024;
+
+    private static final LinkedHashMap<String, byte[]> ENTRIES =
+            new LinkedHashMap<String, byte[]>(MAX_ENTRIES, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<String, byte[]> eldest) {
+                    if (size() > MAX_ENTRIES) {
+                        wipe(eldest.getValue());
+                        return true;
+                    }
+                    return false;
+                }
+            };
+
+    /* Incremented on each invalidation. INVALIDATED holds the value at the last
+     * invalidation of each data file; sClearedVersion the value at the last clear.*/
+    private static long sVersion;
+    private static long sClearedVersion;
+    private static final Map<String, Long> INVALIDATED = new HashMap<>();
+
+    private SecureStorageCache() {
+    }
+
+    static String getCacheKey(String filePath, String keyStoreId, String keyId) {
+        return filePath + '|' + keyStoreId + '|' + keyId;
+    }
+
+    /**
+     * Returns a copy of the cached entry, which the caller should zero once
+     * done, or null if it is not cached.
+     */
+    static byte[] get(String cacheKey) {
+        synchronized (ENTRIES) {
+            byte[] decrypted = ENTRIES.get(cacheKey);
+            return decrypted != null ? decrypted.clone() : null;
+        }
+    }
+
+    /**
+     * Returns the version to be passed to {@link #put}, to be obtained before
+     * reading the data file.
+     */
+    static long getVersion() {
+        synchronized (ENTRIES) {
+            return sVersion;
+        }
+    }
+
+    /**
+     * Caches a copy of the given entry, unless it is too large or the data file
+     * was invalidated after the given version was obtained.
+     */
+    static void put(String cacheKey, String filePath, byte[] decrypted, long version) {
+        if (decrypted.length > MAX_ENTRY_SIZE) {
+            return;
+        }
+        synchronized (ENTRIES) {
+            Long invalidated = INVALIDATED.get(filePath);
+            if (sClearedVersion > version || (invalidated != null && invalidated > version)) {
+                return;
+            }
+            wipe(ENTRIES.put(cacheKey, decrypted.clone()));
+        }
+    }
+
+    /**
+     * Removes the entries of the given data file, whichever the key.
+     */
+    static void invalidate(String filePath) {
+        String prefix = filePath + '|';
+        synchronized (ENTRIES) {
+            INVALIDATED.put(filePath, ++sVersion);
+            Iterator<Map.Entry<String, byte[]>> iterator = ENTRIES.entrySet().iterator();
+            while (iterator.hasNext()) {
+                Map.Entry<String, byte[]> entry = iterator.next();
+                if (entry.getKey().startsWith(prefix)) {
+                    wipe(entry.getValue());
+                    iterator.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Removes and zeroes all the entries.
+     */
+    static void clear() {
+        synchronized (ENTRIES) {
+            sClearedVersion = ++sVersion;
+            INVALIDATED.clear();
+            for (byte[] decrypted : ENTRIES.values()) {
+                wipe(decrypted);
+            }
+            ENTRIES.clear();
+        }
+    }
+
+    private static void wipe(byte[] decrypted) {
+        if (decrypted != null) {
+            Arrays.fill(decrypted, (byte) 0);
+        }
+    }
+}
@@ -0,0 +1,237 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates.
+ * The Universal Permissive License (UPL), Version 1.0
+ */
+
+
+package oracle.idm.mobile.crypto;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.StreamCorruptedException;
+import java.nio.charset.Charset;
+import java.util.HashMap;
+import java.util.Map;
+
+import oracle.idm.mobile.credentialstore.OMCredential;
+
+/**
+ * Binary format of the objects written by {@link SecureSerializationSupport},
+ * before they are encrypted. Each stored type has its own codec writing its
+ * fields explicitly, after a header made of {@link #MAGIC}, the format
+ * {@link #VERSION} and the type tag:
+ * <ul>
+ * <li>{@link String}, e.g. the serialized authentication context</li>
+ * <li>byte[]</li>
+ * <li>{@link OMCredential}</li>
+ * <li>{@link OMKeyStore}</li>
+ * </ul>
+ * Other types are still written using Java serialization, wrapped in the
+ * same header.
+ * <p>
+ * Data written by older versions of the SDK is plain Java serialization,
+ * which never starts with {@link #MAGIC}; such data is still read, and
+ * reported by {@link #isLegacyFormat(byte[])} so that it can be rewritten.
+ */
+/* package */ final class SecureStorageCodec {
+
+    private static final byte[] MAGIC = {'O', 'M', 'S', 'S'};
+    private static final int VERSION = 1;
+    private static final int HEADER_LENGTH = MAGIC.length + 2;
+
+    private static final int TYPE_SERIALIZABLE = 0;
+    private static final int TYPE_STRING = 1;
+    private static final int TYPE_BYTES = 2;
+    private static final int TYPE_CREDENTIAL = 3;
+    private static final int TYPE_KEY_STORE = 4;
+
+    private static final int NULL_LENGTH = -1;
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private SecureStorageCodec() {
+    }
+
+    /**
+     * Returns true if the given data was not written by this codec, but by
+     * Java serialization as done by older versions of the SDK.
+     */
+    static boolean isLegacyFormat(byte[] bytes) {
+        if (bytes.length < HEADER_LENGTH) {
+            return true;
+        }
+        for (int i = 0; i < MAGIC.length; i++) {
+            if (bytes[i] != MAGIC[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    static byte[] encode(Serializable data) throws IOException {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bos);
+        out.write(MAGIC);
+        out.writeByte(VERSION);
+        if (data instanceof String) {
+            out.writeByte(TYPE_STRING);
+            writeString(out, (String) data);
+        } else if (data instanceof byte[]) {
+            out.writeByte(TYPE_BYTES);
+            writeBytes(out, (byte[]) data);
+        } else if (data != null && data.getClass() == OMCredential.class) {
+            out.writeByte(TYPE_CREDENTIAL);
+            writeCredential(out, (OMCredential) data);
+        } else if (data instanceof OMKeyStore) {
+            out.writeByte(TYPE_KEY_STORE);
+            writeKeyStore(out, (OMKeyStore) data);
+        } else {
+            out.writeByte(TYPE_SERIALIZABLE);
+            ObjectOutputStream oos = new ObjectOutputStream(out);
+            oos.writeObject(data);
+            oos.flush();
+        }
+        out.flush();
+        return bos.toByteArray();
+    }
+
+    static Serializable decode(byte[] bytes) throws IOException, ClassNotFoundException {
+        if (isLegacyFormat(bytes)) {
+            return readSerializable(new ByteArrayInputStream(bytes));
+        }
+
+        DataInputStream in = new DataInputStream(new ByteArrayInputStream(bytes));
+        in.skipBytes(MAGIC.length);
+        int version = in.readUnsignedByte();
+        if (version > VERSION) {
+            throw new StreamCorruptedException("Unsupported secure storage format version " + version);
+        }
+        int type = in.readUnsignedByte();
+        switch (type) {
+            case TYPE_STRING:
+                return readString(in);
+            case TYPE_BYTES:
+                return readBytes(in);
+            case TYPE_CREDENTIAL:
+                return readCredential(in);
+            case TYPE_KEY_STORE:
+                return readKeyStore(in);
+            case TYPE_SERIALIZABLE:
+                return readSerializable(in);
+            default:
+                throw new StreamCorruptedException("Unknown secure storage entry type " + type);
+        }
+    }
+
+    private static void writeCredential(DataOutputStream out, OMCredential credential)
+            throws IOException {
+        writeString(out, credential.getUserName());
+        /* Written char by char, so that the password never lives in a String.*/
+        char[] password = credential.getRawUserPasswordAsCharArray();
+        if (password == null) {
+            out.writeInt(NULL_LENGTH);
+        } else {
+            out.writeInt(password.length);
+            for (char c : password) {
+                out.writeChar(c);
+            }
+        }
+        writeString(out, credential.getIdentityDomain());
+        Map<String, String> properties = credential.getProperties();
+        out.writeInt(properties.size());
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            writeString(out, property.getKey());
+            writeString(out, property.getValue());
+        }
+    }
+
+    private static OMCredential readCredential(DataInputStream in) throws IOException {
+        String userName = readString(in);
+        char[] password = null;
+        int passwordLength = in.readInt();
+        if (passwordLength != NULL_LENGTH) {
+            checkLength(in, passwordLength * 2);
+            password = new char[passwordLength];
+            for (int i = 0; i < passwordLength; i++) {
+                password[i] = in.readChar();
+            }
+        }
+        String identityDomain = readString(in);
+        int propertyCount = in.readInt();
+        Map<String, String> properties = new HashMap<>();
+        for (int i = 0; i < propertyCount; i++) {
+            properties.put(readString(in), readString(in));
+        }
+        return new OMCredential(userName, password, identityDomain, properties);
+    }
+
+    private static void writeKeyStore(DataOutputStream out, OMKeyStore keyStore)
+            throws IOException {
+        out.writeInt(keyStore.keys.size());
+        for (Map.Entry<String, byte[]> key : keyStore.keys.entrySet()) {
+            writeString(out, key.getKey());
+            writeBytes(out, key.getValue());
+        }
+    }
+
+    private static OMKeyStore readKeyStore(DataInputStream in) throws IOException {
+        int keyCount = in.readInt();
+        Map<String, byte[]> keys = new HashMap<>();
+        for (int i = 0; i < keyCount; i++) {
+            keys.put(readString(in), readBytes(in));
+        }
+        return new OMKeyStore(keys);
+    }
+
+    private static Serializable readSerializable(InputStream in)
+            throws IOException, ClassNotFoundException {
+        ObjectInputStream ois = new ObjectInputStream(in);
+        try {
+            return (Serializable) ois.readObject();
+        } finally {
+            ois.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String value) throws IOException {
+        writeBytes(out, value != null ? value.getBytes(UTF_8) : null);
+    }
+
+    private static String readString(DataInputStream in) throws IOException {
+        byte[] bytes = readBytes(in);
+        return bytes != null ? new String(bytes, UTF_8) : null;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] value) throws IOException {
+        if (value == null) {
+            out.writeInt(NULL_LENGTH);
+            return;
+        }
+        out.writeInt(value.length);
+        out.write(value);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length == NULL_LENGTH) {
+            return null;
+        }
+        checkLength(in, length);
+        byte[] value = new byte[length];
+        in.readFully(value);
+        return value;
+    }
+
+    /* Guards against allocating huge arrays for a corrupted length.*/
+    private static void checkLength(DataInputStream in, int length) throws IOException {
+        if (length < 0 || length > in.available()) {
+            throw new StreamCorruptedException("Invalid length " + length);
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (c) 2017, Oracle and/or its affiliates.
+ * The Universal Permissive License (UPL), Version 1.0
+ */
+
+
+package oracle.idm.mobile.crypto;
+
+import android.os.Build;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.io.StreamCorruptedException;
+import java.nio.ByteBuffer;
+import java.security.GeneralSecurityException;
+import java.security.Key;
+import java.security.SecureRandom;
+import java.util.Arrays;
+
+import javax.crypto.AEADBadTagException;
+import javax.crypto.Cipher;
+import javax.crypto.spec.GCMParameterSpec;
+
+/**
+ * Encrypted file format of secure storage, made of a header followed by the
+ * plain text encrypted and authenticated using AES-GCM:
+ * <pre>
+ * magic (8) | version (1) | nonce (12)
+ * cipher text | tag (16)
+ * </pre>
+ * The header is authenticated along with the cipher text, so neither can be
+ * modified undetected. Entries are small and always read whole, hence they are
+ * sealed at once rather than in separately authenticated chunks.
+ * <p>
+ * Files written by older versions of the SDK, AES-CBC encrypted after a
+ * random IV, are told apart by the {@link #MAGIC} they do not start with.
+ * AES-GCM requires API level 19, see {@link #isSupported()}; below that, files
+ * are still written in the older format.
+ */
+/* package */ final class SecureStorageContainer {
+
+    private static final String TRANSFORMATION = "AES/GCM/NoPadding";
+    private static final byte[] MAGIC = {'O', 'M', 'S', 'S', 'G', 'C', 'M', 0};
+    private static final int VERSION = 1;
+    private static final int NONCE_LENGTH = 12;
+    private static final int TAG_LENGTH = 16;
+    private static final int HEADER_LENGTH = MAGIC.length + 1 + NONCE_LENGTH;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private SecureStorageContainer() {
+    }
+
+    /**
+     * Returns true if files can be read and written by this class, which
+     * relies on {@link GCMParameterSpec} and {@link AEADBadTagException}.
+     */
+    static boolean isSupported() {
+        return Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT;
+    }
+
+    /**
+     * Returns true if the given file was written by {@link #write(OutputStream, Key, byte[])}.
+     */
+    static boolean isContainer(File file) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < HEADER_LENGTH) {
+                return false;
+            }
+            byte[] magic = new byte[MAGIC.length];
+            raf.readFully(magic);
+            return Arrays.equals(magic, MAGIC);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Encrypts the given plain text to the given stream, which is not closed.
+     */
+    static void write(OutputStream out, Key key, byte[] plainText) throws IOException,
+            GeneralSecurityException {
+        byte[] nonce = new byte[NONCE_LENGTH];
+        RANDOM.nextBytes(nonce);
+        byte[] header = ByteBuffer.allocate(HEADER_LENGTH).put(MAGIC).put((byte) VERSION)
+                .put(nonce).array();
+
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.ENCRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, nonce));
+        cipher.updateAAD(header);
+        out.write(header);
+        out.write(cipher.doFinal(plainText));
+    }
+
+    /**
+     * Decrypts and verifies the whole content of the given file.
+     */
+    static byte[] read(File file, Key key) throws IOException, GeneralSecurityException {
+        byte[] content;
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        try {
+            if (raf.length() < HEADER_LENGTH + TAG_LENGTH || raf.length() > Integer.MAX_VALUE) {
+                throw new StreamCorruptedException("Invalid secure storage file length");
+            }
+            content = new byte[(int) raf.length()];
+            raf.readFully(content);
+        } finally {
+            raf.close();
+        }
+
+        int version = content[MAGIC.length] & 0xFF;
+        if (version > VERSION) {
+            throw new StreamCorruptedException("Unsupported secure storage file version " + version);
+        }
+        Cipher cipher = Cipher.getInstance(TRANSFORMATION);
+        cipher.init(Cipher.DECRYPT_MODE, key, new GCMParameterSpec(TAG_LENGTH * 8, content,
+                MAGIC.length + 1, NONCE_LENGTH));
+        cipher.updateAAD(content, 0, HEADER_LENGTH);
+        try {
+            return cipher.doFinal(content, HEADER_LENGTH, content.length - HEADER_LENGTH);
+        } catch (AEADBadTagException e) {
+            /* Wrong key or tampered file, reported as such to callers.*/
+            StreamCorruptedException corrupted = new StreamCorruptedException(
+                    "Secure storage file could not be authenticated");
+            corrupted.initCause(e);
+            throw corrupted;
+        }
+    }
+}
@@ -60,13 +60,14 @@ public class DefaultAuthenticationUtils {
 
     /**
      * Initializes OMDefaultAuthenticator as per SDK requirements.
+     * Serialized, as setup initializes it alongside the first use of the credential store.
      *
      * @param context
      * @param defaultAuthenticator
      * @throws OMKeyManagerException
      * @throws OMAuthenticationManagerException
      */
-    public static void initializeDefaultAuthenticator(Context context, OMDefaultAuthenticator defaultAuthenticator) throws OMKeyManagerException, OMAuthenticationManagerException {
+    public static synchronized void initializeDefaultAuthenticator(Context context, OMDefaultAuthenticator defaultAuthenticator) throws OMKeyManagerException, OMAuthenticationManagerException {
         if (!defaultAuthenticator.isInitialized()) {
             try {
                 OMAuthenticationPolicy authenticationPolicy = new OMAuthenticationPolicy();
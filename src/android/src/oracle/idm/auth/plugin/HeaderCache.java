@@ -0,0 +1,174 @@
+/**
+ * Copyright (c) 2017, Oracle and/or its affiliates.
+ * The Universal Permissive License (UPL), Version 1.0
+ */
+package oracle.idm.auth.plugin;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.cordova.CallbackContext;
+
+/**
+ * Headers returned by {@link IdmAuthentication#getHeaders}, cached per set of scopes and URL, so that they are not
+ * built again for each request of the JS layer. Headers carrying an expiry time are cached until then. Cookie derived
+ * headers are not cached, see {@link IdmAuthentication#getHeaders}.
+ * The cache is invalidated whenever the headers may change: login, logout, timeout and token refresh.
+ * Also holds the JS callbacks to which fresh headers are pushed once invalidated.
+ */
+class HeaderCache
+{
+  /**
+   * Key of the headers for the passed URL and scopes.
+   * @param url
+   * @param scopes
+   * @return
+   */
+  static String getKey(String url, Set<String> scopes)
+  {
+    StringBuilder key = new StringBuilder();
+    if (scopes != null)
+    {
+      // Sorted, as the same scopes may be passed in any order.
+      for (String scope : new TreeSet<String>(scopes))
+      {
+        key.append(scope).append(' ');
+      }
+    }
+    return key.append('|').append(url).toString();
+  }
+
+  /**
+   * Number which changes whenever the cache is invalidated, to be obtained before building headers to be cached.
+   * @return
+   */
+  synchronized long getGeneration()
+  {
+    return _generation;
+  }
+
+  /**
+   * Looks up headers.
+   * @param key
+   * @return a copy of the headers, null if not cached or expired.
+   */
+  synchronized Map<String, Object> get(String key)
+  {
+    Entry entry = _entries.get(key);
+    if (entry == null)
+    {
+      return null;
+    }
+    if (System.currentTimeMillis() >= entry.expiresAt)
+    {
+      _entries.remove(key);
+      return null;
+    }
+    return new HashMap<String, Object>(entry.headers);
+  }
+
+  /**
+   * Caches headers, unless the cache was invalidated since they were built.
+   * @param key
+   * @param headers
+   * @param generation value of {@link #getGeneration()} before building the headers.
+   */
+  synchronized void put(String key, Map<String, Object> headers, long generation)
+  {
+    if (generation != _generation)
+    {
+      return;
+    }
+    long expiresAt = Long.MAX_VALUE;
+    Object expiryTime = headers.get(_EXPIRY_TIME);
+    if (expiryTime instanceof Date)
+    {
+      expiresAt = ((Date) expiryTime).getTime();
+    }
+    _entries.put(key, new Entry(new HashMap<String, Object>(headers), expiresAt));
+  }
+
+  /**
+   * Drops all cached headers.
+   */
+  synchronized void invalidate()
+  {
+    _generation++;
+    _entries.clear();
+  }
+
+  /**
+   * Registers a callback to which headers for the passed URL and scopes are pushed. There can be several callbacks
+   * for the same headers, as flows created with the same properties share the auth.
+   * @param callbackContext
+   * @param url
+   * @param scopes
+   */
+  synchronized void addCallback(CallbackContext callbackContext, String url, Set<String> scopes)
+  {
+    _callbacks.add(new HeadersCallback(callbackContext, url, scopes));
+  }
+
+  /**
+   * Drops all the registered callbacks.
+   */
+  synchronized void removeCallbacks()
+  {
+    _callbacks.clear();
+  }
+
+  synchronized List<HeadersCallback> getCallbacks()
+  {
+    return new ArrayList<HeadersCallback>(_callbacks);
+  }
+
+  /**
+   * A JS callback to which fresh headers are pushed.
+   */
+  static class HeadersCallback
+  {
+    HeadersCallback(CallbackContext callbackContext, String url, Set<String> scopes)
+    {
+      this.callbackContext = callbackContext;
+      this.url = url;
+      this.scopes = scopes;
+    }
+
+    final CallbackContext callbackContext;
+    final String url;
+    final Set<String> scopes;
+  }
+
+  private static class Entry
+  {
+    Entry(Map<String, Object> headers, long expiresAt)
+    {
+      this.headers = headers;
+      this.expiresAt = expiresAt;
+    }
+
+    final Map<String, Object> headers;
+    final long expiresAt;
+  }
+
+  private long _generation;
+  private final List<HeadersCallback> _callbacks = new ArrayList<HeadersCallback>();
+  // Least recently used first, the eldest is dropped beyond _MAX_ENTRIES, e.g. when headers are asked for many URLs.
+  private final Map<String, Entry> _entries = new LinkedHashMap<String, Entry>(16, 0.75f, true)
+  {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest)
+    {
+      return size() > _MAX_ENTRIES;
+    }
+  };
+
+  private static final int _MAX_ENTRIES = 32;
+  private static final String _EXPIRY_TIME = "ExpiryTime";
+}
@@ -6,7 +6,8 @@ package oracle.idm.auth.plugin;
 
 import java.io.UnsupportedEncodingException;
 import java.util.*;
-import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.RejectedExecutionException;
 
 import android.content.BroadcastReceiver;
 import android.content.Context;
@@ -33,8 +34,10 @@ import oracle.idm.mobile.auth.OMToken;
 import oracle.idm.mobile.auth.logout.OMLogoutCompletionHandler;
 import oracle.idm.mobile.callback.OMAuthenticationContextCallback;
 import oracle.idm.mobile.callback.OMMobileSecurityServiceCallback;
+import oracle.idm.mobile.callback.OMTokenRefreshCallback;
 import oracle.idm.mobile.certificate.ClientCertificatePreference;
 import oracle.idm.mobile.configuration.OMMobileSecurityConfiguration;
+import oracle.idm.mobile.connection.OMHTTPRequestExecutor;
 
 import org.apache.cordova.CallbackContext;
 import org.apache.cordova.PluginResult;
@@ -50,7 +53,8 @@ import android.util.Base64;
 /**
  * This class interfaces with Android IDM SDK and performs authentication operations such as login, logout etc.
  */
-public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAuthenticationContextCallback
+public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAuthenticationContextCallback,
+                                          OMTokenRefreshCallback
 {
   /**
    * Constructor - for each authentication
@@ -78,35 +82,87 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
   }
 
   /**
-   * Set up the IDM OMMSS instance.
-   * @param callback for communicating success or error.
-   * @return
+   * Set up the IDM OMMSS instance. Returns without waiting for IDM to complete the setup, which may take
+   * network round trips, so that the calling thread is not blocked.
+   * @param listener notified once the setup completes, successfully or not.
    */
-  public boolean setup(final CallbackContext callback)
+  public void setup(final SetupListener listener)
   {
     Log.d(TAG, "Setting up OMMSS instance with: " + _props);
+    _setupListener = listener;
     try
     {
       _ommss = new OMMobileSecurityService(_mainActivity, _props, this);
+      _ommss.setTokenRefreshCallback(this);
       _ommss.setup();
-      _setupLatch.await();
+    }
+    catch (OMMobileSecurityException securityEx)
+    {
+      Log.e(TAG, "Error while setting up OMMSS instance.");
+      _setupListener = null;
+      listener.onSetupCompleted(this, securityEx);
+    }
+  }
 
-      if (_setupException != null)
+  /**
+   * Releases what this auth holds on to: SDK callbacks and timers, the webview broadcast receiver and the custom
+   * tabs connection. The auth cannot be used afterwards.
+   */
+  void dispose()
+  {
+    Log.d(TAG, "Disposing auth.");
+    _setupListener = null;
+    removeCallbacks();
+    _headerCache.invalidate();
+    if (_ommss != null)
+    {
+      _ommss.setAuthenticationContextCallback(null);
+      _ommss.setTokenRefreshCallback(null);
+      try
+      {
+        OMAuthenticationContext context = _ommss.retrieveAuthenticationContext();
+        if (context != null && context.getTimeoutManager() != null)
+        {
+          context.getTimeoutManager().stopTimers();
+        }
+      }
+      catch (OMMobileSecurityException securityEx)
       {
-        throw _setupException;
+        Log.w(TAG, "Could not stop the timers of the auth: " + securityEx.getMessage());
       }
     }
-    catch (OMMobileSecurityException securityEx)
+    _mainActivity.runOnUiThread(() -> {
+      _localBroadcastManager.unregisterReceiver(_broadcastReceiver);
+      unbindChromeTabs();
+    });
+  }
+
+  /**
+   * Drops the timeout and headers callbacks, once no JS flow holds this auth any more.
+   */
+  void removeCallbacks()
+  {
+    _timeoutCallbacks.clear();
+    _headerCache.removeCallbacks();
+  }
+
+  /**
+   * @return true while a login or logout is waiting for completion, in which case the auth should not be disposed.
+   */
+  boolean isBusy()
+  {
+    synchronized (_logoutCallbacks)
     {
-      Log.e(TAG, "Error while setting up OMMSS instance.");
-      IdmAuthenticationPlugin.invokeCallbackError(callback, securityEx);
-      return false;
-    } catch (InterruptedException e) {
-      Log.e(TAG, "Error while setting up OMMSS instance.");
-      IdmAuthenticationPlugin.invokeCallbackError(callback, PluginErrorCodes.SETUP_ERROR);
-      return false;
+      return _loginCallback != null || !_logoutCallbacks.isEmpty();
     }
-    return true;
+  }
+
+  /**
+   * @return the activity this auth was created for.
+   */
+  Activity getActivity()
+  {
+    return _mainActivity;
   }
 
   /**
@@ -116,26 +172,33 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
   public void startLogin(final CallbackContext loginCallback)
   {
     Log.d(TAG, "Start login process.");
+    CallbackContext replacedCallback = _loginCallback;
     _loginCallback = loginCallback;
-    _mainActivity.runOnUiThread(() -> {
-      try
-      {
-        _ommss.authenticate();
-      }
-      catch (OMMobileSecurityException securityEx)
+    if (replacedCallback != null)
+    {
+      // A login in progress, possibly of another JS flow sharing this auth, is replaced by this one. Ignored by
+      // cordova if that callback was already answered with a challenge.
+      IdmAuthenticationPlugin.invokeCallbackError(replacedCallback, PluginErrorCodes.AUTHENTICATION_CANCELLED);
+    }
+    try
+    {
+      _ommss.authenticate();
+    }
+    catch (OMMobileSecurityException securityEx)
+    {
+      Log.e(TAG, "Error while login: " + securityEx.getMessage());
+      if (_loginCallback == loginCallback)
       {
-        Log.e(TAG, "Error while login: " + securityEx.getMessage());
-        IdmAuthenticationPlugin.invokeCallbackError(loginCallback, securityEx);
+        _loginCallback = null;
       }
-    });
+      IdmAuthenticationPlugin.invokeCallbackError(loginCallback, securityEx);
+    }
   }
 
   public void cancelLogin(final CallbackContext loginCallback) {
     Log.d(TAG, "Cancel login.");
     _loginCallback = loginCallback;
-    _mainActivity.runOnUiThread(() -> {
-      _completionHandler.cancel();
-    });
+    _runForChallenge(() -> _completionHandler.cancel());
     Log.d(TAG, "Cancel login process completed.");
   }
 
@@ -149,39 +212,54 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
     Log.d(TAG, "Finish login process.");
     _loginCallback = loginCallback;
     final Map<String, Object> challengeFields = new HashMap<String, Object>();
-    _mainActivity.runOnUiThread(() -> {
-      Iterator<String> it = challengeFieldsJson.keys();
-      while (it.hasNext())
-      {
-        String key = it.next();
-        Object value = challengeFieldsJson.opt(key);
-        if (value == JSONObject.NULL)
-          value = null;
+    Iterator<String> it = challengeFieldsJson.keys();
+    while (it.hasNext())
+    {
+      String key = it.next();
+      Object value = challengeFieldsJson.opt(key);
+      if (value == JSONObject.NULL)
+        value = null;
 
-        if(key.equals(OMSecurityConstants.Challenge.PASSWORD_KEY_2))
-        {
-          String passwordAsString = (String) challengeFieldsJson.opt(OMSecurityConstants.Challenge.PASSWORD_KEY);
-          if(passwordAsString != null) {
-            char[] passwordAsCharArray = passwordAsString.toCharArray();
-            value = passwordAsCharArray;
-          }
+      if(key.equals(OMSecurityConstants.Challenge.PASSWORD_KEY_2))
+      {
+        String passwordAsString = (String) challengeFieldsJson.opt(OMSecurityConstants.Challenge.PASSWORD_KEY);
+        if(passwordAsString != null) {
+          char[] passwordAsCharArray = passwordAsString.toCharArray();
+          value = passwordAsCharArray;
         }
-        challengeFields.put(key, value);
       }
-      _completionHandler.proceed(challengeFields);
-    });
+      challengeFields.put(key, value);
+    }
+    _runForChallenge(() -> _completionHandler.proceed(challengeFields));
   }
 
   /**
-   * Initiate logout.
+   * Initiate logout. A logout with the same forget value as the one in progress, e.g. from another JS flow sharing
+   * this auth, completes along with it.
    * @param logoutCallback executed when IDM invokes onLogoutCompleted.
    * @param forget whether to forget the auth details.
    */
   public void logout(final CallbackContext logoutCallback, boolean forget)
   {
     Log.d(TAG, "Logout invoked with forget: " + forget);
-    _logoutCallback = logoutCallback;
-    _mainActivity.runOnUiThread(() -> _ommss.logout(forget));
+    synchronized (_logoutCallbacks)
+    {
+      if (!_logoutCallbacks.isEmpty())
+      {
+        if (forget != _logoutForget)
+        {
+          IdmAuthenticationPlugin.invokeCallbackError(logoutCallback, OMErrorCode.LOGOUT_IN_PROGRESS.getErrorCode());
+          return;
+        }
+        Log.d(TAG, "Joining the logout in progress.");
+        _logoutCallbacks.add(logoutCallback);
+        return;
+      }
+      _logoutCallbacks.add(logoutCallback);
+      _logoutForget = forget;
+    }
+    // IDM posts the loading of the logout URL in the webview to the UI thread itself.
+    _ommss.logout(forget);
   }
 
   /**
@@ -238,13 +316,14 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
   }
 
   /**
-   * Invoked during init, if the user wants to register a callback for timeouts.
+   * Invoked during init, if the user wants to register a callback for timeouts. There can be several callbacks, as
+   * JS flows created with the same properties share the auth.
    * @param callbackContext executed when IDM invokes onTimeout.
    */
   public void addTimeoutCallback(CallbackContext callbackContext)
   {
     Log.d(TAG, "Adding timeout callback.");
-    _timeoutCallback = callbackContext;
+    _timeoutCallbacks.add(callbackContext);
     _ommss.setAuthenticationContextCallback(this);
   }
 
@@ -256,30 +335,28 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
   public void resetIdleTimeout(final CallbackContext callbackContext)
   {
     Log.d(TAG, "Resetting idle timeout.");
-    _mainActivity.runOnUiThread(() -> {
-      try
+    try
+    {
+      OMAuthenticationContext authContext = _ommss.retrieveAuthenticationContext();
+      boolean resetSuccess = authContext.resetTimer();
+      if (resetSuccess)
       {
-        OMAuthenticationContext authContext = _ommss.retrieveAuthenticationContext();
-        boolean resetSuccess = authContext.resetTimer();
-        if (resetSuccess)
-        {
-          callbackContext.success();
-        }
-        else
-        {
-          //
-          // There is no error code for this scenario in the wiki.
-          //
-          Log.d(TAG, "Resetting idle timeout failed.");
-          IdmAuthenticationPlugin.invokeCallbackError(callbackContext, PluginErrorCodes.IDLE_TIMEOUT_RESET_FAILED);
-        }
+        callbackContext.success();
       }
-      catch (OMMobileSecurityException securityEx)
+      else
       {
-        Log.e(TAG, "Error while resetting idle timeout: " + securityEx.getMessage());
-        IdmAuthenticationPlugin.invokeCallbackError(callbackContext, securityEx);
+        //
+        // There is no error code for this scenario in the wiki.
+        //
+        Log.d(TAG, "Resetting idle timeout failed.");
+        IdmAuthenticationPlugin.invokeCallbackError(callbackContext, PluginErrorCodes.IDLE_TIMEOUT_RESET_FAILED);
       }
-    });
+    }
+    catch (OMMobileSecurityException securityEx)
+    {
+      Log.e(TAG, "Error while resetting idle timeout: " + securityEx.getMessage());
+      IdmAuthenticationPlugin.invokeCallbackError(callbackContext, securityEx);
+    }
   }
 
   /**
@@ -292,37 +369,13 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
     Log.d(TAG, "Getting headers.");
     try
     {
-      OMAuthenticationContext context = _ommss.retrieveAuthenticationContext();
+      Map<String, Object> headers = _getHeaders(fedAuthSecuredUrl, scopes);
 
-      if (context == null) {
+      if (headers == null) {
         IdmAuthenticationPlugin.invokeCallbackError(callbackContext, PluginErrorCodes.NO_AUTH_CONTEXT);
         return;
       }
 
-      Map<String, Object> headers = new HashMap<String, Object>();
-
-      switch(_authType)
-      {
-        case HTTPBasicAuth:
-          headers = _fetchBasicAuthHeaders(context);
-          break;
-        case OAuth20:
-        case OpenIDConnect10:
-          headers = _fetchOauthHeaders(context, scopes);
-          break;
-        case FederatedAuth:
-          if (isSamlFlow())
-          {
-            headers.putAll(_fetchOauthHeaders(context, scopes));
-          }
-          if (fedAuthSecuredUrl != null)
-          {
-            headers.putAll(context.getRequestParams(fedAuthSecuredUrl, false));
-          }
-          break;
-      }
-
-      headers.putAll(context.getCustomHeaders());
       callbackContext.success(new JSONObject(headers));
     }
     catch (OMMobileSecurityException securityEx)
@@ -332,6 +385,135 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
     }
   }
 
+  /**
+   * Registers a callback to which the headers are pushed whenever they change, i.e. after login, logout, timeout
+   * or token refresh, so that the JS layer can keep its own copy of the headers.
+   * @param callbackContext kept, receives the headers or the error obtaining them.
+   * @param fedAuthSecuredUrl URL for which cookies and headers are requested. To be passed only for federated auth cases.
+   */
+  public void addHeadersCallback(CallbackContext callbackContext, String fedAuthSecuredUrl, Set<String> scopes)
+  {
+    Log.d(TAG, "Adding headers callback.");
+    _headerCache.addCallback(callbackContext, fedAuthSecuredUrl, scopes);
+  }
+
+  /**
+   * Obtains the headers from the cache, or builds them from the auth context and caches them. Headers carrying the
+   * cookies of a FederatedAuth secured URL are not cached, as cookies may change or expire at any time.
+   * @param fedAuthSecuredUrl
+   * @param scopes
+   * @return the headers, null if there is no auth context.
+   * @throws OMMobileSecurityException
+   */
+  private Map<String, Object> _getHeaders(String fedAuthSecuredUrl, Set<String> scopes)
+      throws OMMobileSecurityException
+  {
+    String key = HeaderCache.getKey(fedAuthSecuredUrl, scopes);
+    Map<String, Object> headers = _headerCache.get(key);
+    if (headers != null)
+    {
+      Log.d(TAG, "Returning cached headers.");
+      return headers;
+    }
+
+    long generation = _headerCache.getGeneration();
+    OMAuthenticationContext context = _ommss.retrieveAuthenticationContext();
+
+    if (context == null) {
+      return null;
+    }
+
+    headers = new HashMap<String, Object>();
+    boolean cacheable = true;
+
+    switch(_authType)
+    {
+      case HTTPBasicAuth:
+        headers = _fetchBasicAuthHeaders(context);
+        break;
+      case OAuth20:
+      case OpenIDConnect10:
+        headers = _fetchOauthHeaders(context, scopes);
+        break;
+      case FederatedAuth:
+        if (isSamlFlow())
+        {
+          headers.putAll(_fetchOauthHeaders(context, scopes));
+        }
+        if (fedAuthSecuredUrl != null)
+        {
+          headers.putAll(context.getRequestParams(fedAuthSecuredUrl, false));
+          cacheable = false;
+        }
+        break;
+    }
+
+    headers.putAll(context.getCustomHeaders());
+    if (cacheable)
+    {
+      _headerCache.put(key, headers, generation);
+    }
+    return headers;
+  }
+
+  /**
+   * Drops the cached headers and pushes fresh ones to the headers callbacks, if any.
+   */
+  private void _invalidateHeaders()
+  {
+    _headerCache.invalidate();
+    final List<HeaderCache.HeadersCallback> callbacks = _headerCache.getCallbacks();
+    if (callbacks.isEmpty())
+    {
+      return;
+    }
+
+    // Off the calling thread, building headers may decrypt stored credentials.
+    try
+    {
+      OMHTTPRequestExecutor.execute(() -> {
+        for (HeaderCache.HeadersCallback callback : callbacks)
+        {
+          _pushHeaders(callback);
+        }
+      }, OMHTTPRequestExecutor.Priority.BACKGROUND, "Headers");
+    }
+    catch (RejectedExecutionException e)
+    {
+      Log.w(TAG, "Could not push headers, too many pending tasks.");
+    }
+  }
+
+  /**
+   * Sends the current headers, or the error obtaining them, to a headers callback.
+   * @param callback
+   */
+  private void _pushHeaders(HeaderCache.HeadersCallback callback)
+  {
+    PluginResult result;
+    try
+    {
+      Map<String, Object> headers = _getHeaders(callback.url, callback.scopes);
+      if (headers == null)
+      {
+        result = new PluginResult(PluginResult.Status.ERROR,
+                                  new JSONObject(IdmAuthenticationPlugin.errorToMap(PluginErrorCodes.NO_AUTH_CONTEXT)));
+      }
+      else
+      {
+        result = new PluginResult(PluginResult.Status.OK, new JSONObject(headers));
+      }
+    }
+    catch (OMMobileSecurityException securityEx)
+    {
+      Log.e(TAG, "Error while pushing headers: " + securityEx.getMessage());
+      result = new PluginResult(PluginResult.Status.ERROR,
+                                new JSONObject(IdmAuthenticationPlugin.errorToMap(securityEx.getErrorCode())));
+    }
+    result.setKeepCallback(true);
+    callback.callbackContext.sendPluginResult(result);
+  }
+
   /**
    * Handles external browser challenge input and passes it on to IDM SDK.
    * @param incomingUri
@@ -354,6 +536,14 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
                                         final OMAuthenticationCompletionHandler completionHandler)
   {
     Log.d(TAG, "onAuthenticationChallenge invoked.");
+    final CallbackContext loginCallback = _loginCallback;
+    if (loginCallback == null)
+    {
+      // Disposed, or the login was not started from JS: there is nobody to answer the challenge.
+      Log.w(TAG, "No login callback for the challenge, cancelling the login.");
+      completionHandler.cancel();
+      return;
+    }
     Map<String, Object> fields = challenge.getChallengeFields();
 
     Object o = fields.get(OMSecurityConstants.Challenge.MOBILE_SECURITY_EXCEPTION);
@@ -374,7 +564,7 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
       //
       if (OMErrorCode.UNABLE_TO_CONNECT_TO_SERVER.getErrorCode().equals(errorCode))
       {
-        IdmAuthenticationPlugin.invokeCallbackError(_loginCallback, securityEx);
+        IdmAuthenticationPlugin.invokeCallbackError(loginCallback, securityEx);
         return;
       }
     }
@@ -422,7 +612,7 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
           });
         }
         else {
-          _loginCallback.success(new JSONObject(fieldsMap));
+          loginCallback.success(new JSONObject(fieldsMap));
         }
 
         break;
@@ -438,18 +628,18 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
         // does not result in a challenge in Android. The challenge in Android
         // happens only when there is a POST request which moves from secured to non secured.
         _finishWebView();
-        IdmAuthenticationPlugin.invokeCallbackError(_loginCallback, PluginErrorCodes.INVALID_REDIRECT_CHALLENGE);
+        IdmAuthenticationPlugin.invokeCallbackError(loginCallback, PluginErrorCodes.INVALID_REDIRECT_CHALLENGE);
         break;
       case UNTRUSTED_SERVER_CERTIFICATE:
         _finishWebView();
-        IdmAuthenticationPlugin.invokeCallbackError(_loginCallback, PluginErrorCodes.UNTRUSTED_CHALLENGE);
+        IdmAuthenticationPlugin.invokeCallbackError(loginCallback, PluginErrorCodes.UNTRUSTED_CHALLENGE);
         break;
       case CLIENT_IDENTITY_CERTIFICATE_REQUIRED:
         handleClientCertificateChallenge(fields);
         break;
       default:
         Log.w(TAG, "Unhandled challenge type encountered: " + _challengeType);
-        IdmAuthenticationPlugin.invokeCallbackError(_loginCallback, PluginErrorCodes.UNSUPPORTED_CHALLENGE);
+        IdmAuthenticationPlugin.invokeCallbackError(loginCallback, PluginErrorCodes.UNSUPPORTED_CHALLENGE);
         break;
     }
   }
@@ -533,8 +723,12 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
                                OMMobileSecurityException securityEx)
   {
     Log.d(TAG, "Setup completed.");
-    _setupException = securityEx;
-    _setupLatch.countDown();
+    SetupListener listener = _setupListener;
+    _setupListener = null;
+    if (listener != null)
+    {
+      listener.onSetupCompleted(this, securityEx);
+    }
     Log.d(TAG, "Exit Setup completed..");
   }
 
@@ -543,51 +737,61 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
                                         OMMobileSecurityException securityEx)
   {
     Log.d(TAG, "onAuthenticationCompleted invoked.");
-    try
-    {
-      //
-      // After login completed, dismiss the webview activity. Do this before even handling exception
-      // during login, because the purpose of the activity is served either ways.
-      //
-      _finishWebView();
-      unbindChromeTabs();
+    CallbackContext loginCallback = _loginCallback;
+    _loginCallback = null;
 
-      if (securityEx != null)
-      {
-        Log.e(TAG, "Error in authentication completed: " + securityEx.getMessage());
-        IdmAuthenticationPlugin.invokeCallbackError(_loginCallback, securityEx);
-        return;
-      }
+    //
+    // After login completed, dismiss the webview activity. Do this before even handling exception
+    // during login, because the purpose of the activity is served either ways.
+    //
+    _finishWebView();
+    unbindChromeTabs();
+    _invalidateHeaders();
 
-      _loginCallback.success();
+    if (securityEx != null)
+    {
+      Log.e(TAG, "Error in authentication completed: " + securityEx.getMessage());
+      IdmAuthenticationPlugin.invokeCallbackError(loginCallback, securityEx);
+      return;
     }
-    finally
+
+    if (loginCallback == null)
     {
-      _loginCallback = null;
+      Log.w(TAG, "No login callback to complete, auth disposed or login not started from JS.");
+      return;
     }
+    loginCallback.success();
   }
 
   @Override
   public void onLogoutCompleted(OMMobileSecurityService ommss, OMMobileSecurityException securityEx)
   {
     Log.d(TAG, "onLogoutCompleted invoked");
-    try
+    List<CallbackContext> logoutCallbacks;
+    synchronized (_logoutCallbacks)
     {
-      _finishWebView();
-      unbindChromeTabs();
+      logoutCallbacks = new ArrayList<CallbackContext>(_logoutCallbacks);
+      _logoutCallbacks.clear();
+    }
 
-      if (securityEx != null)
-      {
-        Log.e(TAG, "Error in logout completed: " + securityEx.getMessage());
-        IdmAuthenticationPlugin.invokeCallbackError(_logoutCallback, securityEx);
-        return;
-      }
+    _finishWebView();
+    unbindChromeTabs();
+    _invalidateHeaders();
 
-      _logoutCallback.success();
+    if (securityEx != null)
+    {
+      Log.e(TAG, "Error in logout completed: " + securityEx.getMessage());
     }
-    finally
+    for (CallbackContext logoutCallback : logoutCallbacks)
     {
-      _logoutCallback = null;
+      if (securityEx != null)
+      {
+        IdmAuthenticationPlugin.invokeCallbackError(logoutCallback, securityEx);
+      }
+      else
+      {
+        logoutCallback.success();
+      }
     }
   }
 
@@ -601,12 +805,40 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
   public void onTimeout(TimeoutType timeoutType, long timeLeftToTimeout)
   {
     Log.d(TAG, "onTimeout invoked");
+    _invalidateHeaders();
+    // Empty once disposed, timers may still fire meanwhile.
+    if (_timeoutCallbacks.isEmpty())
+    {
+      return;
+    }
     Map<String, String> resp = new HashMap<String, String>();
     resp.put("TimeoutType", timeoutType.toString());
     resp.put("TimeLeftToTimeout", String.valueOf(timeLeftToTimeout));
-    PluginResult result = new PluginResult(PluginResult.Status.OK, new JSONObject(resp));
-    result.setKeepCallback(true);
-    _timeoutCallback.sendPluginResult(result);
+    for (CallbackContext timeoutCallback : _timeoutCallbacks)
+    {
+      PluginResult result = new PluginResult(PluginResult.Status.OK, new JSONObject(resp));
+      result.setKeepCallback(true);
+      timeoutCallback.sendPluginResult(result);
+    }
+  }
+
+  @Override
+  public void onTokenRefreshed(OMAuthenticationContext authContext)
+  {
+    Log.d(TAG, "onTokenRefreshed invoked");
+    _invalidateHeaders();
+  }
+
+  /**
+   * Notified when the setup started by {@link #setup(SetupListener)} completes.
+   */
+  interface SetupListener
+  {
+    /**
+     * @param auth the auth which was set up.
+     * @param securityEx the setup error, null if the setup succeeded.
+     */
+    void onSetupCompleted(IdmAuthentication auth, OMMobileSecurityException securityEx);
   }
 
   /**
@@ -629,6 +861,23 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
     return _completionHandler;
   }
 
+  /**
+   * Runs an action on the current challenge: on the UI thread for the webview challenges, whose completion handler
+   * drives the webview, on the calling thread otherwise.
+   * @param action
+   */
+  private void _runForChallenge(Runnable action)
+  {
+    if (_isWebViewChallenge)
+    {
+      _mainActivity.runOnUiThread(action);
+    }
+    else
+    {
+      action.run();
+    }
+  }
+
   /**
    * Utility method to launch the webview activity for authentication flows for which IDM requires embedded webview.
    */
@@ -777,13 +1026,13 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
     Log.d(TAG, "Collect headers for OAUTH from auth context or scope set " + scopes);
 
     //
-    // All tokens returned are valid for the provided scopes, return first one.
+    // First valid token for the provided scopes, cached by the auth context.
     //
-    List<OMToken> tokens = context.getTokens(scopes);
-    if (tokens.size() > 0)
+    OMToken token = context.getBestToken(scopes);
+    if (token != null)
     {
-      addExpiryTimeHeader(headers, tokens.get(0).getExpiryTime());
-      addAuthorizationHeader(headers, _BEARER, tokens.get(0).getValue());
+      addExpiryTimeHeader(headers, token.getExpiryTime());
+      addAuthorizationHeader(headers, _BEARER, token.getValue());
     }
     return headers;
   }
@@ -908,7 +1157,7 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
    * because IDM's challenge handler is not serializable. If we find a better way to share object to
    * WebViewActivity, we should do that and get rid of static.
    */
-  private static CompletionHandler _completionHandler;
+  private static volatile CompletionHandler _completionHandler;
 
   private final OMMobileSecurityService.AuthServerType _authType;
   private final Activity _mainActivity;
@@ -916,15 +1165,20 @@ public class IdmAuthentication implements OMMobileSecurityServiceCallback, OMAut
   private final BroadcastReceiver _broadcastReceiver;
   private final LocalBroadcastManager _localBroadcastManager;
   private final ArrayList<String> _webViewButtonsArray;
-  private CallbackContext _loginCallback;
-  private CallbackContext _logoutCallback;
-  private CallbackContext _timeoutCallback;
-  private Handler _handler;
-  private OMAuthenticationChallengeType _challengeType;
-  private OMMobileSecurityService _ommss;
-  private boolean _isWebViewChallenge;
-  private CustomTabActivityHelper _customCustomTabActivityHelper;
-  private boolean _externalBrowserChallengeResponseExpected;
-  private CountDownLatch _setupLatch = new CountDownLatch(1);
-  private OMMobileSecurityException _setupException;
+  // Fields below are volatile or guarded, as set by the actions on the cordova thread pool and read by the SDK
+  // callbacks and the UI thread.
+  private volatile CallbackContext _loginCallback;
+  // Of the logout in progress, joined by the logouts with the same forget value.
+  private final List<CallbackContext> _logoutCallbacks = new ArrayList<CallbackContext>();
+  private boolean _logoutForget; // Guarded by _logoutCallbacks.
+  // One per JS flow sharing this auth.
+  private final List<CallbackContext> _timeoutCallbacks = new CopyOnWriteArrayList<CallbackContext>();
+  private final Handler _handler;
+  private volatile OMAuthenticationChallengeType _challengeType;
+  private volatile OMMobileSecurityService _ommss;
+  private volatile boolean _isWebViewChallenge;
+  private volatile CustomTabActivityHelper _customCustomTabActivityHelper;
+  private volatile boolean _externalBrowserChallengeResponseExpected;
+  private volatile SetupListener _setupListener;
+  private final HeaderCache _headerCache = new HeaderCache();
 }
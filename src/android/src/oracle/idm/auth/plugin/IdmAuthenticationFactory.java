@@ -4,20 +4,33 @@
  */
 package oracle.idm.auth.plugin;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeSet;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
 
 import android.util.Log;
+import oracle.idm.mobile.OMMobileSecurityException;
 import org.apache.cordova.CallbackContext;
+import org.json.JSONArray;
 import org.json.JSONObject;
 
 import android.app.Activity;
+import android.os.Build;
 
 /**
  * This class is a factory which manages different authentication flows.
  * The plugin supports multiple authentication flows in parallel. This factory inits the authentication flow and looks up
  * the flow based on UUID when requested.
+ * Flows are shared: creating a flow with the same properties as an existing one returns the existing one. A flow
+ * released as many times as it was created is no longer held by any JS flow; it is kept for reuse, and disposed once
+ * not used for an hour, or when it is among the least recently used ones beyond 16 flows. Flows still held are never
+ * disposed by the factory, as their holders could not tell, unless their activity is gone: JS flows go away with the
+ * webview of the activity, and JS never releases them. Flows are also no longer held once the webview page is reset.
  */
 public enum IdmAuthenticationFactory
 {
@@ -29,29 +42,138 @@ public enum IdmAuthenticationFactory
    */
   public IdmAuthentication get(String uuid)
   {
-    return _AUTH_CACHE.get(uuid);
+    Flow flow = _AUTH_CACHE.get(uuid);
+    if (flow == null)
+    {
+      return null;
+    }
+    flow.lastUsed = System.currentTimeMillis();
+    return flow.auth;
   }
 
   /**
-   * Create a new auth for the parameters passed.
+   * Create a new auth for the parameters passed, or reuse the one created with the same parameters. Returns once the
+   * setup is started; the callback is invoked with the key of the auth once the setup completes, or with the error
+   * if it fails.
    * @param context
    * @param callback
    * @param props authentication properties to be used to create IDM OMMSS instance.
-   * @return auth object
    */
-  public String create(Activity context, CallbackContext callback, JSONObject props)
+  public void create(Activity context, final CallbackContext callback, JSONObject props)
   {
+    final String propsKey = _getPropsKey(props);
+    synchronized (this)
+    {
+      _evict();
+      String key = _KEYS_BY_PROPS.get(propsKey);
+      Flow flow = key == null ? null : _AUTH_CACHE.get(key);
+      if (flow != null && flow.auth.getActivity() == context)
+      {
+        Log.d(TAG, "Reusing Authentication flow.");
+        flow.references++;
+        flow.lastUsed = System.currentTimeMillis();
+        IdmAuthenticationPlugin.invokeCallbackAuthFlowKey(callback, key);
+        return;
+      }
+
+      List<CallbackContext> pendingCallbacks = _PENDING_SETUPS.get(propsKey);
+      if (pendingCallbacks != null)
+      {
+        Log.d(TAG, "Waiting for the setup of the same Authentication flow.");
+        pendingCallbacks.add(callback);
+        return;
+      }
+      pendingCallbacks = new ArrayList<CallbackContext>();
+      pendingCallbacks.add(callback);
+      _PENDING_SETUPS.put(propsKey, pendingCallbacks);
+    }
+
     Log.d(TAG, "Creating new Authentication flow.");
     IdmAuthentication idmAuthentication = new IdmAuthentication(context, props);
-    if (idmAuthentication.setup(callback))
+    idmAuthentication.setup(new IdmAuthentication.SetupListener()
     {
-      String key = UUID.randomUUID().toString();
-      _AUTH_CACHE.put(key, idmAuthentication);
-      return key;
+      @Override
+      public void onSetupCompleted(IdmAuthentication auth, OMMobileSecurityException securityEx)
+      {
+        List<CallbackContext> callbacks;
+        String key = null;
+        synchronized (IdmAuthenticationFactory.this)
+        {
+          callbacks = _PENDING_SETUPS.remove(propsKey);
+          if (securityEx == null)
+          {
+            key = UUID.randomUUID().toString();
+            // Replaces a flow created with the same properties for another activity, left to its holders if any.
+            String replacedKey = _KEYS_BY_PROPS.put(propsKey, key);
+            Flow replaced = replacedKey == null ? null : _AUTH_CACHE.get(replacedKey);
+            if (replaced != null && (replaced.references <= 0 || _isActivityGone(replaced))
+                && !replaced.auth.isBusy())
+            {
+              _dispose(replacedKey);
+            }
+            _AUTH_CACHE.put(key, new Flow(auth, propsKey, callbacks.size()));
+          }
+        }
+
+        for (CallbackContext pendingCallback : callbacks)
+        {
+          if (securityEx != null)
+          {
+            Log.d(TAG, "Failed to creating new Authentication flow.");
+            IdmAuthenticationPlugin.invokeCallbackError(pendingCallback, securityEx);
+          }
+          else
+          {
+            IdmAuthenticationPlugin.invokeCallbackAuthFlowKey(pendingCallback, key);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Releases the auth for the uuid. Once released as many times as it was created, it no longer notifies JS and may
+   * be evicted.
+   * @param uuid identifier for the auth.
+   */
+  public synchronized void release(String uuid)
+  {
+    Flow flow = _AUTH_CACHE.get(uuid);
+    if (flow != null && flow.references > 0 && --flow.references == 0)
+    {
+      flow.auth.removeCallbacks();
+      flow.lastUsed = System.currentTimeMillis();
     }
+  }
 
-    Log.d(TAG, "Failed to creating new Authentication flow.");
-    return null;
+  /**
+   * Releases all the flows created for the activity, as the JS flows holding them are gone with the page. The flows
+   * are kept for reuse by the next page, unless the activity is destroyed, in which case they are disposed, or
+   * evicted once no longer busy.
+   * @param activity whose webview page was reset or destroyed.
+   * @param destroyed true if the activity is being destroyed.
+   */
+  public synchronized void releaseAll(Activity activity, boolean destroyed)
+  {
+    for (String key : new ArrayList<String>(_AUTH_CACHE.keySet()))
+    {
+      Flow flow = _AUTH_CACHE.get(key);
+      if (flow == null || flow.auth.getActivity() != activity)
+      {
+        continue;
+      }
+      if (flow.references > 0)
+      {
+        flow.references = 0;
+        flow.auth.removeCallbacks();
+        flow.lastUsed = System.currentTimeMillis();
+      }
+      if (destroyed && !flow.auth.isBusy())
+      {
+        Log.d(TAG, "Disposing Authentication flow of a destroyed activity.");
+        _dispose(key);
+      }
+    }
   }
 
   /**
@@ -64,6 +186,157 @@ public enum IdmAuthenticationFactory
     return _AUTH_CACHE.containsKey(uuid);
   }
 
-  private final Map<String, IdmAuthentication> _AUTH_CACHE = new HashMap<String, IdmAuthentication>();
+  /**
+   * Disposes the idle flows, then the least recently used one beyond the maximum number of flows. Only flows no
+   * longer held by any JS flow, or whose activity is gone, are disposed.
+   */
+  private void _evict()
+  {
+    long now = System.currentTimeMillis();
+    String leastRecentlyUsed = null;
+    long leastRecentlyUsedTime = Long.MAX_VALUE;
+    Iterator<Map.Entry<String, Flow>> it = _AUTH_CACHE.entrySet().iterator();
+    while (it.hasNext())
+    {
+      Map.Entry<String, Flow> entry = it.next();
+      Flow flow = entry.getValue();
+      if (flow.auth.isBusy())
+      {
+        continue;
+      }
+      if (_isActivityGone(flow))
+      {
+        Log.d(TAG, "Disposing Authentication flow of a destroyed activity.");
+        _dispose(entry.getKey());
+      }
+      else if (flow.references > 0)
+      {
+        continue;
+      }
+      else if (now - flow.lastUsed >= _MAX_IDLE_MILLIS)
+      {
+        Log.d(TAG, "Disposing idle Authentication flow.");
+        _dispose(entry.getKey());
+      }
+      else if (flow.lastUsed < leastRecentlyUsedTime)
+      {
+        leastRecentlyUsed = entry.getKey();
+        leastRecentlyUsedTime = flow.lastUsed;
+      }
+    }
+
+    // A new flow may be about to be added.
+    if (_AUTH_CACHE.size() >= _MAX_FLOWS && leastRecentlyUsed != null)
+    {
+      Log.d(TAG, "Disposing least recently used Authentication flow.");
+      _dispose(leastRecentlyUsed);
+    }
+  }
+
+  private static boolean _isActivityGone(Flow flow)
+  {
+    Activity activity = flow.auth.getActivity();
+    return activity.isFinishing() || _isDestroyed(activity);
+  }
+
+  private static boolean _isDestroyed(Activity activity)
+  {
+    return Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR1 && activity.isDestroyed();
+  }
+
+  private void _dispose(String key)
+  {
+    Flow flow = _AUTH_CACHE.remove(key);
+    if (flow == null)
+    {
+      return;
+    }
+    if (key.equals(_KEYS_BY_PROPS.get(flow.propsKey)))
+    {
+      _KEYS_BY_PROPS.remove(flow.propsKey);
+    }
+    flow.auth.dispose();
+  }
+
+  /**
+   * Builds a key which is the same for equal properties, whatever the order of the keys.
+   * @param props
+   * @return
+   */
+  private static String _getPropsKey(JSONObject props)
+  {
+    StringBuilder builder = new StringBuilder();
+    _appendCanonical(builder, props);
+    return builder.toString();
+  }
+
+  private static void _appendCanonical(StringBuilder builder, Object value)
+  {
+    if (value instanceof JSONObject)
+    {
+      JSONObject object = (JSONObject) value;
+      TreeSet<String> keys = new TreeSet<String>();
+      Iterator<String> it = object.keys();
+      while (it.hasNext())
+      {
+        keys.add(it.next());
+      }
+      builder.append('{');
+      for (String key : keys)
+      {
+        builder.append(JSONObject.quote(key)).append(':');
+        _appendCanonical(builder, object.opt(key));
+        builder.append(',');
+      }
+      builder.append('}');
+    }
+    else if (value instanceof JSONArray)
+    {
+      JSONArray array = (JSONArray) value;
+      builder.append('[');
+      for (int i = 0; i < array.length(); i++)
+      {
+        _appendCanonical(builder, array.opt(i));
+        builder.append(',');
+      }
+      builder.append(']');
+    }
+    else if (value instanceof String)
+    {
+      builder.append(JSONObject.quote((String) value));
+    }
+    else
+    {
+      builder.append(value);
+    }
+  }
+
+  /**
+   * An auth, with what is needed to share and evict it.
+   */
+  private static class Flow
+  {
+    Flow(IdmAuthentication auth, String propsKey, int references)
+    {
+      this.auth = auth;
+      this.propsKey = propsKey;
+      this.references = references;
+    }
+
+    final IdmAuthentication auth;
+    final String propsKey;
+    // Guarded by the factory.
+    int references;
+    volatile long lastUsed = System.currentTimeMillis();
+  }
+
+  // Setup completes on the main thread, while lookups come from the bridge.
+  private final Map<String, Flow> _AUTH_CACHE = new ConcurrentHashMap<String, Flow>();
+  // Guarded by the factory.
+  private final Map<String, String> _KEYS_BY_PROPS = new HashMap<String, String>();
+  private final Map<String, List<CallbackContext>> _PENDING_SETUPS = new HashMap<String, List<CallbackContext>>();
   private final String TAG = IdmAuthenticationFactory.class.getSimpleName();
+
+  private static final int _MAX_FLOWS = 16;
+  private static final long _MAX_IDLE_MILLIS = 60 * 60 * 1000;
 }
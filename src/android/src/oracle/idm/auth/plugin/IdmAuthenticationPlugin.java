@@ -4,6 +4,8 @@
  */
 package oracle.idm.auth.plugin;
 
+import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -21,9 +23,11 @@ import org.apache.cordova.CallbackContext;
 import org.apache.cordova.CordovaInterface;
 import org.apache.cordova.CordovaPlugin;
 import org.apache.cordova.CordovaWebView;
+import org.apache.cordova.PluginResult;
 import org.json.JSONArray;
 import org.json.JSONException;
 import org.json.JSONObject;
+import org.json.JSONTokener;
 
 /**
  * This class is the Cordova plugin implementation that acts as the entry point.
@@ -38,8 +42,27 @@ public class IdmAuthenticationPlugin extends CordovaPlugin
     ResourceHelper.INSTANCE.init(cordova.getActivity().getResources(), cordova.getActivity().getPackageName());
   }
 
+  /**
+   * The page is reloaded or navigated away, along with the JS flows holding the auth flows.
+   */
+  @Override
+  public void onReset()
+  {
+    _factory.releaseAll(cordova.getActivity(), false);
+  }
+
+  @Override
+  public void onDestroy()
+  {
+    _factory.releaseAll(cordova.getActivity(), true);
+  }
+
   /**
    * Handles actions from JS layer.
+   * Actions are run on the cordova thread pool, as they may decrypt stored data, derive keys or wait for the
+   * network. This frees the bridge thread as well as the UI thread, to which only WebView and Activity operations
+   * are posted. Actions of the same auth flow run one after the other, in the order JS called them, e.g. a logout
+   * never overtakes the login called before it.
    * @param action
    * @param args
    * @param callbackContext
@@ -47,111 +70,179 @@ public class IdmAuthenticationPlugin extends CordovaPlugin
    * @throws JSONException
    */
   @Override
-  public boolean execute(String action, JSONArray args, CallbackContext callbackContext)
+  public boolean execute(final String action, final JSONArray args, final CallbackContext callbackContext)
   {
-    try {
-      if(_localAuth == null) {
-        _localAuth = new LocalAuthentication(cordova.getActivity());
+    if (!_ACTIONS.contains(action))
+    {
+      invokeCallbackError(callbackContext, "Invalid action: " + action);
+      return false;
+    }
+
+    Runnable task = () -> {
+      try
+      {
+        _execute(action, args, callbackContext);
       }
+      catch (RuntimeException e)
+      {
+        Log.e(TAG, "Error while executing " + action + ": " + e.getMessage(), e);
+        IdmAuthenticationPlugin.invokeCallbackError(callbackContext, PluginErrorCodes.INTERNAL_ERROR);
+      }
+    };
+    String authFlowKey = _FLOW_ACTIONS.contains(action) && args != null ? getStringFromJsonArray(args, 0) : null;
+    if (authFlowKey == null)
+    {
+      cordova.getThreadPool().execute(task);
     }
-    catch (Exception e) {
-      Log.e(TAG, "Error while enabling authenticator: " + e.getMessage(), e);
-      IdmAuthenticationPlugin.invokeCallbackError(callbackContext, PluginErrorCodes.INTERNAL_ERROR);
+    else
+    {
+      _executeInOrder(authFlowKey, task);
+    }
+    return true;
+  }
+
+  /**
+   * Runs the task on the cordova thread pool once the tasks of the same auth flow passed before are done.
+   * @param authFlowKey
+   * @param task
+   */
+  private void _executeInOrder(final String authFlowKey, final Runnable task)
+  {
+    synchronized (_flowQueues)
+    {
+      ArrayDeque<Runnable> queue = _flowQueues.get(authFlowKey);
+      if (queue != null)
+      {
+        // Run by the thread running the current task of the flow, once done.
+        queue.add(task);
+        return;
+      }
+      _flowQueues.put(authFlowKey, new ArrayDeque<Runnable>());
+    }
+    cordova.getThreadPool().execute(() -> _runInOrder(authFlowKey, task));
+  }
+
+  private void _runInOrder(String authFlowKey, Runnable task)
+  {
+    while (task != null)
+    {
+      task.run();
+      synchronized (_flowQueues)
+      {
+        task = _flowQueues.get(authFlowKey).poll();
+        if (task == null)
+        {
+          _flowQueues.remove(authFlowKey);
+        }
+      }
+    }
+  }
+
+  /**
+   * Runs an action from JS layer, off the UI thread.
+   * @param action
+   * @param args
+   * @param callbackContext
+   */
+  private void _execute(String action, JSONArray args, CallbackContext callbackContext)
+  {
+    synchronized (this)
+    {
+      try {
+        if(_localAuth == null) {
+          _localAuth = new LocalAuthentication(cordova.getActivity());
+        }
+      }
+      catch (Exception e) {
+        Log.e(TAG, "Error while enabling authenticator: " + e.getMessage(), e);
+        IdmAuthenticationPlugin.invokeCallbackError(callbackContext, PluginErrorCodes.INTERNAL_ERROR);
+      }
     }
 
     if ("setup".equals(action))
     {
       _handleSetup(args, callbackContext);
-      return true;
     }
     else if ("startLogin".equals(action))
     {
       _handleStartLogin(args, callbackContext);
-      return true;
     }
     else if ("finishLogin".equals(action))
     {
       _handleFinishLogin(args, callbackContext);
-      return true;
     }
     else if ("cancelLogin".equals(action))
     {
       _handleCancelLogin(args, callbackContext);
-      return true;
     }
     else if ("logout".equals(action))
     {
       _handleLogout(args, callbackContext);
-      return true;
     }
     else if ("isAuthenticated".equals(action))
     {
       _handleIsAuthenticated(args, callbackContext);
-      return true;
     }
     else if ("getHeaders".equals(action))
     {
       _handleGetHeaders(args, callbackContext);
-      return true;
+    }
+    else if ("batch".equals(action))
+    {
+      _handleBatch(args, callbackContext);
+    }
+    else if ("addHeadersCallback".equals(action))
+    {
+      _handleAddHeadersCallback(args, callbackContext);
+    }
+    else if ("dispose".equals(action))
+    {
+      _handleDispose(args, callbackContext);
     }
     else if ("addTimeoutCallback".equals(action))
     {
       _handleAddTimeoutCallback(args, callbackContext);
-      return true;
     }
     else if ("resetIdleTimeout".equals(action))
     {
       _handleResetIdleTimeout(args, callbackContext);
-      return true;
     }
     else if ("enabledLocalAuthsPrimaryFirst".equals(action))
     {
       _localAuth.enabledLocalAuthsPrimaryFirst(args, callbackContext);
-      return true;
     }
     else if ("authenticatePin".equals(action))
     {
       _localAuth.authenticatePin(args, callbackContext);
-      return true;
     }
     else if ("authenticateBiometric".equals(action))
     {
       _localAuth.authenticateBiometric(args, callbackContext);
-      return true;
     }
     else if ("enableLocalAuth".equals(action))
     {
       _localAuth.enable(args, callbackContext);
-      return true;
     }
     else if ("disableLocalAuth".equals(action))
     {
       _localAuth.disable(args, callbackContext);
-      return true;
     }
     else if ("changePin".equals(action))
     {
       _localAuth.changePin(args, callbackContext);
-      return true;
     }
     else if ("getLocalAuthSupportInfo".equals(action))
     {
       _localAuth.getLocalAuthSupportInfo(args, callbackContext);
-      return true;
     }
     else if ("setPreference".equals(action))
     {
       _localAuth.setPreference(args, callbackContext);
-      return true;
     }
     else if ("getPreference".equals(action))
     {
       _localAuth.getPreference(args, callbackContext);
-      return true;
     }
-
-    invokeCallbackError(callbackContext, "Invalid action: " + action);
-    return false;
   }
 
   /**
@@ -204,6 +295,17 @@ public class IdmAuthenticationPlugin extends CordovaPlugin
     context.error(new JSONObject(errorToMap(errorCode)));
   }
 
+  /**
+   * Sends the key of a newly set up auth to javascript.
+   * @param context
+   * @param authFlowKey
+   */
+  static void invokeCallbackAuthFlowKey(CallbackContext context, String authFlowKey) {
+    Map<String, Object> map = new HashMap<String, Object>();
+    map.put(AUTH_FLOW_KEY, authFlowKey);
+    context.success(new JSONObject(map));
+  }
+
   /**
    * Convert errorCode to an error map that can be passed on to javascript.
    * @param errorCode
@@ -232,17 +334,8 @@ public class IdmAuthenticationPlugin extends CordovaPlugin
       return;
     }
 
-    Map<String, Object> map =  new HashMap<String, Object>();
-    String token = _factory.create(cordova.getActivity(), callbackContext, jsonObject);
-
-    if (token == null)
-    {
-      IdmAuthenticationPlugin.invokeCallbackError(callbackContext, PluginErrorCodes.SETUP_ERROR);
-      return;
-    }
-
-    map.put(AUTH_FLOW_KEY, token);
-    callbackContext.success(new JSONObject(map));
+    // Does not wait for the setup, the callback is invoked once it completes.
+    _factory.create(cordova.getActivity(), callbackContext, jsonObject);
   }
 
   /**
@@ -337,6 +430,24 @@ public class IdmAuthenticationPlugin extends CordovaPlugin
                     getSetFromJsonArray(args, 2));
   }
 
+  /**
+   * Handles addHeadersCallback call.
+   * @param args
+   * @param callbackContext
+   */
+  private void _handleAddHeadersCallback(JSONArray args, CallbackContext callbackContext)
+  {
+    IdmAuthentication auth = _validateArgsAndGetAuth(args, callbackContext);
+    if (auth == null)
+    {
+      return;
+    }
+
+    auth.addHeadersCallback(callbackContext,
+                            getStringFromJsonArray(args, 1),
+                            getSetFromJsonArray(args, 2));
+  }
+
   /**
    * Handles logout call.
    * @param args
@@ -352,6 +463,26 @@ public class IdmAuthenticationPlugin extends CordovaPlugin
     auth.logout(callbackContext, args.optBoolean(1));
   }
 
+  /**
+   * Handles dispose call.
+   * @param args
+   * @param callbackContext
+   */
+  private void _handleDispose(JSONArray args, CallbackContext callbackContext)
+  {
+    IdmAuthentication auth = _validateArgsAndGetAuth(args, callbackContext);
+    if (auth == null)
+    {
+      return;
+    }
+    if (_currentAuthFlow == auth)
+    {
+      _currentAuthFlow = null;
+    }
+    _factory.release(getStringFromJsonArray(args, 0));
+    callbackContext.success();
+  }
+
   /**
    * Handles addTimeoutCallback call.
    * @param args
@@ -382,6 +513,129 @@ public class IdmAuthenticationPlugin extends CordovaPlugin
     auth.resetIdleTimeout(callbackContext);
   }
 
+  /**
+   * Handles batch call, which runs a list of operations on one auth and returns all their results in a single
+   * callback. Operations are run one after the other, in order, each once the previous one completed.
+   * @param args the auth flow key, followed by the operations, each an object with the action name and its
+   *             arguments other than the auth flow key.
+   * @param callbackContext executed with an array of results, in the order of the operations.
+   */
+  private void _handleBatch(JSONArray args, CallbackContext callbackContext)
+  {
+    IdmAuthentication auth = _validateArgsAndGetAuth(args, callbackContext);
+    if (auth == null)
+    {
+      return;
+    }
+
+    JSONArray operations = args.optJSONArray(1);
+    if (operations == null)
+    {
+      IdmAuthenticationPlugin.invokeCallbackError(callbackContext, PluginErrorCodes.NULL_ARGS);
+      return;
+    }
+
+    _runBatchOperation(getStringFromJsonArray(args, 0), operations, 0, new JSONArray(), callbackContext);
+  }
+
+  /**
+   * Runs the operation at the given index of a batch, then the following ones once it completes.
+   */
+  private void _runBatchOperation(final String authFlowKey, final JSONArray operations, final int index,
+                                  final JSONArray results, final CallbackContext callbackContext)
+  {
+    if (index == operations.length())
+    {
+      callbackContext.success(results);
+      return;
+    }
+
+    JSONObject operation = operations.optJSONObject(index);
+    String action = operation == null ? null : operation.optString(BATCH_ACTION);
+    JSONArray operationArgs = new JSONArray();
+    operationArgs.put(authFlowKey);
+    JSONArray actionArgs = operation == null ? null : operation.optJSONArray(BATCH_ARGS);
+    if (actionArgs != null)
+    {
+      for (int i = 0; i < actionArgs.length(); i++)
+      {
+        operationArgs.put(actionArgs.opt(i));
+      }
+    }
+
+    CallbackContext operationCallback = new CallbackContext(callbackContext.getCallbackId(), webView)
+    {
+      private boolean _completed;
+
+      @Override
+      public synchronized void sendPluginResult(PluginResult pluginResult)
+      {
+        // Only the first result of an operation is collected.
+        if (_completed)
+        {
+          return;
+        }
+        _completed = true;
+
+        boolean success = pluginResult.getStatus() == PluginResult.Status.OK.ordinal();
+        Object value;
+        try
+        {
+          value = _getBatchResultValue(pluginResult);
+        }
+        catch (JSONException jEx)
+        {
+          Log.e(TAG, "Exception while collecting batch result.", jEx);
+          success = false;
+          value = new JSONObject(errorToMap(PluginErrorCodes.INTERNAL_ERROR));
+        }
+
+        Map<String, Object> result = new HashMap<String, Object>();
+        result.put(BATCH_SUCCESS, success);
+        result.put(BATCH_RESULT, value);
+        results.put(new JSONObject(result));
+        _runBatchOperation(authFlowKey, operations, index + 1, results, callbackContext);
+      }
+    };
+
+    Log.d(TAG, "Running batch operation: " + action);
+    if ("isAuthenticated".equals(action))
+    {
+      _handleIsAuthenticated(operationArgs, operationCallback);
+    }
+    else if ("getHeaders".equals(action))
+    {
+      _handleGetHeaders(operationArgs, operationCallback);
+    }
+    else if ("resetIdleTimeout".equals(action))
+    {
+      _handleResetIdleTimeout(operationArgs, operationCallback);
+    }
+    else
+    {
+      invokeCallbackError(operationCallback, PluginErrorCodes.UNSUPPORTED_BATCH_ACTION);
+    }
+  }
+
+  /**
+   * Extracts the value of an operation result, to be added to the batch results.
+   * @param pluginResult
+   * @return
+   * @throws JSONException
+   */
+  private static Object _getBatchResultValue(PluginResult pluginResult) throws JSONException
+  {
+    switch (pluginResult.getMessageType())
+    {
+      case PluginResult.MESSAGE_TYPE_JSON:
+        return new JSONTokener(pluginResult.getMessage()).nextValue();
+      case PluginResult.MESSAGE_TYPE_STRING:
+        return pluginResult.getStrMessage();
+      default:
+        return JSONObject.NULL;
+    }
+  }
+
   /**
    * Validates the arguments passed and obtains the auth object.
    * @param args
@@ -452,9 +706,11 @@ public class IdmAuthenticationPlugin extends CordovaPlugin
     return set;
   }
 
-  private IdmAuthentication _currentAuthFlow;
+  private volatile IdmAuthentication _currentAuthFlow;
   private IdmAuthenticationFactory _factory = IdmAuthenticationFactory.INSTANCE;
   private LocalAuthentication _localAuth;
+  // Auth flow key -> tasks waiting for the running one, present while a task of the flow runs.
+  private final Map<String, ArrayDeque<Runnable>> _flowQueues = new HashMap<String, ArrayDeque<Runnable>>();
 
   // This should sync with idmAuthFlowPlugin.AuthFlowKey value in the Javascript API.
   private static final String AUTH_FLOW_KEY = "AuthFlowKey";
@@ -462,6 +718,21 @@ public class IdmAuthenticationPlugin extends CordovaPlugin
   private static final String ERROR_CODE = "errorCode";
   private static final String ERROR_SOURCE = "errorSource";
   private static final String TRANSLATED_ERROR_MSG = "translatedErrorMessage";
+  // These should sync with the batch operations and results in the Javascript API.
+  private static final String BATCH_ACTION = "action";
+  private static final String BATCH_ARGS = "args";
+  private static final String BATCH_SUCCESS = "success";
+  private static final String BATCH_RESULT = "result";
+
+  private static final Set<String> _ACTIONS = new HashSet<String>(Arrays.asList(
+      "setup", "startLogin", "finishLogin", "cancelLogin", "logout", "isAuthenticated", "getHeaders", "batch",
+      "addHeadersCallback", "dispose", "addTimeoutCallback", "resetIdleTimeout", "enabledLocalAuthsPrimaryFirst",
+      "authenticatePin", "authenticateBiometric", "enableLocalAuth", "disableLocalAuth", "changePin",
+      "getLocalAuthSupportInfo", "setPreference", "getPreference"));
+  // Actions taking the auth flow key as first argument, run in order per auth flow.
+  private static final Set<String> _FLOW_ACTIONS = new HashSet<String>(Arrays.asList(
+      "startLogin", "finishLogin", "cancelLogin", "logout", "isAuthenticated", "getHeaders", "batch",
+      "addHeadersCallback", "dispose", "addTimeoutCallback", "resetIdleTimeout"));
 
   private static final String TAG = IdmAuthenticationPlugin.class.getSimpleName();
 }
@@ -181,9 +181,16 @@ public class LocalAuthentication {
     try {
       FingerprintManager.CryptoObject cryptoObject = biometricAuthenticator.getFingerprintManagerCryptoObject();
       FingerprintPromptLocalizedStrings strings = createFingerprintPromptLocalizedStrings(args.optJSONObject(2));
-      FingerprintAuthenticationDialogFragment fragment = new FingerprintAuthenticationDialogFragment();
-      fragment.setData(new FingerprintCallback(biometricAuthenticator, callbackContext), cryptoObject, strings);
-      fragment.show(_mainActivity.getFragmentManager(), "fingerprintDialogFragment");
+      // Only the dialog needs the UI thread, the crypto object is obtained on the calling thread.
+      _mainActivity.runOnUiThread(() -> {
+        try {
+          FingerprintAuthenticationDialogFragment fragment = new FingerprintAuthenticationDialogFragment();
+          fragment.setData(new FingerprintCallback(biometricAuthenticator, callbackContext), cryptoObject, strings);
+          fragment.show(_mainActivity.getFragmentManager(), "fingerprintDialogFragment");
+        } catch (Exception e) {
+          IdmAuthenticationPlugin.invokeCallbackError(callbackContext, PluginErrorCodes.AUTHENTICATION_FAILED);
+        }
+      });
     } catch (Exception e) {
       IdmAuthenticationPlugin.invokeCallbackError(callbackContext, PluginErrorCodes.AUTHENTICATION_FAILED);
     }
@@ -15,6 +15,7 @@ public interface PluginErrorCodes {
   String NO_AUTH_CONTEXT = "P1010";
   String UNUSED_AND_DEPRECATED_ERR_CODE = "P1011";
   String EXTERNAL_BROWSER_LAUNCH_FAILED = "P1012";
+  String UNSUPPORTED_BATCH_ACTION = "P1026";
   String SETUP_ERROR = "10015"; // Reuse existing code from IDM SDK
   String AUTHENTICATION_FAILED = OMErrorCode.AUTHENTICATION_FAILED.getErrorCode(); // Reuse existing code from IDM SDK
   String AUTHENTICATION_CANCELLED = OMErrorCode.USER_CANCELED_AUTHENTICATION.getErrorCode(); // Reuse existing code from IDM SDK
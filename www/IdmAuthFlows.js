@@ -2028,6 +2028,32 @@ var IdmAuthFlows = function() {
   var RemoteAuthenticationFlow = function(authFlowKey, authProps) {
     AuthenticationFlow.call(this, authFlowKey, authProps);
     var self = this;
+    // Headers by URL and scopes, kept up to date by the native layer once requested. Android only.
+    var headersCache = {};
+    var headersCallbacks = {};
+
+    var getHeadersCacheKey = function(opt) {
+      return JSON.stringify([opt.fedAuthSecuredUrl || null, (opt.oauthScopes || []).slice().sort()]);
+    };
+
+    var cacheHeaders = function(opt, headers) {
+      // FedAuth cookies may change or expire at any time, they are always obtained from the plugin.
+      if (cordova.platformId !== 'android' || opt.fedAuthSecuredUrl)
+        return headers;
+
+      var key = getHeadersCacheKey(opt);
+      headersCache[key] = headers;
+      if (!headersCallbacks[key]) {
+        // Native layer pushes fresh headers after login, logout, timeout and token refresh.
+        headersCallbacks[key] = true;
+        exec(function(resp) {
+          headersCache[key] = changeEnumberability(resp, ['ExpiryTime']);
+        }, function(err) {
+          delete headersCache[key];
+        }, TAG, 'addHeadersCallback', [authFlowKey, opt.fedAuthSecuredUrl, opt.oauthScopes]);
+      }
+      return headers;
+    };
 
     /**
      * This method is used to login. <p>The promise is resolved when login succeeds. Once login is successful,
@@ -2146,10 +2172,42 @@ var IdmAuthFlows = function() {
     this.logout = function(purgeSettings) {
       if (purgeSettings !== true && purgeSettings !== false)
         purgeSettings = false;
+      // Headers pushed while logging out are dropped as well, the user is logged out even if logout fails.
+      headersCache = {};
       return new Promise(function (resolve, reject) {
         exec(function(resp) {
+          headersCache = {};
           resolve(self);
-        }, reject, TAG, 'logout', [authFlowKey, purgeSettings]);
+        }, function(err) {
+          headersCache = {};
+          reject(err);
+        }, TAG, 'logout', [authFlowKey, purgeSettings]);
+      });
+    };
+
+    /**
+     * This method is used to release this authentication flow once the app no longer needs it.
+     * <p>Authentication flows initialized with the same authentication properties share the same native state.
+     * Once all of them are disposed, it is kept for a later {@link init} with the same properties,
+     * and released when not used for an hour, or when there are many released flows.
+     * Native state is never released while a flow holding it is not disposed.
+     * A disposed flow can no longer be used, a new one has to be obtained through {@link init}.
+     * Disposing does not log out, persisted authentication state is retained.</p>
+     * @function dispose
+     * @memberof RemoteAuthenticationFlow.prototype
+     * @return {Promise}
+     * If the promise is rejected, the callback will receive and object of type {@link AuthError}
+     */
+    this.dispose = function() {
+      headersCache = {};
+      headersCallbacks = {};
+      if (cordova.platformId !== 'android')
+        return Promise.resolve();
+
+      return new Promise(function (resolve, reject) {
+        exec(function() {
+          resolve();
+        }, reject, TAG, 'dispose', [authFlowKey]);
       });
     };
 
@@ -2214,7 +2272,127 @@ var IdmAuthFlows = function() {
       });
 
       return getHeadersPromise.then(function(response) {
-        return changeEnumberability(response, NON_ENUMERABLE_KEYS);
+        return cacheHeaders(opt, changeEnumberability(response, NON_ENUMERABLE_KEYS));
+      });
+    };
+
+    /**
+     * This method returns the headers last obtained through {@link RemoteAuthenticationFlow#getHeaders} for the same options, without calling the plugin.
+     * Once headers are obtained for some options, the plugin keeps them up to date, pushing new headers after login, logout, timeout and token refresh.
+     * This allows the headers to be set synchronously on XHR requests, falling back to {@link RemoteAuthenticationFlow#getHeaders} when null is returned.
+     * <pre>
+     * var headers = authFlow.getCachedHeaders(options);
+     * if (headers) {
+     *   // Set headers on the XHR request.
+     * } else {
+     *   authFlow.getHeaders(options).then(...);
+     * }
+     * </pre>
+     * @function getCachedHeaders
+     * @memberof RemoteAuthenticationFlow.prototype
+     * @param {RemoteAuthenticationFlow~GetHeadersOptions} options - options to be used
+     * @return {Object.<string, string>} - headers needed to be used for accessing secured resource,
+     * null if none are cached for these options or if they expired. Always null on iOS, and when options.fedAuthSecuredUrl is set.
+     */
+    this.getCachedHeaders = function(options) {
+      var opt = options || {};
+      var headers = headersCache[getHeadersCacheKey(opt)];
+      if (!headers)
+        return null;
+
+      var expiryTime = Date.parse(headers.ExpiryTime);
+      if (!isNaN(expiryTime) && expiryTime <= Date.now())
+        return null;
+
+      return headers;
+    };
+
+    /**
+     * Operation to be used with {@link RemoteAuthenticationFlow#batch}
+     * @typedef {Object} RemoteAuthenticationFlow~BatchOperation
+     * @property {String} action - One of 'isAuthenticated', 'getHeaders' or 'resetIdleTimeout'.
+     * @property {Object} options - Options for the action, same as the ones of the method of the same name.
+     */
+    /**
+     * Operation result returned by {@link RemoteAuthenticationFlow#batch}
+     * @typedef {Object} RemoteAuthenticationFlow~BatchResult
+     * @property {String} status - 'fulfilled' if the operation succeeded, 'rejected' otherwise.
+     * @property {Object} value - Result of the operation, same as the one of the method of the same name. Set when fulfilled.
+     * @property {AuthError} reason - Error of the operation. Set when rejected.
+     */
+    /**
+     * This method is used to perform several operations on this authentication flow with a single call to the plugin,
+     * for instance to check the authentication status, reset the idle timeout and get the headers before making an XHR request.
+     * Operations are performed one after the other, in order. A failed operation does not prevent the next ones from being performed.
+     * <pre>
+     * authFlow.batch([
+     *   {action: 'isAuthenticated'},
+     *   {action: 'getHeaders', options: {oauthScopes: scopes}}
+     * ]).then(function(results){
+     *   if (results[0].value && results[1].status === 'fulfilled') {
+     *     var headers = results[1].value;
+     *     ...
+     *   }
+     * }
+     * </pre>
+     * @function batch
+     * @memberof RemoteAuthenticationFlow.prototype
+     * @param {Array.<RemoteAuthenticationFlow~BatchOperation>} operations - operations to be performed.
+     * @return {Promise.<Array.<RemoteAuthenticationFlow~BatchResult>>} - results of the operations, in the same order.
+     * If the promise is rejected, the callback will receive and object of type {@link AuthError}
+     */
+    this.batch = function(operations) {
+      var NON_ENUMERABLE_KEYS = ['ExpiryTime']; // ToDo: Pass this as a variable to backend
+
+      var toNativeOperation = function(operation) {
+        var options = operation.options || {};
+        switch (operation.action) {
+          case 'isAuthenticated':
+            return {action: operation.action, args: [options]};
+          case 'getHeaders':
+            return {action: operation.action, args: [options.fedAuthSecuredUrl, options.oauthScopes]};
+          case 'resetIdleTimeout':
+            return {action: operation.action, args: []};
+          default:
+            throw new Error('Invalid value ' + operation.action + ' passed for action. Should be one of isAuthenticated, getHeaders or resetIdleTimeout.');
+        }
+      };
+
+      var toResult = function(operation, success, result) {
+        if (!success)
+          return {status: 'rejected', reason: result};
+        if (operation.action === 'isAuthenticated')
+          return {status: 'fulfilled', value: result[IsAuthenticatedKey]};
+        if (operation.action === 'getHeaders')
+          return {status: 'fulfilled', value: cacheHeaders(operation.options || {}, changeEnumberability(result, NON_ENUMERABLE_KEYS))};
+        return {status: 'fulfilled', value: self};
+      };
+
+      var nativeOperations = operations.map(toNativeOperation);
+
+      if (cordova.platformId !== 'android') {
+        // No batch action on this platform, perform the operations one by one.
+        return nativeOperations.reduce(function(resultsPromise, operation, i) {
+          return resultsPromise.then(function(results) {
+            return new Promise(function (resolve) {
+              exec(function(resp) {
+                results.push(toResult(operations[i], true, resp));
+                resolve(results);
+              }, function(err) {
+                results.push(toResult(operations[i], false, err));
+                resolve(results);
+              }, TAG, operation.action, [authFlowKey].concat(operation.args));
+            });
+          });
+        }, Promise.resolve([]));
+      }
+
+      return new Promise(function (resolve, reject) {
+        exec(function(resp) {
+          resolve(resp.map(function(result, i) {
+            return toResult(operations[i], result.success, result.result);
+          }));
+        }, reject, TAG, 'batch', [authFlowKey, nativeOperations]);
       });
     };
   };